@@ -0,0 +1,255 @@
+package batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+
+import soundcard.StethCapture;
+import calculation.NonSpectralIndicators;
+import calculation.Phonocardiography;
+
+/**
+ * Analyzes WAV files without the GUI, and writes the non-spectral indicators
+ * of every file into a CSV file. The files are analyzed in parallel on a
+ * fork-join pool, the decoding of a file runs on the same pool, so an idle
+ * thread helps decoding the files of the others. The rows are written in the
+ * order the files are finished.
+ *
+ * Usage:
+ *
+ * <pre>
+ * java batch.BatchAnalysis [-o out.csv] [-threads n] (directory | glob)...
+ * </pre>
+ *
+ * A directory means its *.wav files, a glob (for example data/2016-*.wav) is
+ * matched against the file names of its directory.
+ *
+ * @author Nagy Tamas
+ *
+ */
+public class BatchAnalysis {
+
+	public static final String CSV_HEADER = "file,length,beats,pulse,meanRR,sdRR,rMSSD,pNN50,error";
+	public static final String WAV_GLOB = "*.{wav,WAV,Wav}";
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param threads
+	 *            the number of threads.
+	 */
+	public BatchAnalysis(int threads) {
+		pool = new ForkJoinPool(threads);
+	}
+
+	/**
+	 * Analyzes the files and writes a row for each of them, as soon as it is
+	 * finished.
+	 *
+	 * @param files
+	 * @param out
+	 *            the CSV, with header.
+	 * @return the number of files that couldn't be analyzed.
+	 * @throws InterruptedException
+	 */
+	public int analyze(List<File> files, PrintWriter out) throws InterruptedException {
+		CompletionService<Row> results = new ExecutorCompletionService<>(pool);
+		for (final File file : files) {
+			results.submit(new Callable<Row>() {
+
+				@Override
+				public Row call() {
+					return analyze(file);
+				}
+			});
+		}
+		out.println(CSV_HEADER);
+		int errors = 0;
+		for (int i = 0; i < files.size(); i++) {
+			Row row;
+			try {
+				row = results.take().get();
+			} catch (ExecutionException e) {
+				// analyze(File) catches the exceptions of the analysis
+				throw new IllegalStateException(e.getCause());
+			}
+			if (row.isError())
+				errors++;
+			out.println(row);
+			out.flush();
+		}
+		return errors;
+	}
+
+	/**
+	 * Analyzes a file the same way as opening it in the GUI.
+	 *
+	 * @param file
+	 * @return the row of the file in the CSV.
+	 */
+	public static Row analyze(File file) {
+		try {
+			Phonocardiography pcg = new Phonocardiography();
+			StethCapture capture = new StethCapture(pcg.getHeartSound());
+			capture.setNegateSignal(true);
+			capture.readWavIntoSignal(file);
+			if (pcg.getHeartSound().isEmpty())
+				return new Row(file, "no samples (not a PCM WAV file?)");
+			pcg.setLoaded(true);
+			pcg.runCalculations();
+			NonSpectralIndicators indicators = pcg.getNonSpectralIndicators();
+			return new Row(String.format(Locale.US, "%s,%.3f,%d,%.2f,%d,%d,%d,%.2f,", quote(file.getPath()),
+					pcg.getHeartSound().getLength(), pcg.getBeats().size(), indicators.getPulse(),
+					indicators.getMeanRR(), indicators.getsdRR(), indicators.getrMSSD(), indicators.getpNN50()),
+					false);
+		} catch (RuntimeException | OutOfMemoryError e) {
+			return new Row(file, e.toString());
+		}
+	}
+
+	/**
+	 * A row of the CSV.
+	 */
+	public static class Row {
+
+		private final String line;
+		private final boolean error;
+
+		Row(String line, boolean error) {
+			this.line = line;
+			this.error = error;
+		}
+
+		/**
+		 * The row of a file that couldn't be analyzed.
+		 */
+		Row(File file, String error) {
+			this(quote(file.getPath()) + ",,,,,,,," + quote(error), true);
+		}
+
+		/**
+		 * @return true, if the file couldn't be analyzed.
+		 */
+		public boolean isError() {
+			return error;
+		}
+
+		@Override
+		public String toString() {
+			return line;
+		}
+	}
+
+	private static String quote(String field) {
+		if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0)
+			return field;
+		return '"' + field.replace("\"", "\"\"") + '"';
+	}
+
+	/**
+	 * Stops the threads.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Lists the files of the arguments.
+	 *
+	 * @param patterns
+	 *            directories or globs.
+	 * @return the files, sorted by the arguments and then by name.
+	 * @throws IOException
+	 */
+	public static List<File> listFiles(List<String> patterns) throws IOException {
+		List<File> files = new ArrayList<>();
+		for (String pattern : patterns) {
+			Path path = Paths.get(pattern);
+			Path dir;
+			String glob;
+			if (Files.isDirectory(path)) {
+				dir = path;
+				glob = WAV_GLOB;
+			} else if (Files.isRegularFile(path)) {
+				files.add(path.toFile());
+				continue;
+			} else {
+				dir = (path.getParent() == null) ? Paths.get(".") : path.getParent();
+				glob = path.getFileName().toString();
+			}
+			List<File> matched = new ArrayList<>();
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, glob)) {
+				for (Path p : stream) {
+					if (Files.isRegularFile(p))
+						matched.add(p.toFile());
+				}
+			}
+			Collections.sort(matched);
+			files.addAll(matched);
+		}
+		return files;
+	}
+
+	private static void usage() {
+		System.err.println("Usage: java batch.BatchAnalysis [-o out.csv] [-threads n] (directory | glob)...");
+		System.exit(2);
+	}
+
+	public static void main(String[] args) {
+		String output = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<String> patterns = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-o") && i + 1 < args.length) {
+				output = args[++i];
+			} else if (args[i].equals("-threads") && i + 1 < args.length) {
+				try {
+					threads = Integer.parseInt(args[++i]);
+				} catch (NumberFormatException e) {
+					usage();
+				}
+			} else if (args[i].startsWith("-")) {
+				usage();
+			} else {
+				patterns.add(args[i]);
+			}
+		}
+		if (patterns.isEmpty() || threads < 1)
+			usage();
+
+		BatchAnalysis batch = new BatchAnalysis(threads);
+		try (PrintWriter out = (output == null) ? new PrintWriter(new OutputStreamWriter(System.out,
+				StandardCharsets.UTF_8)) : new PrintWriter(output, "UTF-8")) {
+			List<File> files = listFiles(patterns);
+			long start = System.nanoTime();
+			int errors = batch.analyze(files, out);
+			System.err.printf(Locale.US, "%d files, %d errors, %.1f s%n", files.size(), errors,
+					(System.nanoTime() - start) / 1e9);
+			if (errors > 0)
+				System.exit(1);
+		} catch (IOException | InterruptedException e) {
+			e.printStackTrace();
+			System.exit(1);
+		} finally {
+			batch.shutdown();
+		}
+	}
+
+}
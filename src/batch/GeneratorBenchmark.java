@@ -0,0 +1,166 @@
+package batch;
+
+import java.util.Locale;
+
+import signal.HeartSoundGenerator;
+import signal.SignalD;
+import signal.SignalSnapshot;
+import signal.SignalXY;
+import calculation.NonSpectralIndicators;
+import calculation.Phonocardiography;
+import calculation.SpectralIndicators;
+
+/**
+ * Benchmarks with the synthetic heart sound: the throughput of the generator,
+ * and the accuracy of the beat detection against the generated beats.
+ *
+ * Usage:
+ *
+ * <pre>
+ * java batch.GeneratorBenchmark [seconds [heartRate [ectopicProbability [noiseAmplitude]]]]
+ * </pre>
+ *
+ * @author Nagy Tamas
+ *
+ */
+public class GeneratorBenchmark {
+
+	// A detected beat matches a generated one within this time in s
+	public static final double BEAT_TOLERANCE = 0.1;
+	// The sample rate of the analyzed signal, like the decimated recordings
+	public static final double ANALYSIS_SAMPLE_RATE = 1000.0;
+	public static final int BLOCK_SIZE = 1 << 16;
+
+	/**
+	 * Measures how fast the generator writes doubles and 16 bit PCM data.
+	 *
+	 * @param sampleRate
+	 * @param seconds
+	 *            the length of the generated signal.
+	 */
+	public static void throughput(double sampleRate, double seconds) {
+		HeartSoundGenerator generator = new HeartSoundGenerator(sampleRate, 1);
+		generator.setFetalAmplitude(0.3 * HeartSoundGenerator.S1_AMPLITUDE);
+		generator.setMurmurAmplitude(0.1 * HeartSoundGenerator.S1_AMPLITUDE);
+		long samples = (long) (seconds * sampleRate);
+		double[] doubles = new double[BLOCK_SIZE];
+		byte[] bytes = new byte[2 * BLOCK_SIZE];
+		for (int pass = 0; pass < 2; pass++) {
+			// The first pass warms up the JIT
+			long start = System.nanoTime();
+			for (long i = 0; i < samples; i += BLOCK_SIZE)
+				generator.generate(doubles, 0, BLOCK_SIZE);
+			double doubleTime = (System.nanoTime() - start) / 1e9;
+			start = System.nanoTime();
+			for (long i = 0; i < samples; i += BLOCK_SIZE)
+				generator.generate(bytes, 0, BLOCK_SIZE, true);
+			double pcmTime = (System.nanoTime() - start) / 1e9;
+			generator.clearBeats();
+			if (pass == 1) {
+				System.out.printf(Locale.US, "double: %.0f Msamples/s (%.2f GB/s), 16 bit PCM: %.0f Msamples/s%n",
+						samples / doubleTime / 1e6, 8.0 * samples / doubleTime / 1e9, samples / pcmTime / 1e6);
+			}
+		}
+	}
+
+	/**
+	 * Analyzes a generated signal, and compares the detected beats with the
+	 * generated ones.
+	 *
+	 * @param seconds
+	 * @param heartRate
+	 * @param ectopicProbability
+	 * @param noiseAmplitude
+	 */
+	public static void accuracy(double seconds, double heartRate, double ectopicProbability, double noiseAmplitude) {
+		HeartSoundGenerator generator = new HeartSoundGenerator(ANALYSIS_SAMPLE_RATE, 2);
+		generator.setHeartRate(heartRate);
+		generator.setEctopicProbability(ectopicProbability);
+		generator.setNoiseAmplitude(noiseAmplitude);
+		Phonocardiography pcg = new Phonocardiography();
+		SignalD heartSound = pcg.getHeartSound();
+		heartSound.setDt(1.0 / ANALYSIS_SAMPLE_RATE);
+		double[] block = new double[BLOCK_SIZE];
+		long samples = (long) (seconds * ANALYSIS_SAMPLE_RATE);
+		for (long i = 0; i < samples; i += BLOCK_SIZE) {
+			int n = (int) Math.min(BLOCK_SIZE, samples - i);
+			generator.generate(block, 0, n);
+			// The stethoscope records negated samples
+			for (int j = 0; j < n; j++)
+				block[j] = -block[j];
+			heartSound.addAll(block, 0, n);
+		}
+		pcg.setLoaded(true);
+		long start = System.nanoTime();
+		pcg.runCalculations();
+		double analysisTime = (System.nanoTime() - start) / 1e9;
+
+		double[] truth = generator.getBeatTimes();
+		boolean[] ectopic = generator.getEctopicBeats();
+		SignalSnapshot detected = pcg.getBeats().snapshot();
+		// Both are sorted, matched by merging
+		int matched = 0;
+		int ectopicCount = 0;
+		double error = 0.0;
+		int t = 0;
+		for (int d = 0; d < detected.size(); d++) {
+			double x = detected.getX(d);
+			while (t < truth.length && truth[t] < x - BEAT_TOLERANCE)
+				t++;
+			if (t < truth.length && Math.abs(truth[t] - x) <= BEAT_TOLERANCE) {
+				matched++;
+				error += Math.abs(truth[t] - x);
+				t++;
+			}
+		}
+		int generated = 0;
+		for (int i = 0; i < truth.length; i++) {
+			if (truth[i] <= seconds) {
+				generated++;
+				if (ectopic[i])
+					ectopicCount++;
+			}
+		}
+		NonSpectralIndicators indicators = pcg.getNonSpectralIndicators();
+		System.out.printf(Locale.US, "%d beats generated (%d ectopic), %d detected, %d matched%n", generated,
+				ectopicCount, detected.size(), matched);
+		System.out.printf(Locale.US, "sensitivity %.2f%%, positive predictivity %.2f%%, mean timing error %.1f ms%n",
+				100.0 * matched / Math.max(1, generated), 100.0 * matched / Math.max(1, detected.size()), 1000.0
+						* error / Math.max(1, matched));
+		System.out.printf(Locale.US, "pulse %.1f (generated %.1f), %d normal RR intervals, analysis %.2f s%n",
+				indicators.getPulse(), heartRate, pcg.getNormalRRintervals().snapshot().size(), analysisTime);
+		SpectralIndicators spectral = pcg.getSpectralIndicators();
+		System.out.printf(Locale.US, "Welch: VLF %.0f, LF %.0f, HF %.0f ms^2, LF/HF %.2f%n", spectral.getVLF(),
+				spectral.getLF(), spectral.getHF(), spectral.getLFHF());
+		SpectralIndicators lomb = pcg.getLombScargleIndicators();
+		System.out.printf(Locale.US, "Lomb-Scargle: VLF %.0f, LF %.0f, HF %.0f ms^2, LF/HF %.2f%n", lomb.getVLF(),
+				lomb.getLF(), lomb.getHF(), lomb.getLFHF());
+		SignalXY trend = pcg.getLfHfTrend();
+		if (!trend.isEmpty())
+			System.out.printf(Locale.US, "LF/HF trend: %d points, last %.2f at %.0f s%n", trend.size(),
+					trend.getLast().getY(), trend.getLast().getX());
+	}
+
+	public static void main(String[] args) {
+		double seconds = 600.0;
+		double heartRate = HeartSoundGenerator.DEFAULT_HEART_RATE;
+		double ectopicProbability = 0.02;
+		double noiseAmplitude = HeartSoundGenerator.DEFAULT_NOISE_AMPLITUDE;
+		try {
+			if (args.length > 0)
+				seconds = Double.parseDouble(args[0]);
+			if (args.length > 1)
+				heartRate = Double.parseDouble(args[1]);
+			if (args.length > 2)
+				ectopicProbability = Double.parseDouble(args[2]);
+			if (args.length > 3)
+				noiseAmplitude = Double.parseDouble(args[3]);
+		} catch (NumberFormatException e) {
+			System.err.println("Usage: java batch.GeneratorBenchmark [seconds [heartRate [ectopicProbability [noiseAmplitude]]]]");
+			System.exit(2);
+		}
+		throughput(44100.0, seconds);
+		accuracy(seconds, heartRate, ectopicProbability, noiseAmplitude);
+	}
+
+}
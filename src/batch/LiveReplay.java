@@ -0,0 +1,155 @@
+package batch;
+
+import java.io.File;
+import java.util.Locale;
+
+import soundcard.AudioSource;
+import soundcard.GeneratorAudioSource;
+import soundcard.PacedAudioSource;
+import soundcard.StethCapture;
+import soundcard.WavAudioSource;
+import calculation.HeartSoundSeparation;
+import calculation.NonSpectralIndicators;
+import calculation.PhonocardType;
+import calculation.Phonocardiography;
+
+/**
+ * Runs the live recording path of the GUI (the capture and the pcg threads)
+ * without the GUI and without a sound card: the capture reads a replayed WAV
+ * file or a generated heart sound, at real time or faster. Prints the results
+ * and the number of samples the analysis couldn't keep up with. With
+ * -separate the maternal and fetal heart sounds are analyzed live too.
+ *
+ * Usage:
+ *
+ * <pre>
+ * java batch.LiveReplay [-speed n] [-separate] file.wav
+ * java batch.LiveReplay [-speed n] [-separate] -generate heartRate seconds
+ * </pre>
+ *
+ * @author Nagy Tamas
+ *
+ */
+public class LiveReplay {
+
+	/**
+	 * Records the source like the GUI does, and waits until the analysis of
+	 * the whole source is finished.
+	 *
+	 * @param source
+	 * @return the analysis.
+	 * @throws InterruptedException
+	 */
+	public static Phonocardiography run(AudioSource source) throws InterruptedException {
+		return run(source, false);
+	}
+
+	/**
+	 * Records the source like the GUI does, and waits until the analysis of
+	 * the whole source is finished.
+	 *
+	 * @param source
+	 * @param separate
+	 *            separates and analyzes the maternal and fetal heart sounds
+	 *            in their own pcg threads.
+	 * @return the analysis, with the separation if separate is true.
+	 * @throws InterruptedException
+	 */
+	public static Phonocardiography run(AudioSource source, boolean separate) throws InterruptedException {
+		Phonocardiography pcg = new Phonocardiography();
+		Thread maternalThread = null;
+		Thread fetalThread = null;
+		if (separate) {
+			HeartSoundSeparation separation = new HeartSoundSeparation(pcg, new Phonocardiography(
+					PhonocardType.MATERNAL), new Phonocardiography(PhonocardType.FETAL));
+			pcg.setSeparation(separation);
+			maternalThread = new Thread(separation.getMaternal(), "Maternal pcg");
+			fetalThread = new Thread(separation.getFetal(), "Fetal pcg");
+			maternalThread.start();
+			fetalThread.start();
+		}
+		StethCapture capture = new StethCapture(pcg.getHeartSound());
+		capture.setOutput(pcg.getInput());
+		capture.setNegateSignal(true);
+		capture.setSource(source);
+		Thread captureThread = new Thread(capture, "Capture");
+		Thread pcgThread = new Thread(pcg, "Pcg");
+		captureThread.start();
+		pcgThread.start();
+		captureThread.join();
+		// The pcg thread stops by itself after the end of the source
+		if (!capture.getOutput().isClosed())
+			pcg.setRefreshing(false);
+		pcgThread.join();
+		// The separation closes their inputs when the pcg thread finishes
+		if (separate) {
+			maternalThread.join();
+			fetalThread.join();
+		}
+		capture.deleteTempFile();
+		return pcg;
+	}
+
+	private static void print(String name, Phonocardiography pcg) {
+		NonSpectralIndicators indicators = pcg.getNonSpectralIndicators();
+		System.out.printf(Locale.US,
+				"%slength %.1f s, %d beats, pulse %.1f, meanRR %d, sdRR %d, rMSSD %d, pNN50 %.1f, %d samples dropped%n",
+				name, pcg.getHeartSound().getLength(), pcg.getBeats().snapshot().size(), indicators.getPulse(),
+				indicators.getMeanRR(), indicators.getsdRR(), indicators.getrMSSD(), indicators.getpNN50(), pcg
+						.getInput().getOverruns());
+	}
+
+	private static void usage() {
+		System.err.println("Usage: java batch.LiveReplay [-speed n] [-separate] (file.wav | -generate heartRate seconds)");
+		System.exit(2);
+	}
+
+	public static void main(String[] args) {
+		double speed = PacedAudioSource.UNLIMITED_SPEED;
+		String file = null;
+		double heartRate = 0.0;
+		double duration = 0.0;
+		boolean separate = false;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-speed") && i + 1 < args.length) {
+					speed = Double.parseDouble(args[++i]);
+				} else if (args[i].equals("-separate")) {
+					separate = true;
+				} else if (args[i].equals("-generate") && i + 2 < args.length) {
+					heartRate = Double.parseDouble(args[++i]);
+					duration = Double.parseDouble(args[++i]);
+				} else if (args[i].startsWith("-")) {
+					usage();
+				} else {
+					file = args[i];
+				}
+			}
+		} catch (NumberFormatException e) {
+			usage();
+		}
+		AudioSource source = null;
+		if (file != null)
+			source = new WavAudioSource(new File(file), speed);
+		else if (heartRate > 0.0 && duration > 0.0)
+			source = new GeneratorAudioSource(heartRate, duration, speed);
+		else
+			usage();
+
+		try {
+			long start = System.nanoTime();
+			Phonocardiography pcg = run(source, separate);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			print("", pcg);
+			if (separate) {
+				print("maternal: ", pcg.getSeparation().getMaternal());
+				print("fetal: ", pcg.getSeparation().getFetal());
+			}
+			System.out.printf(Locale.US, "replayed in %.1f s%n", seconds);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+}
@@ -0,0 +1,245 @@
+package batch;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import signal.BiquadChain;
+import signal.FilterDesign;
+import signal.HeartSoundGenerator;
+import signal.LombScargle;
+import signal.RealFFT;
+import signal.SlidingDFT;
+import signal.SlidingLombScargle;
+import signal.WelchSpectrum;
+
+/**
+ * Numeric checks of the signal processing classes against reference
+ * results, runnable without a test framework. Prints the error of every
+ * check, and exits with 1 if any of them is above its tolerance.
+ *
+ * Usage:
+ *
+ * <pre>
+ * java batch.SignalChecks
+ * </pre>
+ *
+ * @author Nagy Tamas
+ *
+ */
+public class SignalChecks {
+
+	private int failures;
+
+	/**
+	 * Prints the result of a check, and counts it if failed.
+	 *
+	 * @param name
+	 * @param error
+	 *            the error of the checked result.
+	 * @param tolerance
+	 *            the max error accepted.
+	 */
+	private void check(String name, double error, double tolerance) {
+		boolean passed = error <= tolerance;
+		System.out.printf(Locale.US, "%-50s error %.3g, tolerance %.3g %s%n", name, error, tolerance,
+				passed ? "ok" : "FAILED");
+		if (!passed)
+			failures++;
+	}
+
+	private static double maxDifference(double[] a, double[] b) {
+		if (a.length != b.length)
+			return Double.POSITIVE_INFINITY;
+		double max = 0.0;
+		for (int i = 0; i < a.length; i++)
+			max = Math.max(max, Math.abs(a[i] - b[i]));
+		return max;
+	}
+
+	/**
+	 * @return the max difference relative to the max magnitude of expected.
+	 */
+	private static double relativeDifference(double[] expected, double[] actual) {
+		double max = 0.0;
+		for (double e : expected)
+			max = Math.max(max, Math.abs(e));
+		return maxDifference(expected, actual) / max;
+	}
+
+	private static double[] randomSignal(Random random, int length) {
+		double[] x = new double[length];
+		for (int i = 0; i < length; i++)
+			x[i] = random.nextGaussian();
+		return x;
+	}
+
+	/**
+	 * The packed result of RealFFT matches a direct DFT.
+	 */
+	public void checkRealFFT() {
+		Random random = new Random(1);
+		for (int n : new int[] { 4, 64, 1024 }) {
+			double[] x = randomSignal(random, n);
+			double[] expected = new double[n];
+			for (int k = 0; k <= n / 2; k++) {
+				double re = 0.0;
+				double im = 0.0;
+				for (int j = 0; j < n; j++) {
+					double phase = -2.0 * Math.PI * ((long) k * j % n) / n;
+					re += x[j] * Math.cos(phase);
+					im += x[j] * Math.sin(phase);
+				}
+				if (k == 0) {
+					expected[0] = re;
+				} else if (k == n / 2) {
+					expected[1] = re;
+				} else {
+					expected[2 * k] = re;
+					expected[2 * k + 1] = im;
+				}
+			}
+			double[] actual = x.clone();
+			new RealFFT(n).transform(actual);
+			check("RealFFT vs direct DFT, n = " + n, relativeDifference(expected, actual), 1e-12);
+		}
+	}
+
+	/**
+	 * The periodogram of a sliding Lomb-Scargle, after many points have left
+	 * the window and the grids were rebuilt, matches the periodogram of the
+	 * points of the window calculated at once. The points are on the
+	 * extirpolation grid, with gaps, so both extirpolate exactly.
+	 */
+	public void checkSlidingLombScargle() {
+		double window = 120.0;
+		double oversampling = LombScargle.DEFAULT_OVERSAMPLING;
+		double maxFrequency = 0.5;
+		SlidingLombScargle sliding = new SlidingLombScargle(window, oversampling, maxFrequency);
+		// A grid point is window * oversampling / 4096 s
+		double step = 4 * window * oversampling / 4096;
+		int points = 5 * SlidingLombScargle.REBUILD_INTERVAL;
+		double[] xs = new double[points];
+		double[] ys = new double[points];
+		Random random = new Random(2);
+		int n = 0;
+		for (int i = 0; i < points; i++) {
+			// Every fifth point is missing, except the ends of the last window
+			if (random.nextInt(5) == 0 && i < points - 1 && i != points - 1 - (int) (window / step))
+				continue;
+			xs[n] = i * step;
+			ys[n] = 0.8 + 0.05 * Math.sin(2.0 * Math.PI * 0.1 * xs[n]) + 0.02 * random.nextGaussian();
+			sliding.add(xs[n], ys[n]);
+			n++;
+		}
+		int first = n - sliding.size();
+		LombScargle whole = new LombScargle(oversampling, maxFrequency);
+		whole.calculate(xs, ys, first, n - first);
+		double[] expected = Arrays.copyOf(whole.getPsd(), whole.getFrequencies());
+		sliding.update();
+		double[] actual = Arrays.copyOf(sliding.getPsd(), sliding.getFrequencies());
+		check("sliding vs whole Lomb-Scargle", relativeDifference(expected, actual), 1e-9);
+	}
+
+	/**
+	 * The power of a sliding DFT, after it was re-anchored and updated again,
+	 * matches Welch's estimate of its window as a single segment. The bins
+	 * from 2 aren't affected by the mean removed by WelchSpectrum.
+	 */
+	public void checkSlidingDFT() {
+		int length = 256;
+		double dt = 0.5;
+		SlidingDFT dft = new SlidingDFT(length, dt, 2, length / 2 - 2);
+		double[] x = randomSignal(new Random(3), SlidingDFT.REANCHOR_INTERVAL + 1000);
+		for (double value : x)
+			dft.add(value);
+		WelchSpectrum welch = new WelchSpectrum(length);
+		welch.estimate(x, x.length - length, length, dt);
+		double[] expected = new double[length / 2 - 3];
+		double[] actual = new double[expected.length];
+		for (int k = 2; k < length / 2 - 1; k++) {
+			expected[k - 2] = welch.getPsd()[k];
+			actual[k - 2] = dft.psd(k);
+		}
+		check("sliding DFT after re-anchoring vs Welch", relativeDifference(expected, actual), 1e-9);
+	}
+
+	/**
+	 * A biquad chain filtering blocks of changing sizes gives the same output
+	 * as filtering the whole signal, and as filtering it sample by sample.
+	 */
+	public void checkBiquadBlocks() {
+		double fs = 1000.0;
+		Random random = new Random(4);
+		double[] x = randomSignal(random, 100000);
+		for (int order : new int[] { 3, 4 }) {
+			double[] whole = new double[x.length];
+			FilterDesign.butterworthBandPass(order, fs, 20.0, 150.0).process(x, 0, x.length, whole);
+			BiquadChain blockwise = FilterDesign.butterworthBandPass(order, fs, 20.0, 150.0);
+			double[] blocks = new double[x.length];
+			for (int offset = 0; offset < x.length;) {
+				int length = Math.min(1 + random.nextInt(5000), x.length - offset);
+				blockwise.process(x, offset, length, blocks);
+				offset += length;
+			}
+			BiquadChain single = FilterDesign.butterworthBandPass(order, fs, 20.0, 150.0);
+			double[] samples = new double[x.length];
+			for (int i = 0; i < x.length; i++)
+				samples[i] = single.filterNext(x[i]);
+			check("biquad order " + order + ", blocks vs whole", maxDifference(whole, blocks), 1e-12);
+			check("biquad order " + order + ", sample by sample vs whole", maxDifference(whole, samples), 1e-12);
+		}
+	}
+
+	/**
+	 * The generated signal and beats don't depend on the size of the blocks,
+	 * the signal only differs by the rounding of the overlapping sounds added
+	 * in a different order.
+	 */
+	public void checkGenerator() {
+		double sampleRate = 44100.0;
+		int length = (int) (10 * sampleRate);
+		for (double noise : new double[] { 0.0, HeartSoundGenerator.DEFAULT_NOISE_AMPLITUDE }) {
+			HeartSoundGenerator whole = createGenerator(sampleRate, noise);
+			double[] expected = new double[length];
+			whole.generate(expected, 0, length);
+			HeartSoundGenerator blocks = createGenerator(sampleRate, noise);
+			double[] actual = new double[length];
+			for (int offset = 0; offset < length; offset += 441)
+				blocks.generate(actual, offset, Math.min(441, length - offset));
+			String name = String.format(Locale.US, "generator, blocks of 441, noise %.0f", noise);
+			check(name + ", signal", maxDifference(expected, actual), 1e-9);
+			check(name + ", beats", Arrays.equals(whole.getBeatTimes(), blocks.getBeatTimes())
+					&& Arrays.equals(whole.getFetalBeatTimes(), blocks.getFetalBeatTimes()) ? 0.0 : 1.0, 0.0);
+		}
+	}
+
+	private static HeartSoundGenerator createGenerator(double sampleRate, double noise) {
+		HeartSoundGenerator generator = new HeartSoundGenerator(sampleRate, 1);
+		generator.setNoiseAmplitude(noise);
+		generator.setEctopicProbability(0.1);
+		generator.setMurmurAmplitude(2000.0);
+		generator.setFetalAmplitude(3000.0);
+		return generator;
+	}
+
+	/**
+	 * @return the number of failed checks.
+	 */
+	public int getFailures() {
+		return failures;
+	}
+
+	public static void main(String[] args) {
+		SignalChecks checks = new SignalChecks();
+		checks.checkGenerator();
+		checks.checkRealFFT();
+		checks.checkSlidingLombScargle();
+		checks.checkSlidingDFT();
+		checks.checkBiquadBlocks();
+		System.out.println(checks.getFailures() == 0 ? "All checks passed" : checks.getFailures()
+				+ " checks failed");
+		System.exit(checks.getFailures() == 0 ? 0 : 1);
+	}
+
+}
@@ -0,0 +1,165 @@
+package calculation;
+
+import java.util.ArrayList;
+
+import signal.Signal;
+
+/**
+ * A directed acyclic graph of calculation stages, connected by the signals
+ * they read and write. The stages are kept in topological order, so one pass
+ * over them propagates a change of a source signal through the whole chain,
+ * and a stage runs only if one of its inputs has changed.
+ * 
+ * @author Nagy Tamas
+ *
+ */
+public class CalculationGraph {
+
+	/**
+	 * The stages in topological order.
+	 */
+	private ArrayList<CalculationStage> stages;
+
+	/**
+	 * Default constructor.
+	 */
+	public CalculationGraph() {
+		stages = new ArrayList<>();
+	}
+
+	/**
+	 * Adds a stage to the graph, and sorts the stages again.
+	 * 
+	 * @param stage the new stage.
+	 * @throws IllegalArgumentException if the new stage would make a cycle.
+	 */
+	public synchronized void addStage(CalculationStage stage) {
+		ArrayList<CalculationStage> all = new ArrayList<>(stages);
+		all.add(stage);
+		ArrayList<CalculationStage> sorted = new ArrayList<>();
+		ArrayList<CalculationStage> visiting = new ArrayList<>();
+		for (CalculationStage s : all) {
+			visit(s, all, sorted, visiting);
+		}
+		stages = sorted;
+	}
+
+	/**
+	 * Depth first search for the topological order.
+	 */
+	private static void visit(CalculationStage stage, ArrayList<CalculationStage> all,
+			ArrayList<CalculationStage> sorted, ArrayList<CalculationStage> visiting) {
+		if (sorted.contains(stage))
+			return;
+		if (visiting.contains(stage))
+			throw new IllegalArgumentException("Stage " + stage + " is part of a cycle.");
+		visiting.add(stage);
+		for (CalculationStage writer : all) {
+			if (writer != stage && dependsOn(stage, writer))
+				visit(writer, all, sorted, visiting);
+		}
+		visiting.remove(stage);
+		sorted.add(stage);
+	}
+
+	/**
+	 * @return true, if the reader stage reads an output of the writer stage.
+	 */
+	private static boolean dependsOn(CalculationStage reader, CalculationStage writer) {
+		for (Signal<?> output : writer.getOutputs()) {
+			if (reader.readsFrom(output))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Runs the stages with changed inputs, in topological order.
+	 * 
+	 * @return the number of stages that have run.
+	 */
+	public synchronized int runDirty() {
+		int n = 0;
+		for (CalculationStage stage : stages) {
+			if (stage.runIfDirty())
+				n++;
+		}
+		return n;
+	}
+
+	/**
+	 * @return true, if any stage has changed inputs.
+	 */
+	public synchronized boolean isDirty() {
+		for (CalculationStage stage : stages) {
+			if (stage.isDirty())
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Forces all stages to run next time.
+	 */
+	public synchronized void invalidate() {
+		for (CalculationStage stage : stages) {
+			stage.invalidate();
+		}
+	}
+
+	/**
+	 * Forces a stage and the stages depending on it to run next time, for
+	 * example after a parameter of the stage has changed.
+	 * 
+	 * @param name the name of the stage.
+	 * @return false, if there is no stage with the given name.
+	 */
+	public synchronized boolean invalidate(String name) {
+		ArrayList<CalculationStage> invalidated = new ArrayList<>();
+		// The dependants come after the stage in topological order
+		for (CalculationStage stage : stages) {
+			boolean dependant = stage.getName().equals(name);
+			for (int i = 0; i < invalidated.size() && !dependant; i++) {
+				dependant = dependsOn(stage, invalidated.get(i));
+			}
+			if (dependant) {
+				stage.invalidate();
+				invalidated.add(stage);
+			}
+		}
+		return !invalidated.isEmpty();
+	}
+
+	/**
+	 * Marks all stages as up to date.
+	 */
+	public synchronized void markClean() {
+		for (CalculationStage stage : stages) {
+			stage.markClean();
+		}
+	}
+
+	/**
+	 * Marks a stage as up to date, for example after its outputs were loaded
+	 * from a file.
+	 * 
+	 * @param name the name of the stage.
+	 * @return false, if there is no stage with the given name.
+	 */
+	public synchronized boolean markClean(String name) {
+		for (CalculationStage stage : stages) {
+			if (stage.getName().equals(name)) {
+				stage.markClean();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the number of stages.
+	 */
+	public synchronized int size() {
+		return stages.size();
+	}
+}
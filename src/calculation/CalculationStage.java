@@ -0,0 +1,143 @@
+package calculation;
+
+import java.util.Arrays;
+
+import signal.Signal;
+
+/**
+ * One step of a calculation chain. It reads its input signals and writes its
+ * output signals. The stage remembers the versions of the inputs it has seen,
+ * so it runs again only if one of its inputs has changed.
+ * 
+ * @author Nagy Tamas
+ *
+ */
+public abstract class CalculationStage {
+
+	/**
+	 * The name of the stage.
+	 */
+	private final String name;
+
+	/**
+	 * The signals the stage depends on.
+	 */
+	private final Signal<?>[] inputs;
+
+	/**
+	 * The signals written by the stage.
+	 */
+	private final Signal<?>[] outputs;
+
+	/**
+	 * The versions of the inputs at the last run.
+	 */
+	private final long[] seenVersions;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param name the name of the stage.
+	 * @param inputs the signals the stage depends on.
+	 * @param outputs the signals written by the stage.
+	 */
+	public CalculationStage(String name, Signal<?>[] inputs, Signal<?>[] outputs) {
+		this.name = name;
+		this.inputs = inputs;
+		this.outputs = outputs;
+		seenVersions = new long[inputs.length];
+		invalidate();
+	}
+
+	/**
+	 * Does the calculation of the stage.
+	 */
+	protected abstract void calculate();
+
+	/**
+	 * @return true, if any of the inputs has changed since the last run.
+	 */
+	public boolean isDirty() {
+		for (int i = 0; i < inputs.length; i++) {
+			if (inputs[i].getVersion() != seenVersions[i])
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Runs the calculation, if any of the inputs has changed. The versions are
+	 * stored before the calculation, so changes during the run are not lost.
+	 * 
+	 * @return true, if the calculation has run.
+	 */
+	public boolean runIfDirty() {
+		if (!isDirty())
+			return false;
+		markClean();
+		calculate();
+		return true;
+	}
+
+	/**
+	 * Forces the stage to run next time.
+	 */
+	public void invalidate() {
+		Arrays.fill(seenVersions, -1L);
+	}
+
+	/**
+	 * Marks the current versions of the inputs as seen.
+	 */
+	public void markClean() {
+		for (int i = 0; i < inputs.length; i++) {
+			seenVersions[i] = inputs[i].getVersion();
+		}
+	}
+
+	/**
+	 * @param signal
+	 * @return true, if the stage reads the signal.
+	 */
+	public boolean readsFrom(Signal<?> signal) {
+		for (Signal<?> input : inputs) {
+			if (input == signal)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param signal
+	 * @return true, if the stage writes the signal.
+	 */
+	public boolean writesTo(Signal<?> signal) {
+		for (Signal<?> output : outputs) {
+			if (output == signal)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the signals written by the stage.
+	 */
+	public Signal<?>[] getOutputs() {
+		return outputs;
+	}
+
+	/**
+	 * @return the name of the stage.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return name;
+	}
+}
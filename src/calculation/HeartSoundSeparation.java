@@ -0,0 +1,302 @@
+package calculation;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import signal.BiquadChain;
+import signal.DoubleRingBuffer;
+import signal.SignalD;
+
+/**
+ * Separates the heart sound of an original analysis into the maternal and the
+ * fetal heart sound, as a streaming stage of the original pcg thread. Only the
+ * samples appended since the last call are filtered, the filters keep their
+ * state between the calls, and the position is the absolute index of the
+ * next sample in the heart sound, so removing old samples doesn't disturb it.
+ *
+ * The maternal and the fetal branch filter the same block concurrently, the
+ * fetal one on a worker thread, and write the results into the input of the
+ * maternal and the fetal analysis. Those run in their own pcg threads, like
+ * the original one. Blocks shorter than PARALLEL_THRESHOLD are filtered on
+ * the calling thread, handing them over would cost more than filtering them.
+ *
+ * A full input is waited for, so no samples are lost while the analyses keep
+ * up on average. Only if an analysis hasn't read anything for OFFER_TIMEOUT
+ * ms (e.g. its thread was stopped) are the samples dropped, counted by the
+ * overruns of its input. Until that analysis has read its whole input again,
+ * its blocks are dropped without waiting, so a stopped analysis doesn't hold
+ * up the original one. A change of maternalFc or fetalFc is applied from the
+ * next block.
+ *
+ * @author Nagy Tamas
+ *
+ */
+public class HeartSoundSeparation {
+
+	public static final int BLOCK_SIZE = 4096;
+	public static final int PARALLEL_THRESHOLD = 1024;
+	public static final long OFFER_TIMEOUT = 1000;
+
+	/**
+	 * A branch of the separation, filters the current block into the input of
+	 * its analysis.
+	 */
+	private class Branch implements Runnable {
+
+		final Phonocardiography pcg;
+		final boolean fetal;
+		final double[] output = new double[BLOCK_SIZE];
+		BiquadChain filter;
+		double fs;
+		// The cutoff frequency of the filter
+		double fc;
+		int length;
+		// Set after a timeout, the blocks are dropped until the input is read
+		boolean stalled;
+
+		Branch(Phonocardiography pcg, boolean fetal) {
+			this.pcg = pcg;
+			this.fetal = fetal;
+		}
+
+		void start(double dt, double startTime) {
+			fs = 1.0 / dt;
+			stalled = false;
+			createFilter();
+			SignalD heartSound = pcg.getHeartSound();
+			synchronized (heartSound) {
+				heartSound.setDt(dt);
+				if (heartSound.isEmpty())
+					heartSound.setStartTime(startTime);
+			}
+		}
+
+		private void createFilter() {
+			fc = getFc();
+			filter = fetal ? pcg.createFetalFilter(fs) : pcg.createMaternalFilter(fs);
+		}
+
+		private double getFc() {
+			return fetal ? pcg.getFetalFc() : pcg.getMaternalFc();
+		}
+
+		@Override
+		public void run() {
+			if (getFc() != fc)
+				createFilter();
+			filter.process(block, 0, length, output);
+			// The fetal heart sound is inverted
+			if (fetal)
+				for (int i = 0; i < length; i++)
+					output[i] = -output[i];
+			offer();
+		}
+
+		/**
+		 * Writes the output into the input of the analysis, waits while it is
+		 * full. A stalled branch doesn't wait until its input has been read.
+		 */
+		private void offer() {
+			DoubleRingBuffer input = pcg.getInput();
+			if (stalled) {
+				if (input.size() > 0) {
+					input.offer(output, 0, length);
+					return;
+				}
+				stalled = false;
+			}
+			int offset = 0;
+			long deadline = System.nanoTime() + OFFER_TIMEOUT * 1000000L;
+			while (offset < length) {
+				int n = Math.min(length - offset, input.getCapacity() - input.size());
+				if (n > 0) {
+					offset += input.offer(output, offset, n);
+					deadline = System.nanoTime() + OFFER_TIMEOUT * 1000000L;
+					continue;
+				}
+				if (System.nanoTime() - deadline > 0) {
+					// The analysis has stopped reading, the rest is dropped
+					stalled = true;
+					input.offer(output, offset, length - offset);
+					return;
+				}
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					input.offer(output, offset, length - offset);
+					return;
+				}
+			}
+		}
+	}
+
+	private final Phonocardiography original;
+	private final Branch maternal;
+	private final Branch fetal;
+	// The block of the heart sound filtered by both branches
+	private final double[] block = new double[BLOCK_SIZE];
+	// The absolute index of the next sample of the heart sound, -1 before the first call
+	private long next = -1;
+	private double dt;
+	private ExecutorService executor;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param original
+	 *            the analysis of the heart sound.
+	 * @param maternal
+	 *            the analysis of the maternal heart sound, filtered with its
+	 *            maternalFc.
+	 * @param fetal
+	 *            the analysis of the fetal heart sound, filtered with its
+	 *            fetalFc.
+	 */
+	public HeartSoundSeparation(Phonocardiography original, Phonocardiography maternal, Phonocardiography fetal) {
+		this.original = original;
+		this.maternal = new Branch(maternal, false);
+		this.fetal = new Branch(fetal, true);
+	}
+
+	/**
+	 * Filters the samples appended to the heart sound since the last call into
+	 * the inputs of the maternal and the fetal analysis. Must be called from
+	 * one thread, the producer of those inputs.
+	 *
+	 * @return the number of samples filtered.
+	 */
+	public synchronized int separate() {
+		SignalD heartSound = original.getHeartSound();
+		int total = 0;
+		while (true) {
+			int length;
+			synchronized (heartSound) {
+				long first = heartSound.getFirstIndex();
+				long end = heartSound.getEndIndex();
+				if (next < 0 || heartSound.getDt() != dt) {
+					// The analyses of the previous heart sound are cleared
+					if (next >= 0)
+						resetBranches();
+					dt = heartSound.getDt();
+					next = first;
+					double startTime = heartSound.getStartTime();
+					maternal.start(dt, startTime);
+					fetal.start(dt, startTime);
+				}
+				// Samples removed before they were filtered are skipped
+				if (next < first)
+					next = first;
+				length = (int) Math.min(BLOCK_SIZE, end - next);
+				if (length <= 0)
+					break;
+				heartSound.copyTo((int) (next - first), block, 0, length);
+			}
+			next += length;
+			maternal.length = length;
+			fetal.length = length;
+			if (length < PARALLEL_THRESHOLD) {
+				fetal.run();
+				maternal.run();
+			} else {
+				Future<?> future = getExecutor().submit(fetal);
+				try {
+					maternal.run();
+				} finally {
+					// The block is reused only after the fetal branch has finished with it
+					await(future);
+				}
+			}
+			total += length;
+			if (Thread.currentThread().isInterrupted())
+				break;
+		}
+		return total;
+	}
+
+	/**
+	 * Waits until the fetal branch has finished, even if interrupted; the
+	 * interrupt is kept.
+	 *
+	 * @throws IllegalStateException
+	 *             if the fetal branch has failed.
+	 */
+	private static void await(Future<?> future) {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					future.get();
+					return;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					throw new IllegalStateException("The fetal separation has failed", e.getCause());
+				}
+			}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	private ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "Fetal separation");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * Starts the separation again from the first sample of the heart sound,
+	 * with cleared filters and cleared maternal and fetal analyses. Must be
+	 * called while the analyses are stopped, like Phonocardiography.reset().
+	 */
+	public synchronized void reset() {
+		next = -1;
+		resetBranches();
+	}
+
+	private void resetBranches() {
+		maternal.pcg.reset();
+		fetal.pcg.reset();
+	}
+
+	/**
+	 * Closes the inputs of the maternal and the fetal analysis after the last
+	 * samples, so their pcg threads finish too, and stops the worker thread.
+	 */
+	public synchronized void finish() {
+		maternal.pcg.getInput().close();
+		fetal.pcg.getInput().close();
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
+	}
+
+	/**
+	 * @return the analysis of the maternal heart sound.
+	 */
+	public Phonocardiography getMaternal() {
+		return maternal.pcg;
+	}
+
+	/**
+	 * @return the analysis of the fetal heart sound.
+	 */
+	public Phonocardiography getFetal() {
+		return fetal.pcg;
+	}
+
+}
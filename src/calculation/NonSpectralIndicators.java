@@ -0,0 +1,70 @@
+package calculation;
+
+/**
+ * The results of the non-spectral analysis of the RR intervals at a given
+ * moment. Immutable, so it can be read by the GUI while the analysis is
+ * running.
+ *
+ * @author Nagy Tamas
+ *
+ */
+public final class NonSpectralIndicators {
+
+	/**
+	 * The indicators before the first analysis.
+	 */
+	public static final NonSpectralIndicators ZERO = new NonSpectralIndicators(0.0, 0, 0, 0, 0.0);
+
+	// Beats/minute
+	private final double pulse;
+	// In ms
+	private final int meanRR;
+	private final int sdRR;
+	private final int rMSSD;
+	// In %
+	private final double pNN50;
+
+	public NonSpectralIndicators(double pulse, int meanRR, int sdRR, int rMSSD, double pNN50) {
+		this.pulse = pulse;
+		this.meanRR = meanRR;
+		this.sdRR = sdRR;
+		this.rMSSD = rMSSD;
+		this.pNN50 = pNN50;
+	}
+
+	/**
+	 * @return the pulse in beats/minute.
+	 */
+	public double getPulse() {
+		return pulse;
+	}
+
+	/**
+	 * @return the mean of the RR intervals in ms.
+	 */
+	public int getMeanRR() {
+		return meanRR;
+	}
+
+	/**
+	 * @return the standard deviation of the RR intervals in ms.
+	 */
+	public int getsdRR() {
+		return sdRR;
+	}
+
+	/**
+	 * @return the root mean square of the successive differences in ms.
+	 */
+	public int getrMSSD() {
+		return rMSSD;
+	}
+
+	/**
+	 * @return the percentage of successive differences greater than 50 ms.
+	 */
+	public double getpNN50() {
+		return pNN50;
+	}
+
+}
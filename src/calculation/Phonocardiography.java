@@ -16,12 +16,19 @@ import java.util.Locale;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 
-import signal.HighPassFilter;
-import signal.MovingAverage;
+import signal.BiquadChain;
+import signal.DoubleRingBuffer;
+import signal.FilterDesign;
+import signal.LombScargle;
+import signal.MovingMaximum;
+import signal.Signal;
 import signal.SignalD;
 import signal.SignalGraphType;
 import signal.SignalPoint;
 import signal.SignalXY;
+import signal.SlidingDFT;
+import signal.SlidingLombScargle;
+import signal.WelchSpectrum;
 import exception.SignalIsEmptyException;
 import exception.TooFewDataToCalculateException;
 
@@ -39,8 +46,11 @@ public class Phonocardiography implements Runnable {
 	public static Color firstDerivativeColor = Color.BLUE;
 	public static Color RRintervalsColor = Color.BLACK;
 	public static Color sampledRRintervalsColor = Color.BLUE;
+	public static Color powerSpectrumColor = Color.BLACK;
+	public static Color lombScargleSpectrumColor = Color.RED;
 	public static Color normalRRintervalsColor = Color.RED;
 	public static Color beatsPerMinuteColor = Color.BLACK;
+	public static Color lfHfTrendColor = Color.BLACK;
 	public static Color statisticsColor = Color.BLACK;
 	public static Color originalDataColor = Color.BLUE;
 	public static Color maternalHeartSoundColor = Color.BLUE;
@@ -55,9 +65,23 @@ public class Phonocardiography implements Runnable {
 	public static final int DEFAULT_NUMBER_OF_SLICES = 10;
 	public static final int DEFAULT_NUMBER_OF_SAMPLES = 256;
 	public static final double DEFAULT_SAMPLING_TIME = 0.469;
+	// The frequency bands of the spectral analysis in Hz
+	public static final double VLF_LOW = 0.0033;
+	public static final double LF_LOW = 0.04;
+	public static final double HF_LOW = 0.15;
+	public static final double HF_HIGH = 0.4;
+	// The window of the Lomb-Scargle periodogram in live mode in s
+	public static final double LOMB_SCARGLE_WINDOW = 300.0;
 
 	public static final int DEFAULT_REFRESH_RATE = 60;
 
+	// The filters of the maternal and fetal heart sounds
+	public static final int FILTER_ORDER = 4;
+	// About the -3 dB frequency of the former 15 point moving average of the heart sound, in Hz
+	public static final double DEFAULT_MATERNAL_FC = 30.0;
+	// The max cutoff frequency relative to the sampling frequency
+	private static final double MAX_FC = 0.45;
+
 	// Time window duration in ms
 	public static final double STARTING_TIME_WINDOW_DURATION = 10000;
 
@@ -82,15 +106,39 @@ public class Phonocardiography implements Runnable {
 	private SignalXY RRintervals;
 	private SignalXY normalRRintervals;
 	private SignalD sampledRRintervals;
+	// The power spectral density of the sampled RR intervals, x is the frequency
+	private SignalD powerSpectrum;
+	// The Lomb-Scargle periodogram of the normal RR intervals, x is the frequency
+	private SignalD lombScargleSpectrum;
 	private SignalXY statistics;
 	private int numberOfSlices = DEFAULT_NUMBER_OF_SLICES;
 	private int numberOfSamples = DEFAULT_NUMBER_OF_SAMPLES;
 	private double samplingTime = DEFAULT_SAMPLING_TIME;
 	// Beats/minute
 	private SignalXY beatsPerMinute;
+	// LF/HF of the last numberOfSamples sampled RR intervals, at every sample
+	private SignalXY lfHfTrend;
+
+	// The chain of the calculations
+	private CalculationGraph calculations;
+	// The stages whose results are stored in the session files
+	private static final String HEART_BEAT_DETECTION_STAGE = "heart beat detection";
+	private static final String RR_INTERVALS_STAGE = "RR intervals";
+	private static final String NORMAL_RR_INTERVALS_STAGE = "normal RR intervals";
+	private static final String NON_SPECTRAL_ANALYSIS_STAGE = "non-spectral analysis";
+	private static final String SPECTRAL_ANALYSIS_STAGE = "spectral analysis";
+	private static final String LOMB_SCARGLE_STAGE = "Lomb-Scargle analysis";
+	// The samples of the capture thread, moved into heartSound by the pcg thread
+	private final DoubleRingBuffer input;
+	// Feeds the maternal and fetal analyses from heartSound, if set
+	private HeartSoundSeparation separation;
 
 	// Used in heartBeatDetection()
 	private double threshold = 0.0;
+	public static final double NO_THRESHOLD_WINDOW = -1.0;
+	// The threshold is set from the maximum of the last thresholdWindowLength seconds
+	private double thresholdWindowLength = NO_THRESHOLD_WINDOW;
+	private MovingMaximum heartSoundMax = new MovingMaximum();
 	private static final double MIN_OF_LENGTH_IN_PEAK_DETECTION = 3.0;
 	
 
@@ -100,8 +148,26 @@ public class Phonocardiography implements Runnable {
 	private int sdRR = 0;
 	private double pNN50 = 0.0;
 	private int rMSSD = 0;
-
-	private boolean refreshing;
+	// The results above, published together for the GUI
+	private volatile NonSpectralIndicators nonSpectralIndicators = NonSpectralIndicators.ZERO;
+	// Spectral analysis, the work arrays are reused by the updates
+	private WelchSpectrum welch;
+	private double[] spectralInput;
+	private volatile SpectralIndicators spectralIndicators = SpectralIndicators.ZERO;
+	// Lomb-Scargle analysis, of the whole recording or of a sliding window, created when first used
+	private LombScargle lombScargle;
+	private SlidingLombScargle slidingLombScargle;
+	// The time of the last normal RR interval added to the sliding window
+	private double lombScargleLastX = Double.NaN;
+	private volatile SpectralIndicators lombScargleIndicators = SpectralIndicators.ZERO;
+	// LF/HF trend, the normal RR intervals are re-sampled from lfHfStart into the sliding DFT
+	private SlidingDFT lfHfDft;
+	private double lfHfStart = Double.NaN;
+	private long lfHfSamples;
+	private double lfHfLastX = Double.NaN;
+	private double[] lfHfBuffer = new double[64];
+
+	private volatile boolean refreshing;
 	private int refreshRate = DEFAULT_REFRESH_RATE;
 
 	// Heart beat detection
@@ -110,26 +176,52 @@ public class Phonocardiography implements Runnable {
 	private double jumpedTimeAdaptingPeakDetection = 0.3;
 
 	//Filtering
+	private double maternalFc = DEFAULT_MATERNAL_FC;
 	private double fetalFc = 60.0;
+
+	// Incremental calculations, only the beats appended since the last call are processed
+	private boolean incremental = true;
+	private int[] statisticsCounts;
+	private int statisticsBinned;
+	private double statisticsFirstX;
+	private double statisticsMin;
+	private double statisticsMax;
+	private double sampledFirstX = Double.NaN;
+	private double[] sampledBuffer = new double[0];
 	
 	/**
 	 * Constructor.
 	 */
 	public Phonocardiography() {
+		this(DoubleRingBuffer.DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructor with the capacity of the input, for an analysis refreshed
+	 * often enough to need a smaller input than the default.
+	 * 
+	 * @param inputCapacity
+	 *            the number of samples the input can hold, rounded up to a
+	 *            power of two.
+	 */
+	public Phonocardiography(int inputCapacity) {
 		loaded = false;
 		type = PhonocardType.ORIGINAL;
+		input = new DoubleRingBuffer(inputCapacity);
 		constructCurves();
 	}
 	
 	public Phonocardiography(PhonocardType type) {
 		loaded = false;
 		this.type = type;
+		input = new DoubleRingBuffer();
 		constructCurves();
 	}
 	
 	public Phonocardiography(PhonocardType type, double minOfRiseBeforeBeatMultiplier, double maxTimeToPeak, double jumpedTimeAdaptingPeakDetection) {
 		loaded = false;
 		this.type = type;
+		input = new DoubleRingBuffer();
 		this.minOfRiseBeforeBeatMultiplier = minOfRiseBeforeBeatMultiplier;
 		this.maxTimeToPeak = maxTimeToPeak;
 		this.jumpedTimeAdaptingPeakDetection = jumpedTimeAdaptingPeakDetection;
@@ -143,23 +235,29 @@ public class Phonocardiography implements Runnable {
 	 */
 	@Override
 	public void run() {
-		double i = 0.0;
 		int sleepingTime = 1000 / refreshRate;
 		refreshing = true;
 		while (refreshing) {
-			i += sleepingTime;
-			runCalculations();
-			if (i >= 1000.0) {
-				nonSpectralAnalysis();
-				i = 0.0;
-			}
+			// Read before draining, so the samples written before closing are drained
+			boolean inputClosed = input.isClosed();
+			refresh();
+			// The source of the capture has ended
+			if (inputClosed && input.size() == 0)
+				break;
+			// A source faster than real time may fill the input between two sleeps
+			if (input.size() >= input.getCapacity() / 2)
+				continue;
 			try {
 				Thread.sleep(sleepingTime);
 			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+				// Stops like the end of the input, the separation is still finished
+				Thread.currentThread().interrupt();
+				break;
 			}
 		}
+		if (separation != null)
+			separation.finish();
+		refreshing = false;
 
 	}
 
@@ -202,6 +300,14 @@ public class Phonocardiography implements Runnable {
 		RRintervals.setyAxisTitle("Time [ms]");
 		normalRRintervals = new SignalXY(normalRRintervalsColor);
 		sampledRRintervals = new SignalD(sampledRRintervalsColor);
+		powerSpectrum = new SignalD(powerSpectrumColor);
+		powerSpectrum.setTitle("Power spectrum of the R-R intervals");
+		powerSpectrum.setxAxisTitle("Frequency [Hz]");
+		powerSpectrum.setyAxisTitle("PSD [ms^2/Hz]");
+		lombScargleSpectrum = new SignalD(lombScargleSpectrumColor);
+		lombScargleSpectrum.setTitle("Lomb-Scargle periodogram of the R-R intervals");
+		lombScargleSpectrum.setxAxisTitle("Frequency [Hz]");
+		lombScargleSpectrum.setyAxisTitle("PSD [ms^2/Hz]");
 		statistics = new SignalXY(statisticsColor);
 		statistics = new SignalXY(statisticsColor);
 		statistics.setTitle("R-R intervals statistics - " + fileName);
@@ -211,6 +317,107 @@ public class Phonocardiography implements Runnable {
 		beatsPerMinute.setTitle("Beats/minute");
 		beatsPerMinute.setxAxisTitle("Time [s])");
 		beatsPerMinute.setyAxisTitle("Beats/minute");
+		lfHfTrend = new SignalXY(lfHfTrendColor);
+		lfHfTrend.setTitle("LF/HF");
+		lfHfTrend.setxAxisTitle("Time [s]");
+		lfHfTrend.setyAxisTitle("LF/HF");
+		createCalculationGraph();
+	}
+
+	/**
+	 * Creates the chain of the calculations: heartSound -> peaks -> RRintervals
+	 * -> normalRRintervals -> sampled RR intervals -> spectral analysis,
+	 * Lomb-Scargle analysis, LF/HF trend, statistics, BPM and non-spectral analysis. A
+	 * stage runs only if its inputs have changed.
+	 */
+	private void createCalculationGraph() {
+		calculations = new CalculationGraph();
+		calculations.addStage(new CalculationStage(HEART_BEAT_DETECTION_STAGE, new Signal<?>[] { heartSound },
+				new Signal<?>[] { peaks }) {
+			@Override
+			protected void calculate() {
+				calculateHeartBeatDetectionParams();
+				heartBeatDetection(heartSound, peaks, threshold, maxTimeToPeak, jumpedTimeAdaptingPeakDetection);
+			}
+		});
+		calculations.addStage(new CalculationStage(RR_INTERVALS_STAGE, new Signal<?>[] { peaks },
+				new Signal<?>[] { RRintervals }) {
+			@Override
+			protected void calculate() {
+				if (incremental)
+					updateRRintervals();
+				else
+					calculateRRintervals();
+			}
+		});
+		calculations.addStage(new CalculationStage(NORMAL_RR_INTERVALS_STAGE, new Signal<?>[] { RRintervals },
+				new Signal<?>[] { normalRRintervals }) {
+			@Override
+			protected void calculate() {
+				if (incremental)
+					updateNormalRRintervals();
+				else
+					calculateNormalRRintervals();
+			}
+		});
+		calculations.addStage(new CalculationStage("sampled RR intervals", new Signal<?>[] { normalRRintervals },
+				new Signal<?>[] { sampledRRintervals }) {
+			@Override
+			protected void calculate() {
+				if (incremental)
+					updateSampledRRintervals();
+				else
+					calculateSampledRRintervals();
+			}
+		});
+		calculations.addStage(new CalculationStage(SPECTRAL_ANALYSIS_STAGE, new Signal<?>[] { sampledRRintervals },
+				new Signal<?>[] { powerSpectrum }) {
+			@Override
+			protected void calculate() {
+				spectralAnalysis();
+			}
+		});
+		calculations.addStage(new CalculationStage(LOMB_SCARGLE_STAGE, new Signal<?>[] { normalRRintervals },
+				new Signal<?>[] { lombScargleSpectrum }) {
+			@Override
+			protected void calculate() {
+				lombScargleAnalysis();
+			}
+		});
+		calculations.addStage(new CalculationStage("LF/HF trend", new Signal<?>[] { normalRRintervals },
+				new Signal<?>[] { lfHfTrend }) {
+			@Override
+			protected void calculate() {
+				updateLfHfTrend();
+			}
+		});
+		calculations.addStage(new CalculationStage("statistics", new Signal<?>[] { RRintervals },
+				new Signal<?>[] { statistics }) {
+			@Override
+			protected void calculate() {
+				if (incremental)
+					updateStatistics();
+				else
+					calculateStatistics();
+			}
+		});
+		calculations.addStage(new CalculationStage("beats per minute", new Signal<?>[] { RRintervals },
+				new Signal<?>[] { beatsPerMinute }) {
+			@Override
+			protected void calculate() {
+				if (incremental)
+					updateBeatsPerMinute();
+				else
+					calculateBeatsPerMinute();
+			}
+		});
+		calculations.addStage(new CalculationStage(NON_SPECTRAL_ANALYSIS_STAGE, new Signal<?>[] { normalRRintervals },
+				new Signal<?>[0]) {
+			@Override
+			protected void calculate() {
+				nonSpectralAnalysis();
+			}
+		});
 	}
 
 	/**
@@ -219,17 +426,28 @@ public class Phonocardiography implements Runnable {
 	public void runCalculations() {
 		//manageLength();
 		
-		calculateHeartBeatDetectionParams();
-		heartBeatDetection(heartSound, peaks, threshold, maxTimeToPeak, jumpedTimeAdaptingPeakDetection);
-		calculateRRintervals();
-		calculateNormalRRintervals();
-		calculateSampledRRintervals();
-		calculateStatistics();
-		calculateBeatsPerMinute();
-		if (loaded) {
-			nonSpectralAnalysis();
-			//System.out.println(type + " " + pulse);
-		}
+		calculations.runDirty();
+	}
+
+	/**
+	 * Moves the new samples into the heart sound, separates them into the
+	 * maternal and fetal heart sounds if a separation is set, and runs the
+	 * calculations depending on them.
+	 */
+	public void refresh() {
+		drainInput();
+		if (separation != null)
+			separation.separate();
+		runCalculations();
+	}
+
+	/**
+	 * Moves the samples written by the capture thread into the heart sound.
+	 * 
+	 * @return the number of new samples.
+	 */
+	public int drainInput() {
+		return input.drainTo(heartSound);
 	}
 
 	/**
@@ -237,45 +455,29 @@ public class Phonocardiography implements Runnable {
 	 */
 	public synchronized void manageLength() {
 		synchronized (heartSound) {
-			while (!loaded && !heartSound.isEmpty() && (heartSound.getLength()) > maxLength)
-				heartSound.remove(0);
+			if (!loaded && maxLength != NO_MAX_LENGTH)
+				heartSound.manageSize(maxLength);
 		}
 	}
 	
 	/**
-	 * 
+	 * @param fs
+	 *            the sampling frequency of the heart sound in Hz.
+	 * @return the low-pass filter of the maternal heart sound, a Butterworth
+	 *         filter of FILTER_ORDER at maternalFc.
 	 */
-	public void calculateMaternalHeartSound(SignalD maternalHeartSound) {
-		synchronized (heartSound) {
-			synchronized (maternalHeartSound) {
-				MovingAverage mavg = new MovingAverage(15);
-				maternalHeartSound.clear();
-				maternalHeartSound.setDt(heartSound.getDt());
-				maternalHeartSound.setStartTime(heartSound.getStartTime());
-				for (double d : heartSound) {
-					//System.out.println(d);
-					maternalHeartSound.add(mavg.makeNext(d));
-				}
-			}
-		}
+	public BiquadChain createMaternalFilter(double fs) {
+		return FilterDesign.butterworthLowPass(FILTER_ORDER, fs, Math.min(maternalFc, MAX_FC * fs));
 	}
-	
 
 	/**
-	 * 
+	 * @param fs
+	 *            the sampling frequency of the heart sound in Hz.
+	 * @return the high-pass filter of the fetal heart sound, a Butterworth
+	 *         filter of FILTER_ORDER at fetalFc.
 	 */
-	public void calculateFetalHeartSound(SignalD fetalHeartSound) {
-		synchronized (heartSound) {
-			synchronized (fetalHeartSound) {
-				HighPassFilter hpf = new HighPassFilter(
-						1.0 / heartSound.getDt(), fetalFc);
-				fetalHeartSound.clear();
-				fetalHeartSound.setDt(heartSound.getDt());
-				fetalHeartSound.setStartTime(heartSound.getStartTime());
-				for (double d : heartSound)
-					fetalHeartSound.add(hpf.filterNext(-d));
-			}
-		}
+	public BiquadChain createFetalFilter(double fs) {
+		return FilterDesign.butterworthHighPass(FILTER_ORDER, fs, Math.min(fetalFc, MAX_FC * fs));
 	}
 
 	/**
@@ -286,8 +488,18 @@ public class Phonocardiography implements Runnable {
 			try {
 				if (heartSound.isEmpty())
 					throw (new SignalIsEmptyException());
+				long first = heartSound.getFirstIndex();
+				long end = heartSound.getEndIndex();
+				long windowStart = first;
+				if (thresholdWindowLength != NO_THRESHOLD_WINDOW) {
+					windowStart = Math.max(first, end - Math.round(thresholdWindowLength / heartSound.getDt()));
+				}
+				for (long i = Math.max(windowStart, heartSoundMax.getLastIndex() + 1); i < end; i++) {
+					heartSoundMax.add(i, heartSound.getDouble((int) (i - first)));
+				}
+				heartSoundMax.evictBefore(windowStart);
 				if (heartSound.getLength() >= MIN_OF_LENGTH_IN_PEAK_DETECTION) {
-					double max = heartSound.max();
+					double max = heartSoundMax.max();
 					threshold = minOfRiseBeforeBeatMultiplier * max;
 				}
 			} catch (SignalIsEmptyException e) {
@@ -338,7 +550,7 @@ public class Phonocardiography implements Runnable {
 					// this cycle is responsible for the peak detection
 					while (heartSound.size() > index) {
 						// level crossing
-						if (heartSound.get(index) >= threshold) {
+						if (heartSound.getDouble(index) >= threshold) {
 							maxIndex = index;
 
 							if (timeToPeakInIndex >= (heartSound.size() - index))
@@ -346,15 +558,15 @@ public class Phonocardiography implements Runnable {
 
 							// maximum searching for heart beat
 							for (tempIndex = index; tempIndex - index <= timeToPeakInIndex; tempIndex++) {
-								if (heartSound.get(maxIndex) < heartSound
-										.get(tempIndex)) {
+								if (heartSound.getDouble(maxIndex) < heartSound
+										.getDouble(tempIndex)) {
 									maxIndex = tempIndex;
 								}
 							}
 
 							// store found heart beat
 							beats.add(heartSound.getX(maxIndex),
-									heartSound.get(maxIndex));
+									heartSound.getDouble(maxIndex));
 							index += (maxIndex - index) + jumpInIndex;
 						}
 						index++;
@@ -538,6 +750,199 @@ public class Phonocardiography implements Runnable {
 		}
 	}
 
+	/**
+	 * RR intervals, incremental version of calculateRRintervals(). Drops the
+	 * intervals of the beats removed from the beginning, and calculates only
+	 * the intervals of the beats detected since the last call.
+	 */
+	public void updateRRintervals() {
+		synchronized (peaks) {
+			synchronized (RRintervals) {
+				if (peaks.isEmpty())
+					return;
+				double firstPeakX = peaks.getX(0);
+				while (!RRintervals.isEmpty() && RRintervals.getX(0) <= firstPeakX)
+					RRintervals.removeFirst();
+				int i;
+				if (RRintervals.isEmpty())
+					i = 1;
+				else
+					i = peaks.floorIndex(RRintervals.getX(RRintervals.size() - 1)) + 1;
+				for (; i < peaks.size(); i++) {
+					RRintervals.add(peaks.getX(i), (float) 1000.0 * (peaks.getX(i) - peaks.getX(i - 1)));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remove ectopic beats from RR intervals, incremental version of
+	 * calculateNormalRRintervals(). The last normal RR interval depends on the
+	 * next RR interval, so it is recalculated on every call.
+	 */
+	public void updateNormalRRintervals() {
+		synchronized (RRintervals) {
+			synchronized (normalRRintervals) {
+				int n = RRintervals.size();
+				if (n == 0)
+					return;
+				if (n == 1) {
+					normalRRintervals.removeAll();
+					return;
+				}
+				if (!normalRRintervals.isEmpty())
+					normalRRintervals.removeLast();
+				double firstX = RRintervals.getX(0);
+				while (!normalRRintervals.isEmpty() && normalRRintervals.getX(0) < firstX)
+					normalRRintervals.removeFirst();
+				int k = normalRRintervals.size();
+				if (k > n - 1 || (k > 0 && normalRRintervals.getX(k - 1) != RRintervals.getX(k - 1))) {
+					normalRRintervals.removeAll();
+					k = 0;
+				}
+				if (k == 0) {
+					normalRRintervals.add(RRintervals.getX(0), RRintervals.getY(0));
+					k = 1;
+				}
+				SignalPoint point1, point2, point3;
+				for (int i = k; i < n - 1; i++) {
+					point1 = RRintervals.get(i - 1);
+					point2 = RRintervals.get(i);
+					point3 = RRintervals.get(i + 1);
+					if (point2.getY() > 1.5 * point1.getY() || point2.getY() < 0.5 * point1.getY()) {
+						normalRRintervals.add(new SignalPoint(point2.getX(), SignalPoint.linearInterpolateInX(
+								point2.getX(), point1, point3)));
+					} else
+						normalRRintervals.add(point2);
+				}
+				point2 = RRintervals.get(n - 2);
+				point3 = RRintervals.get(n - 1);
+				if (point3.getY() > 1.5 * point2.getY() || point3.getY() < 0.5 * point2.getY()) {
+					normalRRintervals.add(new SignalPoint(point2.getX(), point2.getY()));
+				} else
+					normalRRintervals.add(point3);
+			}
+		}
+	}
+
+	/**
+	 * Re-sample the last numberOfSamples samples of the RR intervals, on the
+	 * grid starting at the first interval, like updateLfHfTrend(). The window
+	 * slides as new intervals arrive, and is sampled again only if it has
+	 * changed.
+	 */
+	public void updateSampledRRintervals() {
+		synchronized (normalRRintervals) {
+			synchronized (sampledRRintervals) {
+				int n = normalRRintervals.size();
+				if (n == 0)
+					return;
+				double firstX = normalRRintervals.getX(0);
+				// The samples of the grid before the last interval
+				long count = (long) Math.ceil((normalRRintervals.getX(n - 1) - firstX) / samplingTime);
+				double start = firstX + Math.max(0L, count - numberOfSamples) * samplingTime;
+				int length = (int) Math.min(count, numberOfSamples);
+				if (firstX == sampledFirstX && sampledRRintervals.size() == length
+						&& (length == 0 || sampledRRintervals.getStartTime() == start))
+					return;
+				if (sampledBuffer.length != numberOfSamples)
+					sampledBuffer = new double[numberOfSamples];
+				length = normalRRintervals.sample(start, samplingTime, sampledBuffer);
+				sampledRRintervals.removeAll();
+				sampledRRintervals.setStartTime(start);
+				sampledRRintervals.setDt(samplingTime);
+				sampledRRintervals.addAll(sampledBuffer, 0, length);
+				sampledFirstX = firstX;
+			}
+		}
+	}
+
+	/**
+	 * Statistics, incremental version of calculateStatistics(). The new RR
+	 * intervals are added to the histogram, it is rebuilt only when the
+	 * range of the RR intervals changes or intervals were removed.
+	 */
+	public void updateStatistics() {
+		synchronized (RRintervals) {
+			synchronized (statistics) {
+				int n = RRintervals.size();
+				if (n == 0)
+					return;
+				boolean rebuild = statisticsCounts == null || statisticsCounts.length != numberOfSlices
+						|| statisticsBinned > n || RRintervals.getX(0) != statisticsFirstX;
+				for (int i = statisticsBinned; !rebuild && i < n; i++) {
+					double y = RRintervals.getY(i);
+					if (y < statisticsMin || y > statisticsMax)
+						rebuild = true;
+					else
+						statisticsCounts[statisticsSlice(y)]++;
+				}
+				if (rebuild) {
+					statisticsCounts = new int[numberOfSlices];
+					statisticsMin = Double.POSITIVE_INFINITY;
+					statisticsMax = Double.NEGATIVE_INFINITY;
+					for (int i = 0; i < n; i++) {
+						double y = RRintervals.getY(i);
+						if (y > statisticsMax)
+							statisticsMax = y;
+						if (y < statisticsMin)
+							statisticsMin = y;
+					}
+					for (int i = 0; i < n; i++)
+						statisticsCounts[statisticsSlice(RRintervals.getY(i))]++;
+				}
+				statisticsBinned = n;
+				statisticsFirstX = RRintervals.getX(0);
+				double resolution = (statisticsMax - statisticsMin) / numberOfSlices;
+				statistics.removeAll();
+				for (int i = 0; i < numberOfSlices; i++) {
+					statistics.add(new SignalPoint((float) (statisticsMin + i * resolution + resolution / 2),
+							(float) statisticsCounts[i]));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param y an RR interval between statisticsMin and statisticsMax.
+	 * @return the index of the slice of the statistics, where y belongs.
+	 */
+	private int statisticsSlice(double y) {
+		double resolution = (statisticsMax - statisticsMin) / numberOfSlices;
+		if (resolution <= 0.0 || y <= statisticsMin + resolution)
+			return 0;
+		int i = (int) Math.ceil((y - statisticsMin) / resolution) - 1;
+		if (i > numberOfSlices - 1)
+			i = numberOfSlices - 1;
+		while (i > 0 && y <= statisticsMin + i * resolution)
+			i--;
+		while (i < numberOfSlices - 1 && y > statisticsMin + (i + 1) * resolution)
+			i++;
+		return i;
+	}
+
+	/**
+	 * BPM, incremental version of calculateBeatsPerMinute().
+	 */
+	public void updateBeatsPerMinute() {
+		synchronized (RRintervals) {
+			synchronized (beatsPerMinute) {
+				if (RRintervals.isEmpty())
+					return;
+				double firstX = RRintervals.getX(0);
+				while (!beatsPerMinute.isEmpty() && beatsPerMinute.getX(0) < firstX)
+					beatsPerMinute.removeFirst();
+				int i;
+				if (beatsPerMinute.isEmpty())
+					i = 0;
+				else
+					i = RRintervals.floorIndex(beatsPerMinute.getX(beatsPerMinute.size() - 1)) + 1;
+				for (; i < RRintervals.size(); i++) {
+					beatsPerMinute.add(RRintervals.getX(i), (float) (6E4 / RRintervals.getY(i)));
+				}
+			}
+		}
+	}
 
 	/**
 	 * Cardiac function indicators.
@@ -578,6 +983,173 @@ public class Phonocardiography implements Runnable {
 		sdRR = (int) Math.round(sdRRdouble);
 		rMSSD = (int) Math.round(rMSSDdouble);
 		pNN50 = 100.0 * ((double) noc / (n - 1));
+		nonSpectralIndicators = new NonSpectralIndicators(pulse, meanRR, sdRR, rMSSD, pNN50);
+	}
+
+	/**
+	 * Power spectrum of the sampled RR intervals with Welch's method (Hann
+	 * windowed segments of half the sampled length, overlapping by half), and
+	 * the VLF, LF and HF band powers. Allocates only when the number of
+	 * samples changes, so it can run at every refresh.
+	 */
+	public synchronized void spectralAnalysis() {
+		int segmentLength = Math.max(4, Integer.highestOneBit(numberOfSamples) / 2);
+		if (welch == null || welch.getSegmentLength() != segmentLength) {
+			welch = new WelchSpectrum(segmentLength);
+			spectralInput = new double[Math.max(numberOfSamples, segmentLength)];
+		}
+		int n;
+		double dt;
+		synchronized (sampledRRintervals) {
+			n = Math.min(sampledRRintervals.size(), spectralInput.length);
+			for (int i = 0; i < n; i++)
+				spectralInput[i] = sampledRRintervals.getDouble(i);
+			dt = sampledRRintervals.getDt();
+		}
+		int segments = welch.estimate(spectralInput, 0, n, dt);
+		synchronized (powerSpectrum) {
+			powerSpectrum.removeAll();
+			powerSpectrum.setStartTime(0.0);
+			if (segments > 0) {
+				double df = welch.getFrequencyResolution();
+				powerSpectrum.setDt(df);
+				int bins = Math.min(welch.getPsd().length, (int) (MAXIMUM_OF_FREQUENCY / df) + 1);
+				powerSpectrum.addAll(welch.getPsd(), 0, bins);
+			}
+		}
+		if (segments == 0) {
+			spectralIndicators = SpectralIndicators.ZERO;
+			return;
+		}
+		spectralIndicators = new SpectralIndicators(welch.bandPower(VLF_LOW, LF_LOW), welch.bandPower(LF_LOW,
+				HF_LOW), welch.bandPower(HF_LOW, HF_HIGH), welch.bandPower(0.0, HF_HIGH));
+	}
+
+	/**
+	 * Lomb-Scargle periodogram of the normal RR intervals, without resampling
+	 * them. A loaded recording is analyzed whole, a live one in a sliding
+	 * window of the last LOMB_SCARGLE_WINDOW seconds, which is only fed with
+	 * the new intervals.
+	 */
+	public synchronized void lombScargleAnalysis() {
+		LombScargle periodogram;
+		int count;
+		if (loaded || !incremental) {
+			if (lombScargle == null)
+				lombScargle = new LombScargle(LombScargle.DEFAULT_OVERSAMPLING, HF_HIGH);
+			periodogram = lombScargle;
+			count = normalRRintervals.periodogram(lombScargle);
+		} else {
+			if (slidingLombScargle == null)
+				slidingLombScargle = new SlidingLombScargle(LOMB_SCARGLE_WINDOW, LombScargle.DEFAULT_OVERSAMPLING,
+						HF_HIGH);
+			synchronized (normalRRintervals) {
+				int n = normalRRintervals.size();
+				// The intervals were calculated again from the beginning
+				if (n > 0 && normalRRintervals.getX(n - 1) < lombScargleLastX) {
+					slidingLombScargle.clear();
+					lombScargleLastX = Double.NaN;
+				}
+				int i = Double.isNaN(lombScargleLastX) ? 0 : normalRRintervals.floorIndex(lombScargleLastX) + 1;
+				for (; i < n; i++)
+					slidingLombScargle.add(normalRRintervals.getX(i), normalRRintervals.getY(i));
+				if (n > 0)
+					lombScargleLastX = normalRRintervals.getX(n - 1);
+			}
+			periodogram = slidingLombScargle;
+			count = slidingLombScargle.update();
+		}
+		synchronized (lombScargleSpectrum) {
+			lombScargleSpectrum.removeAll();
+			if (count > 0) {
+				double df = periodogram.getFrequencyResolution();
+				lombScargleSpectrum.setStartTime(df);
+				lombScargleSpectrum.setDt(df);
+				lombScargleSpectrum.addAll(periodogram.getPsd(), 0, count);
+			}
+		}
+		if (count == 0) {
+			lombScargleIndicators = SpectralIndicators.ZERO;
+			return;
+		}
+		lombScargleIndicators = new SpectralIndicators(periodogram.bandPower(VLF_LOW, LF_LOW),
+				periodogram.bandPower(LF_LOW, HF_LOW), periodogram.bandPower(HF_LOW, HF_HIGH),
+				periodogram.bandPower(0.0, HF_HIGH));
+	}
+
+	/**
+	 * LF/HF trend: the normal RR intervals are re-sampled incrementally, and
+	 * every new sample goes into a sliding DFT of the LF and HF bins, which
+	 * gives the LF/HF of the last numberOfSamples samples in O(bins) per
+	 * sample. Starts again if the intervals, the number of samples or the
+	 * sampling time have changed.
+	 */
+	public synchronized void updateLfHfTrend() {
+		synchronized (normalRRintervals) {
+			synchronized (lfHfTrend) {
+				int n = normalRRintervals.size();
+				if (lfHfDft == null || lfHfDft.getLength() != numberOfSamples
+						|| lfHfDft.getFrequencyResolution() != 1.0 / (numberOfSamples * samplingTime)) {
+					lfHfDft = SlidingDFT.forBand(numberOfSamples, samplingTime, LF_LOW, HF_HIGH);
+					lfHfStart = Double.NaN;
+				}
+				// The intervals were calculated again, or the sampled start was removed
+				if (!incremental || n == 0 || normalRRintervals.getX(n - 1) < lfHfLastX
+						|| lfHfStart + lfHfSamples * samplingTime < normalRRintervals.getX(0))
+					lfHfStart = Double.NaN;
+				if (Double.isNaN(lfHfStart)) {
+					lfHfDft.clear();
+					lfHfTrend.removeAll();
+					lfHfSamples = 0;
+					lfHfLastX = Double.NaN;
+					if (n == 0)
+						return;
+					lfHfStart = normalRRintervals.getX(0);
+				}
+				int count;
+				while ((count = normalRRintervals.sample(lfHfStart + lfHfSamples * samplingTime, samplingTime,
+						lfHfBuffer)) > 0) {
+					for (int i = 0; i < count; i++) {
+						lfHfDft.add(lfHfBuffer[i]);
+						if (lfHfDft.isFull()) {
+							double hf = lfHfDft.bandPower(HF_LOW, HF_HIGH);
+							if (hf > 0.0)
+								lfHfTrend.add(lfHfStart + (lfHfSamples + i) * samplingTime,
+										lfHfDft.bandPower(LF_LOW, HF_LOW) / hf);
+						}
+					}
+					lfHfSamples += count;
+				}
+				lfHfLastX = normalRRintervals.getX(n - 1);
+			}
+		}
+	}
+
+	/**
+	 * Saves the results of the analysis into a session file.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public void saveSession(File file) throws IOException {
+		SessionFile.save(this, file);
+	}
+
+	/**
+	 * Loads the results of an analysis from a session file. The stored
+	 * results aren't calculated again, only the curves derived from them.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public void loadSession(File file) throws IOException {
+		reset();
+		SessionFile.load(file, this);
+		calculations.markClean(HEART_BEAT_DETECTION_STAGE);
+		calculations.markClean(RR_INTERVALS_STAGE);
+		calculations.markClean(NORMAL_RR_INTERVALS_STAGE);
+		calculations.markClean(NON_SPECTRAL_ANALYSIS_STAGE);
+		loaded = true;
 	}
 
 	/**
@@ -586,6 +1158,9 @@ public class Phonocardiography implements Runnable {
 	public void reset() {
 		if (heartSound != null)
 			heartSound.clear();
+		input.clear();
+		if (separation != null)
+			separation.reset();
 		if (peaks != null)
 			peaks.removeAll();
 		if (rangeOfBeats != null)
@@ -596,6 +1171,16 @@ public class Phonocardiography implements Runnable {
 			normalRRintervals.removeAll();
 		if (sampledRRintervals != null)
 			sampledRRintervals.removeAll();
+		if (powerSpectrum != null)
+			powerSpectrum.removeAll();
+		if (lombScargleSpectrum != null)
+			lombScargleSpectrum.removeAll();
+		if (slidingLombScargle != null)
+			slidingLombScargle.clear();
+		lombScargleLastX = Double.NaN;
+		if (lfHfTrend != null)
+			lfHfTrend.removeAll();
+		lfHfStart = Double.NaN;
 		if (statistics != null)
 			statistics.removeAll();
 		numberOfSlices = DEFAULT_NUMBER_OF_SLICES;
@@ -604,7 +1189,16 @@ public class Phonocardiography implements Runnable {
 		if (beatsPerMinute != null)
 			beatsPerMinute.removeAll();
 		threshold = 0.0;
+		heartSoundMax.clear();
 		meanRR = 0;
+		nonSpectralIndicators = NonSpectralIndicators.ZERO;
+		spectralIndicators = SpectralIndicators.ZERO;
+		lombScargleIndicators = SpectralIndicators.ZERO;
+		statisticsCounts = null;
+		statisticsBinned = 0;
+		sampledFirstX = Double.NaN;
+		if (calculations != null)
+			calculations.invalidate();
 	}
 
 
@@ -623,6 +1217,10 @@ public class Phonocardiography implements Runnable {
 		return heartSound;
 	}
 
+	public DoubleRingBuffer getInput() {
+		return input;
+	}
+
 
 	/**
 	 * @return the heart beats.
@@ -659,6 +1257,13 @@ public class Phonocardiography implements Runnable {
 		return beatsPerMinute;
 	}
 
+	/**
+	 * @return the LF/HF trend of the sampled RR intervals.
+	 */
+	public SignalXY getLfHfTrend() {
+		return lfHfTrend;
+	}
+
 	/**
 	 * @return the file name.
 	 */
@@ -701,6 +1306,41 @@ public class Phonocardiography implements Runnable {
 		return meanRR;
 	}
 
+	/**
+	 * @return the results of the last non-spectral analysis.
+	 */
+	public NonSpectralIndicators getNonSpectralIndicators() {
+		return nonSpectralIndicators;
+	}
+
+	/**
+	 * @return the results of the last spectral analysis.
+	 */
+	public SpectralIndicators getSpectralIndicators() {
+		return spectralIndicators;
+	}
+
+	/**
+	 * @return the power spectrum of the sampled RR intervals.
+	 */
+	public SignalD getPowerSpectrum() {
+		return powerSpectrum;
+	}
+
+	/**
+	 * @return the results of the last Lomb-Scargle analysis.
+	 */
+	public SpectralIndicators getLombScargleIndicators() {
+		return lombScargleIndicators;
+	}
+
+	/**
+	 * @return the Lomb-Scargle periodogram of the normal RR intervals.
+	 */
+	public SignalD getLombScargleSpectrum() {
+		return lombScargleSpectrum;
+	}
+
 	/**
 	 * @return sdRR.
 	 */
@@ -750,6 +1390,39 @@ public class Phonocardiography implements Runnable {
 		this.refreshRate = refreshRate;
 	}
 
+	/**
+	 * @return the length of the window used to set the threshold of the heart
+	 *         beat detection, in seconds.
+	 */
+	public double getThresholdWindowLength() {
+		return thresholdWindowLength;
+	}
+
+	/**
+	 * @param thresholdWindowLength the length of the window used to set the
+	 *            threshold of the heart beat detection in seconds, or
+	 *            NO_THRESHOLD_WINDOW to use the whole signal.
+	 */
+	public void setThresholdWindowLength(double thresholdWindowLength) {
+		this.thresholdWindowLength = thresholdWindowLength;
+		heartSoundMax.clear();
+		invalidateHeartBeatDetection();
+	}
+
+	/**
+	 * @return the RR calculations process only the new beats.
+	 */
+	public boolean isIncremental() {
+		return incremental;
+	}
+
+	/**
+	 * @param incremental process only the new beats, or recalculate everything.
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+
 	/**
 	 * @return is loaded from file.
 	 */
@@ -792,4 +1465,110 @@ public class Phonocardiography implements Runnable {
 		this.pulse = pulse;
 	}
 
+	/**
+	 * Sets the results of the non-spectral analysis, loaded from a file.
+	 * 
+	 * @param indicators
+	 */
+	void setNonSpectralIndicators(NonSpectralIndicators indicators) {
+		pulse = indicators.getPulse();
+		meanRR = indicators.getMeanRR();
+		sdRR = indicators.getsdRR();
+		rMSSD = indicators.getrMSSD();
+		pNN50 = indicators.getpNN50();
+		nonSpectralIndicators = indicators;
+	}
+
+	public PhonocardType getType() {
+		return type;
+	}
+
+	public void setType(PhonocardType type) {
+		this.type = type;
+	}
+
+	public double getMinOfRiseBeforeBeatMultiplier() {
+		return minOfRiseBeforeBeatMultiplier;
+	}
+
+	public void setMinOfRiseBeforeBeatMultiplier(double minOfRiseBeforeBeatMultiplier) {
+		this.minOfRiseBeforeBeatMultiplier = minOfRiseBeforeBeatMultiplier;
+		invalidateHeartBeatDetection();
+	}
+
+	public double getMaxTimeToPeak() {
+		return maxTimeToPeak;
+	}
+
+	public void setMaxTimeToPeak(double maxTimeToPeak) {
+		this.maxTimeToPeak = maxTimeToPeak;
+		invalidateHeartBeatDetection();
+	}
+
+	public double getJumpedTimeAdaptingPeakDetection() {
+		return jumpedTimeAdaptingPeakDetection;
+	}
+
+	public void setJumpedTimeAdaptingPeakDetection(double jumpedTimeAdaptingPeakDetection) {
+		this.jumpedTimeAdaptingPeakDetection = jumpedTimeAdaptingPeakDetection;
+		invalidateHeartBeatDetection();
+	}
+
+	/**
+	 * @return the separation of the maternal and fetal heart sounds, or null.
+	 */
+	public HeartSoundSeparation getSeparation() {
+		return separation;
+	}
+
+	/**
+	 * @param separation
+	 *            separates the new samples of the heart sound at every
+	 *            refresh, null for none.
+	 */
+	public void setSeparation(HeartSoundSeparation separation) {
+		this.separation = separation;
+	}
+
+	public double getMaternalFc() {
+		return maternalFc;
+	}
+
+	public void setMaternalFc(double maternalFc) {
+		this.maternalFc = maternalFc;
+	}
+
+	public double getFetalFc() {
+		return fetalFc;
+	}
+
+	public void setFetalFc(double fetalFc) {
+		this.fetalFc = fetalFc;
+	}
+
+	/**
+	 * @return the threshold of the heart beat detection.
+	 */
+	public double getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * @param threshold the threshold of the heart beat detection.
+	 */
+	public void setThreshold(double threshold) {
+		this.threshold = threshold;
+		invalidateHeartBeatDetection();
+	}
+
+	/**
+	 * The heart beat detection only depends on the heart sound in the
+	 * calculation graph, so it has to run again after a change of its
+	 * parameters.
+	 */
+	private void invalidateHeartBeatDetection() {
+		if (calculations != null)
+			calculations.invalidate(HEART_BEAT_DETECTION_STAGE);
+	}
+
 }
@@ -0,0 +1,264 @@
+package calculation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import signal.SignalD;
+import signal.SignalSnapshot;
+import signal.SignalXY;
+
+/**
+ * Binary file of an analyzed phonocardiogram: the decimated heart sound, the
+ * beats, the RR and normal RR intervals, the detection parameters and the
+ * non-spectral indicators. Reopening a session reads the stored results
+ * instead of calculating them again.
+ *
+ * Layout (big-endian):
+ *
+ * <pre>
+ * "PCGS"  int version  int sectionCount
+ * sectionCount * (int id, long offset, long length)
+ * sections
+ * </pre>
+ *
+ * Sections with unknown id are skipped, so newer versions may add sections.
+ * Version 2 added maternalFc to the end of the parameters, version 1 files
+ * are read with the default maternalFc.
+ *
+ * @author Nagy Tamas
+ *
+ */
+public class SessionFile {
+
+	public static final String EXTENSION = ".pcg";
+	public static final int MAGIC = ('P' << 24) | ('C' << 16) | ('G' << 8) | 'S';
+	public static final int VERSION = 2;
+	// The first version storing maternalFc
+	public static final int MATERNAL_FC_VERSION = 2;
+
+	/* Section ids */
+	// double startTime, double dt, int n, double[n]
+	public static final int HEART_SOUND = 1;
+	// int n, double[n] xs, double[n] ys
+	public static final int BEATS = 2;
+	public static final int RR_INTERVALS = 3;
+	public static final int NORMAL_RR_INTERVALS = 4;
+	// int type, 7 doubles (6 before version 2), see writeParameters()
+	public static final int PARAMETERS = 5;
+	// double pulse, int meanRR, int sdRR, int rMSSD, double pNN50
+	public static final int INDICATORS = 6;
+
+	private static final int HEADER_SIZE = 12;
+	private static final int INDEX_ENTRY_SIZE = 4 + 8 + 8;
+
+	/**
+	 * Saves the results of a phonocardiography.
+	 *
+	 * @param pcg
+	 * @param file
+	 *            overwritten if it exists.
+	 * @throws IOException
+	 */
+	public static void save(Phonocardiography pcg, File file) throws IOException {
+		int[] ids = { HEART_SOUND, BEATS, RR_INTERVALS, NORMAL_RR_INTERVALS, PARAMETERS, INDICATORS };
+		ByteBuffer[] sections = new ByteBuffer[ids.length];
+		sections[0] = writeSignal(pcg.getHeartSound().snapshot());
+		sections[1] = writeSignal(pcg.getBeats().snapshot());
+		sections[2] = writeSignal(pcg.getRRintervals().snapshot());
+		sections[3] = writeSignal(pcg.getNormalRRintervals().snapshot());
+		sections[4] = writeParameters(pcg);
+		sections[5] = writeIndicators(pcg.getNonSpectralIndicators());
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + ids.length * INDEX_ENTRY_SIZE);
+		header.putInt(MAGIC).putInt(VERSION).putInt(ids.length);
+		long offset = header.capacity();
+		for (int i = 0; i < ids.length; i++) {
+			header.putInt(ids[i]).putLong(offset).putLong(sections[i].remaining());
+			offset += sections[i].remaining();
+		}
+		header.flip();
+
+		ByteBuffer[] all = new ByteBuffer[ids.length + 1];
+		all[0] = header;
+		System.arraycopy(sections, 0, all, 1, sections.length);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			while (all[all.length - 1].hasRemaining())
+				channel.write(all);
+		}
+	}
+
+	/**
+	 * Loads a session into an empty phonocardiography.
+	 *
+	 * @param file
+	 * @param pcg
+	 * @throws IOException
+	 *             if the file isn't a session file or it is corrupt.
+	 */
+	public static void load(File file, Phonocardiography pcg) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE)
+				throw new IOException("Not a session file: " + file);
+			ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (data.getInt(0) != MAGIC)
+				throw new IOException("Not a session file: " + file);
+			int version = data.getInt(4);
+			if (version > VERSION)
+				throw new IOException("Session file version " + version + " isn't supported.");
+			int count = data.getInt(8);
+			if (count < 0 || HEADER_SIZE + (long) count * INDEX_ENTRY_SIZE > data.capacity())
+				throw new IOException("Corrupt session file: " + file);
+			for (int i = 0; i < count; i++) {
+				int entry = HEADER_SIZE + i * INDEX_ENTRY_SIZE;
+				int id = data.getInt(entry);
+				long offset = data.getLong(entry + 4);
+				long length = data.getLong(entry + 12);
+				if (offset < 0 || length < 0 || offset + length > data.capacity())
+					throw new IOException("Corrupt session file: " + file);
+				ByteBuffer section = data.duplicate();
+				section.limit((int) (offset + length)).position((int) offset);
+				section = section.slice();
+				switch (id) {
+				case HEART_SOUND:
+					readSignal(section, pcg.getHeartSound());
+					break;
+				case BEATS:
+					readSignal(section, pcg.getBeats());
+					break;
+				case RR_INTERVALS:
+					readSignal(section, pcg.getRRintervals());
+					break;
+				case NORMAL_RR_INTERVALS:
+					readSignal(section, pcg.getNormalRRintervals());
+					break;
+				case PARAMETERS:
+					readParameters(section, pcg, version);
+					break;
+				case INDICATORS:
+					pcg.setNonSpectralIndicators(readIndicators(section));
+					break;
+				default:
+					// Written by a newer version
+					break;
+				}
+			}
+		} catch (IndexOutOfBoundsException | BufferUnderflowException | NegativeArraySizeException e) {
+			throw new IOException("Corrupt session file: " + file, e);
+		}
+	}
+
+	/**
+	 * @param file
+	 * @return true, if the file has the extension of the session files.
+	 */
+	public static boolean isSessionFile(File file) {
+		return file.getName().toLowerCase().endsWith(EXTENSION);
+	}
+
+	private static ByteBuffer writeSignal(SignalSnapshot signal) {
+		int n = signal.size();
+		ByteBuffer section;
+		if (signal.isEvenlySampled()) {
+			section = ByteBuffer.allocate(8 + 8 + 4 + 8 * n);
+			section.putDouble(signal.getStartTime());
+			section.putDouble(signal.getDt());
+			section.putInt(n);
+			for (int i = 0; i < n; i++)
+				section.putDouble(signal.getY(i));
+		} else {
+			section = ByteBuffer.allocate(4 + 16 * n);
+			section.putInt(n);
+			for (int i = 0; i < n; i++)
+				section.putDouble(signal.getX(i));
+			for (int i = 0; i < n; i++)
+				section.putDouble(signal.getY(i));
+		}
+		section.flip();
+		return section;
+	}
+
+	private static void readSignal(ByteBuffer section, SignalD signal) {
+		double startTime = section.getDouble();
+		double dt = section.getDouble();
+		int n = section.getInt();
+		double[] ys = new double[n];
+		section.asDoubleBuffer().get(ys);
+		synchronized (signal) {
+			signal.clear();
+			if (dt > 0.0)
+				signal.setDt(dt);
+			signal.setStartTime(startTime);
+			signal.addAll(ys, 0, n);
+		}
+	}
+
+	private static void readSignal(ByteBuffer section, SignalXY signal) {
+		int n = section.getInt();
+		double[] xs = new double[n];
+		double[] ys = new double[n];
+		section.asDoubleBuffer().get(xs).get(ys);
+		synchronized (signal) {
+			signal.removeAll();
+			for (int i = 0; i < n; i++)
+				signal.add(xs[i], ys[i]);
+		}
+	}
+
+	private static ByteBuffer writeParameters(Phonocardiography pcg) {
+		ByteBuffer section = ByteBuffer.allocate(4 + 7 * 8);
+		section.putInt(pcg.getType().ordinal());
+		section.putDouble(pcg.getMinOfRiseBeforeBeatMultiplier());
+		section.putDouble(pcg.getMaxTimeToPeak());
+		section.putDouble(pcg.getJumpedTimeAdaptingPeakDetection());
+		section.putDouble(pcg.getFetalFc());
+		section.putDouble(pcg.getThresholdWindowLength());
+		section.putDouble(pcg.getThreshold());
+		section.putDouble(pcg.getMaternalFc());
+		section.flip();
+		return section;
+	}
+
+	private static void readParameters(ByteBuffer section, Phonocardiography pcg, int version) {
+		int type = section.getInt();
+		if (type >= 0 && type < PhonocardType.values().length)
+			pcg.setType(PhonocardType.values()[type]);
+		pcg.setMinOfRiseBeforeBeatMultiplier(section.getDouble());
+		pcg.setMaxTimeToPeak(section.getDouble());
+		pcg.setJumpedTimeAdaptingPeakDetection(section.getDouble());
+		pcg.setFetalFc(section.getDouble());
+		pcg.setThresholdWindowLength(section.getDouble());
+		pcg.setThreshold(section.getDouble());
+		if (version >= MATERNAL_FC_VERSION)
+			pcg.setMaternalFc(section.getDouble());
+		else
+			pcg.setMaternalFc(Phonocardiography.DEFAULT_MATERNAL_FC);
+	}
+
+	private static ByteBuffer writeIndicators(NonSpectralIndicators indicators) {
+		ByteBuffer section = ByteBuffer.allocate(8 + 3 * 4 + 8);
+		section.putDouble(indicators.getPulse());
+		section.putInt(indicators.getMeanRR());
+		section.putInt(indicators.getsdRR());
+		section.putInt(indicators.getrMSSD());
+		section.putDouble(indicators.getpNN50());
+		section.flip();
+		return section;
+	}
+
+	private static NonSpectralIndicators readIndicators(ByteBuffer section) {
+		double pulse = section.getDouble();
+		int meanRR = section.getInt();
+		int sdRR = section.getInt();
+		int rMSSD = section.getInt();
+		double pNN50 = section.getDouble();
+		return new NonSpectralIndicators(pulse, meanRR, sdRR, rMSSD, pNN50);
+	}
+
+}
@@ -0,0 +1,68 @@
+package calculation;
+
+/**
+ * The results of the spectral analysis of the RR intervals at a given
+ * moment. Immutable, so it can be read by the GUI while the analysis is
+ * running.
+ *
+ * @author Nagy Tamas
+ *
+ */
+public final class SpectralIndicators {
+
+	/**
+	 * The indicators before the first analysis.
+	 */
+	public static final SpectralIndicators ZERO = new SpectralIndicators(0.0, 0.0, 0.0, 0.0);
+
+	// In ms^2
+	private final double vlf;
+	private final double lf;
+	private final double hf;
+	private final double totalPower;
+
+	public SpectralIndicators(double vlf, double lf, double hf, double totalPower) {
+		this.vlf = vlf;
+		this.lf = lf;
+		this.hf = hf;
+		this.totalPower = totalPower;
+	}
+
+	/**
+	 * @return the power of the very low frequency band in ms^2.
+	 */
+	public double getVLF() {
+		return vlf;
+	}
+
+	/**
+	 * @return the power of the low frequency band in ms^2.
+	 */
+	public double getLF() {
+		return lf;
+	}
+
+	/**
+	 * @return the power of the high frequency band in ms^2.
+	 */
+	public double getHF() {
+		return hf;
+	}
+
+	/**
+	 * @return the ratio of the LF and the HF power, 0 if there is no HF
+	 *         power.
+	 */
+	public double getLFHF() {
+		return (hf > 0.0) ? lf / hf : 0.0;
+	}
+
+	/**
+	 * @return the power of the frequencies up to the end of the HF band in
+	 *         ms^2.
+	 */
+	public double getTotalPower() {
+		return totalPower;
+	}
+
+}
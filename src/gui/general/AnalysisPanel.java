@@ -11,7 +11,9 @@ import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
 
+import calculation.NonSpectralIndicators;
 import calculation.Phonocardiography;
+import calculation.SpectralIndicators;
 
 /**
  * Visualizes the calculated cardiac function indicators.
@@ -69,6 +71,7 @@ public class AnalysisPanel extends JPanel implements Runnable {
 		acons.gridheight = 1;
 		acons.gridy = GridBagConstraints.RELATIVE;
 		setLayout(agbl);
+		NonSpectralIndicators indicators = plet.getNonSpectralIndicators();
 		JLabel[] nonSpectralLabels = new JLabel[10];
 		int i;
 		JLabel lbNonSpectral = new JLabel("RR analysis");
@@ -81,16 +84,16 @@ public class AnalysisPanel extends JPanel implements Runnable {
 
 		nonSpectralLabels[0] = new JLabel("pulse: ");
 		nonSpectralLabels[1] = new JLabel(String.format(Locale.ENGLISH, "%.1f",
-				plet.getPulse()) + " BPM");
+				indicators.getPulse()) + " BPM");
 		nonSpectralLabels[2] = new JLabel("meanRR: ");
-		nonSpectralLabels[3] = new JLabel(plet.getMeanRR() + " ms");
+		nonSpectralLabels[3] = new JLabel(indicators.getMeanRR() + " ms");
 		nonSpectralLabels[4] = new JLabel("sdRR: ");
-		nonSpectralLabels[5] = new JLabel(plet.getsdRR() + " ms");
+		nonSpectralLabels[5] = new JLabel(indicators.getsdRR() + " ms");
 		nonSpectralLabels[6] = new JLabel("rMSSD: ");
-		nonSpectralLabels[7] = new JLabel(plet.getrMSSD() + " ms");
+		nonSpectralLabels[7] = new JLabel(indicators.getrMSSD() + " ms");
 		nonSpectralLabels[8] = new JLabel("pNN50: ");
 		nonSpectralLabels[9] = new JLabel(String.format(loc, "%.1f",
-				plet.getpNN50())
+				indicators.getpNN50())
 				+ " %");
 		acons.gridwidth = 1;
 
@@ -104,6 +107,41 @@ public class AnalysisPanel extends JPanel implements Runnable {
 					.getFont().getName(), Font.BOLD, fontSize));
 			add(nonSpectralLabels[i]);
 		}
+
+		SpectralIndicators spectral = plet.getSpectralIndicators();
+		JLabel[] spectralLabels = new JLabel[8];
+		JLabel lbSpectral = new JLabel("Spectral analysis");
+		lbSpectral.setFont(new Font(lbSpectral.getFont().getName(),
+				Font.BOLD, fontSize + 2));
+		acons.gridwidth = 2;
+		acons.gridx = 0;
+		agbl.setConstraints(lbSpectral, acons);
+		add(lbSpectral);
+
+		spectralLabels[0] = new JLabel("VLF: ");
+		spectralLabels[1] = new JLabel(String.format(loc, "%.0f",
+				spectral.getVLF()) + " ms^2");
+		spectralLabels[2] = new JLabel("LF: ");
+		spectralLabels[3] = new JLabel(String.format(loc, "%.0f",
+				spectral.getLF()) + " ms^2");
+		spectralLabels[4] = new JLabel("HF: ");
+		spectralLabels[5] = new JLabel(String.format(loc, "%.0f",
+				spectral.getHF()) + " ms^2");
+		spectralLabels[6] = new JLabel("LF/HF: ");
+		spectralLabels[7] = new JLabel(String.format(loc, "%.2f",
+				spectral.getLFHF()));
+		acons.gridwidth = 1;
+
+		for (i = 0; i < spectralLabels.length; i++) {
+			if (i % 2 == 0)
+				acons.gridx = 0;
+			else
+				acons.gridx = 1;
+			agbl.setConstraints(spectralLabels[i], acons);
+			spectralLabels[i].setFont(new Font(spectralLabels[i]
+					.getFont().getName(), Font.BOLD, fontSize));
+			add(spectralLabels[i]);
+		}
 		SwingUtilities.updateComponentTreeUI(this);
 		// revalidate();
 	}
@@ -5,17 +5,18 @@ import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
 import java.awt.geom.AffineTransform;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.Locale;
 
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
 import signal.Signal;
-import signal.SignalPoint;
-import signal.SignalXY;
-import signal.YSignal;
+import signal.SignalSnapshot;
 
 /**
  * Visualizes all inherited object of Signal.
@@ -54,6 +55,10 @@ public class Graph extends JPanel implements Runnable {
 	public static final double DEFAULT_Y_AXIS_SCALE = 1.0;
 	// In Hz
 	public static final int DEFAULT_REFRESH_RATE = 60;
+	// The view is zoomed by this factor per notch of the mouse wheel
+	public static final double ZOOM_FACTOR = 1.25;
+	// The narrowest view
+	public static final double MIN_VIEW_WIDTH = 0.001;
 
 	/* Graph parameters */
 	// x
@@ -64,6 +69,11 @@ public class Graph extends JPanel implements Runnable {
 	private double xAxisScale;
 	private double windowSize = NO_WINDOW;
 	private boolean windowed;
+	// The zoomed part of the x axis, NaN if the whole curve is shown
+	private double viewXMin = Double.NaN;
+	private double viewXMax = Double.NaN;
+	// The x coordinate of the mouse at the last drag event
+	private int dragX;
 	// x=A*x + B
 	private double xScaleA;
 	private double xScaleB;
@@ -97,6 +107,7 @@ public class Graph extends JPanel implements Runnable {
 		refreshing = false;
 		setPreferredSize(new Dimension(STARTING_PANEL_WIDTH, STARTING_PANEL_HEIGHT));
 		setBackground(Color.WHITE);
+		addViewListener();
 		repaint();
 	}
 
@@ -112,9 +123,82 @@ public class Graph extends JPanel implements Runnable {
 		setPreferredSize(new Dimension(STARTING_PANEL_WIDTH, STARTING_PANEL_HEIGHT));
 		setBackground(Color.WHITE);
 		this.windowSize = windowSize;
+		addViewListener();
 		repaint();
 	}
 
+	/**
+	 * Zooming with the mouse wheel around the cursor, scrolling by dragging
+	 * with the left button, showing the whole curve by double click.
+	 */
+	private void addViewListener() {
+		MouseAdapter viewListener = new MouseAdapter() {
+
+			@Override
+			public void mouseWheelMoved(MouseWheelEvent e) {
+				if (isDefault)
+					return;
+				double x = (e.getX() - GRAPH_BORDER - xScaleB) / xScaleA;
+				double factor = Math.pow(ZOOM_FACTOR, e.getPreciseWheelRotation());
+				double min = x - (x - xMin) * factor;
+				double max = x + (xMax - x) * factor;
+				if (max - min < MIN_VIEW_WIDTH)
+					return;
+				setView(min, max);
+			}
+
+			@Override
+			public void mousePressed(MouseEvent e) {
+				dragX = e.getX();
+			}
+
+			@Override
+			public void mouseDragged(MouseEvent e) {
+				if (!SwingUtilities.isLeftMouseButton(e) || !isZoomed())
+					return;
+				double dx = (e.getX() - dragX) / xScaleA;
+				dragX = e.getX();
+				setView(viewXMin - dx, viewXMax - dx);
+			}
+
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				if (SwingUtilities.isLeftMouseButton(e) && e.getClickCount() == 2)
+					resetView();
+			}
+		};
+		addMouseListener(viewListener);
+		addMouseMotionListener(viewListener);
+		addMouseWheelListener(viewListener);
+	}
+
+	/**
+	 * Shows only a part of the x axis. The view is moved inside the curve
+	 * when the graph is painted.
+	 * 
+	 * @param xMin
+	 * @param xMax
+	 */
+	public void setView(double xMin, double xMax) {
+		viewXMin = xMin;
+		viewXMax = xMax;
+		repaint();
+	}
+
+	/**
+	 * Shows the whole curve again.
+	 */
+	public void resetView() {
+		setView(Double.NaN, Double.NaN);
+	}
+
+	/**
+	 * @return true, if only a part of the x axis is shown.
+	 */
+	public boolean isZoomed() {
+		return !Double.isNaN(viewXMin);
+	}
+
 	/* (non-Javadoc)
 	 * @see java.lang.Runnable#run()
 	 */
@@ -143,16 +227,20 @@ public class Graph extends JPanel implements Runnable {
 		// setPreferredSize(new Dimension(STARTING_PANEL_WIDTH,
 		// STARTING_PANEL_HEIGHT));
 		g2d.translate(GRAPH_BORDER, getSize().height - GRAPH_BORDER);
-		calculateGraphParameters(paramCurve);
+		Signal<?> paramCurve = this.paramCurve;
+		ArrayList<Signal<?>> drawnSignals;
+		synchronized (signals) {
+			drawnSignals = new ArrayList<>(signals);
+		}
+		calculateGraphParameters((paramCurve == null) ? null : paramCurve.snapshotExtent());
 		// Draw grid
 		drawGrid(g2d);
-		// Draw curves
-		synchronized (signals) {
-
-			if (!signals.isEmpty())
-				for (Signal<?> signal : signals)
-					if (!signal.isEmpty())
-						drawSignal(g2d, signal);
+		// Draw curves, only the visible part, at most two points per pixel column
+		int columns = scaledXMax - scaledXMin;
+		for (Signal<?> signal : drawnSignals) {
+			SignalSnapshot snapshot = signal.snapshot(xMin, xMax, columns);
+			if (snapshot.size() > 0)
+				drawSignal(g2d, signal, snapshot);
 		}
 		// Draw axis
 		drawAxis(g2d);
@@ -164,55 +252,86 @@ public class Graph extends JPanel implements Runnable {
 	 * @param curve
 	 */
 	public void calculateGraphParameters(Signal<?> curve) {
-		synchronized (curve) {
-			if (curve == null)
-				setGraphParametersToDefault();
-			else if (curve.isEmpty())
-				setGraphParametersToDefault();
-			else {
-				isDefault = false;
-				yMax = curve.max().doubleValue();
-				yMin = curve.min().doubleValue();
-
-				yAxisScale = 0.0001f;
-				while ((yMax - yMin) / yAxisScale > 20)
-					yAxisScale *= 10.0f;
-
-				yMax = yAxisScale * (Math.ceil(yMax / yAxisScale));
-				yMin = yAxisScale * (Math.floor(yMin / yAxisScale));
-				yScaleA = (getSize().height - 2.0f * GRAPH_BORDER) / (yMin - yMax);
-				yScaleB = -1.0f * yScaleA * yMin;
-				scaledYMax = scaleAndRoundY(yMax);
-
-				if (curve instanceof SignalXY) {
-					xMin = ((SignalXY) curve).getFirst().getX();
-					xMax = ((SignalXY) curve).getLast().getX();
-				} else {
-					xMin = ((YSignal<?>) curve).getStartTime();
-					xMax = xMin + ((YSignal<?>) curve).getLength();
-				}
-				if (windowSize != NO_WINDOW && xMax - xMin > windowSize) {
-					xMin = xMax - windowSize;
-					windowed = true;
-				} else {
-					windowed = false;
-				}
+		calculateGraphParameters((curve == null) ? null : curve.snapshotExtent());
+	}
 
-				xAxisScale = 0.0001f;
-				while ((xMax - xMin) / xAxisScale > 30)
-					xAxisScale *= 10.0f;
-				if (!refreshing) {
-					xMax = xAxisScale * (Math.ceil(xMax / xAxisScale));
-					xMin = xAxisScale * (Math.floor(xMin / xAxisScale));
-				}
-				xScaleA = (getSize().width - 2.0f * GRAPH_BORDER) / (xMax - xMin);
-				xScaleB = -1.0f * xScaleA * xMin;
-				scaledXMax = scaleAndRoundX(xMax);
+	/**
+	 * Calculates mins, maxes and scales from the extent of the param curve.
+	 * @param curve
+	 */
+	public void calculateGraphParameters(SignalSnapshot curve) {
+		if (curve == null)
+			setGraphParametersToDefault();
+		else if (curve.isEmpty())
+			setGraphParametersToDefault();
+		else {
+			isDefault = false;
+			yMax = curve.getMax();
+			yMin = curve.getMin();
+
+			yAxisScale = 0.0001f;
+			while ((yMax - yMin) / yAxisScale > 20)
+				yAxisScale *= 10.0f;
+
+			yMax = yAxisScale * (Math.ceil(yMax / yAxisScale));
+			yMin = yAxisScale * (Math.floor(yMin / yAxisScale));
+			yScaleA = (getSize().height - 2.0f * GRAPH_BORDER) / (yMin - yMax);
+			yScaleB = -1.0f * yScaleA * yMin;
+			scaledYMax = scaleAndRoundY(yMax);
+
+			xMin = curve.getFirstX();
+			xMax = curve.getLastX();
+			if (windowSize != NO_WINDOW && xMax - xMin > windowSize) {
+				xMin = xMax - windowSize;
+				windowed = true;
+			} else {
+				windowed = false;
+			}
+			boolean zoomed = applyView();
+
+			xAxisScale = 0.0001f;
+			while ((xMax - xMin) / xAxisScale > 30)
+				xAxisScale *= 10.0f;
+			if (!refreshing && !zoomed) {
+				xMax = xAxisScale * (Math.ceil(xMax / xAxisScale));
+				xMin = xAxisScale * (Math.floor(xMin / xAxisScale));
 			}
+			xScaleA = (getSize().width - 2.0f * GRAPH_BORDER) / (xMax - xMin);
+			xScaleB = -1.0f * xScaleA * xMin;
+			scaledXMax = scaleAndRoundX(xMax);
 		}
 	}
 
 
+	/**
+	 * Narrows xMin and xMax to the view, moving the view inside them. The
+	 * view is reset, if it isn't narrower.
+	 * 
+	 * @return true, if a part of the x axis is shown.
+	 */
+	private boolean applyView() {
+		if (!isZoomed())
+			return false;
+		double width = viewXMax - viewXMin;
+		if (width >= xMax - xMin) {
+			viewXMin = Double.NaN;
+			viewXMax = Double.NaN;
+			return false;
+		}
+		if (viewXMin < xMin) {
+			viewXMin = xMin;
+			viewXMax = xMin + width;
+		}
+		if (viewXMax > xMax) {
+			viewXMax = xMax;
+			viewXMin = xMax - width;
+		}
+		xMin = viewXMin;
+		xMax = viewXMax;
+		windowed = true;
+		return true;
+	}
+
 	/**
 	 * Default params.
 	 */
@@ -240,154 +359,153 @@ public class Graph extends JPanel implements Runnable {
 	 * @param g2d
 	 */
 	public void drawAxis(Graphics2D g2d) {
-		synchronized (paramCurve) {
-			g2d.setColor(Color.BLACK);
-			g2d.setFont(new Font(g2d.getFont().getName(), Font.BOLD, fontSize));
-			double xCount1, xCount2;
-			double yCount;
-			int xDigitsBeforeDecPoint;
-			int yDigitsBeforeDecPoint = 0;
-
-			int xDigitsAfterDecPoint = (int) Math.round(Math.log10(Math.abs(xAxisScale)));
-			if (xDigitsAfterDecPoint >= 0)
-				xDigitsAfterDecPoint = 0;
-			else
-				xDigitsAfterDecPoint *= -1;
-
-			int yDigitsAfterDecPoint = (int) Math.round(Math.log10(Math.abs(yAxisScale)));
-			if (yDigitsAfterDecPoint >= 0)
-				yDigitsAfterDecPoint = 0;
-			else
-				yDigitsAfterDecPoint *= -1;
-			int x;
-			int y;
-			String number;
-			// Draw the horizontal lines + numbers
-			g2d.setColor(DARK_GRAY);
-			// the * 1.01 is needed because of the rounding errors
-			for (yCount = yMin; yCount <= yMax; yCount += yAxisScale) {
-				y = scaleAndRoundY(yCount);
-				g2d.drawLine(scaledXMin - MARK_LENGTH / 2, y, scaledXMin + MARK_LENGTH / 2, y);
-				switch (yDigitsAfterDecPoint) {
-				case 4:
-					number = String.format(loc, "%.4f", yCount);
-					break;
-				case 3:
-					number = String.format(loc, "%.3f", yCount);
-					break;
-				case 2:
-					number = String.format(loc, "%.2f", yCount);
-					break;
-				case 1:
-					number = String.format(loc, "%.1f", yCount);
-					break;
-				case 0:
-					number = String.format(loc, "%.0f", yCount);
-					break;
-				default:
-					number = Double.toString(yCount);
-					break;
-				}
-				yDigitsBeforeDecPoint = (int) Math.floor(Math.log10(Math.abs(Math.rint(yCount))));
-				if (yDigitsBeforeDecPoint < 1)
-					yDigitsBeforeDecPoint = 1;
-				if (yCount >= 0)
-					g2d.drawString(number, -4 - FONT_WIDTH * (yDigitsBeforeDecPoint + yDigitsAfterDecPoint)
-							- MARK_LENGTH, y + 3);
-				else
-					g2d.drawString(number, -6 - FONT_WIDTH * (yDigitsBeforeDecPoint + yDigitsAfterDecPoint)
-							- MARK_LENGTH, y + 3);
+		Signal<?> paramCurve = this.paramCurve;
+		g2d.setColor(Color.BLACK);
+		g2d.setFont(new Font(g2d.getFont().getName(), Font.BOLD, fontSize));
+		double xCount1, xCount2;
+		double yCount;
+		int xDigitsBeforeDecPoint;
+		int yDigitsBeforeDecPoint = 0;
+
+		int xDigitsAfterDecPoint = (int) Math.round(Math.log10(Math.abs(xAxisScale)));
+		if (xDigitsAfterDecPoint >= 0)
+			xDigitsAfterDecPoint = 0;
+		else
+			xDigitsAfterDecPoint *= -1;
+
+		int yDigitsAfterDecPoint = (int) Math.round(Math.log10(Math.abs(yAxisScale)));
+		if (yDigitsAfterDecPoint >= 0)
+			yDigitsAfterDecPoint = 0;
+		else
+			yDigitsAfterDecPoint *= -1;
+		int x;
+		int y;
+		String number;
+		// Draw the horizontal lines + numbers
+		g2d.setColor(DARK_GRAY);
+		// the * 1.01 is needed because of the rounding errors
+		for (yCount = yMin; yCount <= yMax; yCount += yAxisScale) {
+			y = scaleAndRoundY(yCount);
+			g2d.drawLine(scaledXMin - MARK_LENGTH / 2, y, scaledXMin + MARK_LENGTH / 2, y);
+			switch (yDigitsAfterDecPoint) {
+			case 4:
+				number = String.format(loc, "%.4f", yCount);
+				break;
+			case 3:
+				number = String.format(loc, "%.3f", yCount);
+				break;
+			case 2:
+				number = String.format(loc, "%.2f", yCount);
+				break;
+			case 1:
+				number = String.format(loc, "%.1f", yCount);
+				break;
+			case 0:
+				number = String.format(loc, "%.0f", yCount);
+				break;
+			default:
+				number = Double.toString(yCount);
+				break;
 			}
-			g2d.drawLine(scaledXMin - MARK_LENGTH / 2, scaledYMax, scaledXMax + MARK_LENGTH / 2, scaledYMax);
-			g2d.drawLine(scaledXMin - MARK_LENGTH / 2, scaledYMin, scaledXMax + MARK_LENGTH / 2, scaledYMin);
-			g2d.drawLine(scaledXMin, scaledYMin + MARK_LENGTH / 2, scaledXMin, scaledYMax - MARK_LENGTH / 2);
-			// Draw the vertical line + numbers
-			g2d.setColor(Color.BLACK);
-			boolean writeNumber;
-			for (xCount1 = Math.rint(xMin / xAxisScale) * xAxisScale; xCount1 <= xMax; xCount1 += xAxisScale) {
-				if (!windowed) {
-					if (xCount1 > xMin + xAxisScale * 0.1) {
-						xCount2 = xCount1;
-						x = scaleAndRoundX(xCount2);
-						writeNumber = true;
-					} else if (xCount1 < xMin - xAxisScale * 0.1) {
-						xCount2 = xMin;
-						x = scaledXMin;
-						writeNumber = false;
-					} else {
-						xCount2 = xCount1;
-						x = scaledXMin;
-						writeNumber = true;
-					}
+			yDigitsBeforeDecPoint = (int) Math.floor(Math.log10(Math.abs(Math.rint(yCount))));
+			if (yDigitsBeforeDecPoint < 1)
+				yDigitsBeforeDecPoint = 1;
+			if (yCount >= 0)
+				g2d.drawString(number, -4 - FONT_WIDTH * (yDigitsBeforeDecPoint + yDigitsAfterDecPoint)
+						- MARK_LENGTH, y + 3);
+			else
+				g2d.drawString(number, -6 - FONT_WIDTH * (yDigitsBeforeDecPoint + yDigitsAfterDecPoint)
+						- MARK_LENGTH, y + 3);
+		}
+		g2d.drawLine(scaledXMin - MARK_LENGTH / 2, scaledYMax, scaledXMax + MARK_LENGTH / 2, scaledYMax);
+		g2d.drawLine(scaledXMin - MARK_LENGTH / 2, scaledYMin, scaledXMax + MARK_LENGTH / 2, scaledYMin);
+		g2d.drawLine(scaledXMin, scaledYMin + MARK_LENGTH / 2, scaledXMin, scaledYMax - MARK_LENGTH / 2);
+		// Draw the vertical line + numbers
+		g2d.setColor(Color.BLACK);
+		boolean writeNumber;
+		for (xCount1 = Math.rint(xMin / xAxisScale) * xAxisScale; xCount1 <= xMax; xCount1 += xAxisScale) {
+			if (!windowed) {
+				if (xCount1 > xMin + xAxisScale * 0.1) {
+					xCount2 = xCount1;
+					x = scaleAndRoundX(xCount2);
+					writeNumber = true;
+				} else if (xCount1 < xMin - xAxisScale * 0.1) {
+					xCount2 = xMin;
+					x = scaledXMin;
+					writeNumber = false;
 				} else {
-					if (xCount1 > xMin + xAxisScale * 0.001) {
-						xCount2 = xCount1;
-						x = scaleAndRoundX(xCount2);
-						writeNumber = true;
-					} else if (xCount1 < xMin - xAxisScale * 0.001) {
-						xCount2 = xMin;
-						x = scaledXMin;
-						writeNumber = false;
-					} else {
-						xCount2 = xCount1;
-						x = scaledXMin;
-						writeNumber = true;
-					}
+					xCount2 = xCount1;
+					x = scaledXMin;
+					writeNumber = true;
 				}
-				g2d.drawLine(x, scaledYMin + MARK_LENGTH / 2, x, scaledYMin - MARK_LENGTH / 2);
-				switch (xDigitsAfterDecPoint) {
-				case 4:
-					number = String.format(loc, "%.4f", xCount2);
-					break;
-				case 3:
-					number = String.format(loc, "%.3f", xCount2);
-					break;
-				case 2:
-					number = String.format(loc, "%.2f", xCount2);
-					break;
-				case 1:
-					number = String.format(loc, "%.1f", xCount2);
-					break;
-				case 0:
-					number = String.format(loc, "%.0f", xCount2);
-					break;
-				default:
-					number = String.format(loc, "%.4f", xCount2);
-					break;
+			} else {
+				if (xCount1 > xMin + xAxisScale * 0.001) {
+					xCount2 = xCount1;
+					x = scaleAndRoundX(xCount2);
+					writeNumber = true;
+				} else if (xCount1 < xMin - xAxisScale * 0.001) {
+					xCount2 = xMin;
+					x = scaledXMin;
+					writeNumber = false;
+				} else {
+					xCount2 = xCount1;
+					x = scaledXMin;
+					writeNumber = true;
 				}
-				xDigitsBeforeDecPoint = (int) Math.floor(Math.log10(Math.abs(Math.rint(xCount2))));
-				if (xDigitsBeforeDecPoint < 1)
-					xDigitsBeforeDecPoint = 1;
-				if (writeNumber)
-					if (xCount2 >= 0)
-						g2d.drawString(number, x - (FONT_WIDTH / 2) * (xDigitsBeforeDecPoint + xDigitsAfterDecPoint),
-								20);
-					else
-						g2d.drawString(number, x - 2 - (FONT_WIDTH / 2)
-								* (xDigitsBeforeDecPoint + xDigitsAfterDecPoint), 20);
 			}
-			g2d.drawLine(scaledXMax, scaledYMin + MARK_LENGTH / 2, scaledXMax, scaledYMax - MARK_LENGTH / 2);
-			// Draw titles
-			if (paramCurve != null) {
-				g2d.setColor(Color.BLACK);
-				g2d.setFont(new Font(g2d.getFont().getName(), Font.BOLD, fontSize + 2));
-				if (paramCurve.getTitle() != null) {
-					g2d.drawString(paramCurve.getTitle(),
-							(scaledXMax - FONT_WIDTH * paramCurve.getTitle().length()) / 2, scaledYMax - GRAPH_BORDER
-									/ 2);
-				}
-				if (paramCurve.getxAxisTitle() != null) {
-					g2d.drawString(paramCurve.getxAxisTitle(), (scaledXMax - FONT_WIDTH
-							* paramCurve.getxAxisTitle().length()) / 2, GRAPH_BORDER / 2 + FONT_WIDTH);
-				}
-				if (paramCurve.getyAxisTitle() != null) {
-					AffineTransform Tx = g2d.getTransform();
-					g2d.rotate(-Math.PI / 2);
-					g2d.drawString(paramCurve.getyAxisTitle(), (-scaledYMax - FONT_WIDTH
-							* paramCurve.getyAxisTitle().length()) / 2, -GRAPH_BORDER / 2
-							- (FONT_WIDTH + yDigitsBeforeDecPoint * 2));
-					g2d.setTransform(Tx);
-				}
+			g2d.drawLine(x, scaledYMin + MARK_LENGTH / 2, x, scaledYMin - MARK_LENGTH / 2);
+			switch (xDigitsAfterDecPoint) {
+			case 4:
+				number = String.format(loc, "%.4f", xCount2);
+				break;
+			case 3:
+				number = String.format(loc, "%.3f", xCount2);
+				break;
+			case 2:
+				number = String.format(loc, "%.2f", xCount2);
+				break;
+			case 1:
+				number = String.format(loc, "%.1f", xCount2);
+				break;
+			case 0:
+				number = String.format(loc, "%.0f", xCount2);
+				break;
+			default:
+				number = String.format(loc, "%.4f", xCount2);
+				break;
+			}
+			xDigitsBeforeDecPoint = (int) Math.floor(Math.log10(Math.abs(Math.rint(xCount2))));
+			if (xDigitsBeforeDecPoint < 1)
+				xDigitsBeforeDecPoint = 1;
+			if (writeNumber)
+				if (xCount2 >= 0)
+					g2d.drawString(number, x - (FONT_WIDTH / 2) * (xDigitsBeforeDecPoint + xDigitsAfterDecPoint),
+							20);
+				else
+					g2d.drawString(number, x - 2 - (FONT_WIDTH / 2)
+							* (xDigitsBeforeDecPoint + xDigitsAfterDecPoint), 20);
+		}
+		g2d.drawLine(scaledXMax, scaledYMin + MARK_LENGTH / 2, scaledXMax, scaledYMax - MARK_LENGTH / 2);
+		// Draw titles
+		if (paramCurve != null) {
+			g2d.setColor(Color.BLACK);
+			g2d.setFont(new Font(g2d.getFont().getName(), Font.BOLD, fontSize + 2));
+			if (paramCurve.getTitle() != null) {
+				g2d.drawString(paramCurve.getTitle(),
+						(scaledXMax - FONT_WIDTH * paramCurve.getTitle().length()) / 2, scaledYMax - GRAPH_BORDER
+								/ 2);
+			}
+			if (paramCurve.getxAxisTitle() != null) {
+				g2d.drawString(paramCurve.getxAxisTitle(), (scaledXMax - FONT_WIDTH
+						* paramCurve.getxAxisTitle().length()) / 2, GRAPH_BORDER / 2 + FONT_WIDTH);
+			}
+			if (paramCurve.getyAxisTitle() != null) {
+				AffineTransform Tx = g2d.getTransform();
+				g2d.rotate(-Math.PI / 2);
+				g2d.drawString(paramCurve.getyAxisTitle(), (-scaledYMax - FONT_WIDTH
+						* paramCurve.getyAxisTitle().length()) / 2, -GRAPH_BORDER / 2
+						- (FONT_WIDTH + yDigitsBeforeDecPoint * 2));
+				g2d.setTransform(Tx);
 			}
 		}
 	}
@@ -414,33 +532,32 @@ public class Graph extends JPanel implements Runnable {
 	 * @param signal
 	 */
 	public void drawSignal(Graphics2D g2d, Signal<?> signal) {
+		SignalSnapshot snapshot = signal.snapshot(xMin, xMax, scaledXMax - scaledXMin);
+		if (snapshot.size() > 0)
+			drawSignal(g2d, signal, snapshot);
+	}
+
+	/**
+	 * Draws a snapshot of a signal, with the color and graph type of the signal.
+	 * @param g2d
+	 * @param signal
+	 * @param snapshot
+	 */
+	public void drawSignal(Graphics2D g2d, Signal<?> signal, SignalSnapshot snapshot) {
+		g2d.setColor(signal.getColor());
 		switch (signal.getGraphType()) {
 		case LINE:
-			if (signal instanceof SignalXY)
-				drawCurve(g2d, (SignalXY) signal);
-			else if (signal instanceof YSignal<?>)
-				drawCurve(g2d, (YSignal<?>) signal);
+			drawCurve(g2d, snapshot);
 			break;
 		case POINTS:
-			if (signal instanceof SignalXY)
-				drawPoints(g2d, (SignalXY) signal);
-			else if (signal instanceof YSignal<?>)
-				drawPoints(g2d, (YSignal<?>) signal);
+			drawPoints(g2d, snapshot);
 			break;
 		case LINE_AND_POINTS:
-			if (signal instanceof SignalXY) {
-				drawCurve(g2d, (SignalXY) signal);
-				drawPoints(g2d, (SignalXY) signal);
-			} else if (signal instanceof YSignal<?>) {
-				drawCurve(g2d, (YSignal<?>) signal);
-				drawPoints(g2d, (YSignal<?>) signal);
-			}
+			drawCurve(g2d, snapshot);
+			drawPoints(g2d, snapshot);
 			break;
 		case SIGNS:
-			if (signal instanceof SignalXY)
-				drawSigns(g2d, (SignalXY) signal);
-			else if (signal instanceof YSignal<?>)
-				drawSigns(g2d, (YSignal<?>) signal);
+			drawSigns(g2d, snapshot);
 			break;
 		}
 
@@ -451,132 +568,47 @@ public class Graph extends JPanel implements Runnable {
 	 * Private functions to draw signals.
 	 */
 
-	private void drawCurve(Graphics2D g2d, SignalXY curve) {
-		synchronized (curve) {
-			g2d.setColor(curve.getColor());
-			Iterator<SignalPoint> curveIterator = curve.iterator();
-			SignalPoint point = curveIterator.next();
-			int x1, y1, x2, y2;
-			double x = point.getX();
-			while (curveIterator.hasNext() && x < xMin) {
-				point = curveIterator.next();
-				x = point.getX();
-			}
-			
-			x2 = scaleAndRoundX(point.getX());
-			y2 = scaleAndRoundY(point.getY());
-			while (curveIterator.hasNext()) {
-				x1 = x2;
-				y1 = y2;
-				point = curveIterator.next();
-				x2 = scaleAndRoundX(point.getX());
-				y2 = scaleAndRoundY(point.getY());
-				if (scaledPointIsOnGraph(x1, y1) && scaledPointIsOnGraph(x2, y2)) {
-						g2d.drawLine(x1, y1, x2, y2);
-				}
-			}
+	private void drawCurve(Graphics2D g2d, SignalSnapshot curve) {
+		int x1, y1, x2, y2;
+		int startIndex = curve.floorIndex(xMin);
+		if (startIndex < 0)
+			startIndex = 0;
+		x2 = scaleAndRoundX(curve.getX(startIndex));
+		y2 = scaleAndRoundY(curve.getY(startIndex));
+		for (int i = startIndex + 1; i < curve.size(); i++) {
+			x1 = x2;
+			y1 = y2;
+			x2 = scaleAndRoundX(curve.getX(i));
+			y2 = scaleAndRoundY(curve.getY(i));
+			if (scaledPointIsOnGraph(x1, y1) && scaledPointIsOnGraph(x2, y2))
+				g2d.drawLine(x1, y1, x2, y2);
 		}
 	}
 
-	private void drawCurve(Graphics2D g2d, YSignal<?> curve) {
-		synchronized (curve) {
-			g2d.setColor(curve.getColor());
-			int x1, y1, x2, y2;
-			int startIndex = (int) Math.floor((xMin - curve.getStartTime()) / curve.getDt());
-			if (startIndex < 0)
-				startIndex = 0;
-			x2 = scaleAndRoundX(curve.getX(startIndex));
-			y2 = scaleAndRoundY(curve.get(startIndex).doubleValue());
-			for (int i = startIndex + 1; i < curve.size(); i++) {
-				x1 = x2;
-				y1 = y2;
-				x2 = scaleAndRoundX(curve.getX(i));
-				y2 = scaleAndRoundY(curve.get(i).doubleValue());
-				if (scaledPointIsOnGraph(x1, y1) && scaledPointIsOnGraph(x2, y2)) 
-					g2d.drawLine(x1, y1, x2, y2);
-				
-			}
-		}
-	}
-
-	private void drawPoints(Graphics2D g2d, SignalXY curve) {
-		synchronized (curve) {
-			Iterator<SignalPoint> curveIterator = curve.iterator();
-			SignalPoint point1 = curveIterator.next();
-			double x = point1.getX();
-			while (curveIterator.hasNext() && x < xMin) {
-				point1 = curveIterator.next();
-				x = point1.getX();
-			}
-			int x1 = scaleAndRoundX(point1.getX());
-			int y1 = scaleAndRoundY(point1.getY());
-			g2d.setColor(curve.getColor());
+	private void drawPoints(Graphics2D g2d, SignalSnapshot curve) {
+		int x1, y1;
+		for (int i = curve.ceilingIndex(xMin); i < curve.size(); i++) {
+			x1 = scaleAndRoundX(curve.getX(i));
+			y1 = scaleAndRoundY(curve.getY(i));
 			if (scaledPointIsOnGraph(x1, y1))
 				g2d.fillRect(x1 - POINT_SIZE / 2, y1 - POINT_SIZE / 2, POINT_SIZE, POINT_SIZE);
-			while (curveIterator.hasNext()) {
-				point1 = curveIterator.next();
-				x1 = scaleAndRoundX(point1.getX());
-				y1 = scaleAndRoundY(point1.getY());
-				if (scaledPointIsOnGraph(x1, y1))
-					g2d.fillRect(x1 - POINT_SIZE / 2, y1 - POINT_SIZE / 2, POINT_SIZE, POINT_SIZE);
-			}
-		}
-	}
-
-	private void drawPoints(Graphics2D g2d, YSignal<?> curve) {
-		synchronized (curve) {
-			int startIndex = (int) Math.floor((xMin - curve.getStartTime()) / curve.getDt());
-			if (startIndex < 0)
-				startIndex = 0;
-			int x1, y1;
-			g2d.setColor(curve.getColor());
-			for (int i = startIndex; i < curve.size(); i++) {
-				x1 = scaleAndRoundX(curve.getX(i));
-				y1 = scaleAndRoundY(curve.get(i).doubleValue());
-				if (scaledPointIsOnGraph(x1, y1))
-					g2d.fillRect(x1 - POINT_SIZE / 2, y1 - POINT_SIZE / 2, POINT_SIZE, POINT_SIZE);
-			}
 		}
 	}
 
 	/*
-	 * 
+	 * The signs of an evenly sampled signal are drawn regardless of the y values.
 	 */
-	private void drawSigns(Graphics2D g2d, SignalXY points) {
-		synchronized (points) {
-			Iterator<SignalPoint> curveIterator = points.iterator();
-			SignalPoint point1 = curveIterator.next();
-			double x = point1.getX();
-			while (curveIterator.hasNext() && x < xMin) {
-				point1 = curveIterator.next();
-				x = point1.getX();
-			}
-			int x1 = scaleAndRoundX(point1.getX());
-			int y1 = scaleAndRoundY(point1.getY());
-			g2d.setColor(points.getColor());
-			if (scaledPointIsOnGraph(x1, y1))
-				g2d.drawLine(x1, scaledYMin, x1, scaledYMax);
-			while (curveIterator.hasNext()) {
-				point1 = curveIterator.next();
-				x1 = scaleAndRoundX(point1.getX());
-				y1 = scaleAndRoundY(point1.getY());
-				if (scaledPointIsOnGraph(x1, y1))
-					g2d.drawLine(x1, scaledYMin, x1, scaledYMax);
-			}
-		}
-	}
-
-	private void drawSigns(Graphics2D g2d, YSignal<?> points) {
-		synchronized (points) {
-			int startIndex = (int) Math.floor((xMin - points.getStartTime()) / points.getDt());
-			if (startIndex < 0)
-				startIndex = 0;
-			int x1;
-			g2d.setColor(points.getColor());
-			for (int i = startIndex; i < points.size(); i++) {
-				x1 = scaleAndRoundX(points.getX(i));
+	private void drawSigns(Graphics2D g2d, SignalSnapshot points) {
+		int x1, y1;
+		for (int i = points.ceilingIndex(xMin); i < points.size(); i++) {
+			x1 = scaleAndRoundX(points.getX(i));
+			if (points.isEvenlySampled()) {
 				if (scaledXValueIsOnGraph(x1))
 					g2d.drawLine(x1, scaledYMin, x1, scaledYMax);
+			} else {
+				y1 = scaleAndRoundY(points.getY(i));
+				if (scaledPointIsOnGraph(x1, y1))
+					g2d.drawLine(x1, scaledYMin, x1, scaledYMax);
 			}
 		}
 	}
@@ -15,6 +15,7 @@ import java.awt.event.KeyListener;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
 import java.io.File;
+import java.io.IOException;
 
 import javax.swing.AbstractButton;
 import javax.swing.ButtonGroup;
@@ -27,9 +28,14 @@ import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPopupMenu;
 import javax.swing.JRadioButtonMenuItem;
+import javax.swing.Timer;
 
+import signal.PagedSignalD;
+import signal.SignalD;
+import signal.YSignal;
 import soundcard.StethCapture;
 import calculation.Phonocardiography;
+import calculation.SessionFile;
 
 /**
  * GUI for the sound card measurements.
@@ -43,6 +49,8 @@ public class StethoscopeGUI extends JFrame implements ActionListener,
 	private static final long serialVersionUID = -2191074802078732591L;
 
 	private static final String ICON_PATH = "etc/steth_icon.png";
+	// In ms
+	private static final int OVERVIEW_REPAINT_DELAY = 250;
 
 	// Menu bar
 	private JMenuBar mb;
@@ -82,6 +90,8 @@ public class StethoscopeGUI extends JFrame implements ActionListener,
 			"Normal R-R intervals", false);
 	private JRadioButtonMenuItem rbBeatsPerMinute = new JRadioButtonMenuItem(
 			"Beats/minute", false);
+	private JRadioButtonMenuItem rbLfHfTrend = new JRadioButtonMenuItem(
+			"LF/HF trend", false);
 	private ButtonGroup rbGroup = new ButtonGroup();
 
 	// Analysis menu
@@ -97,6 +107,10 @@ public class StethoscopeGUI extends JFrame implements ActionListener,
 
 	// Measurement
 	private StethCapture capture;
+	// A long recording, opened without reading it into the memory
+	private PagedSignalD pagedHeartSound;
+	// Repaints the graph while the overview of the long recording is calculated
+	private Timer overviewTimer;
 
 	// Options
 	private StethoscopeOptions opt;
@@ -215,6 +229,7 @@ public class StethoscopeGUI extends JFrame implements ActionListener,
 		rbGroup.add(rbHeartSound);
 		rbGroup.add(rbRRintervals);
 		rbGroup.add(rbBeatsPerMinute);
+		rbGroup.add(rbLfHfTrend);
 		cbOriginalPeaks.addActionListener(this);
 		// cbCurveOfPrimaryPeaks.addActionListener(this);
 		// cbCurveOfNegativePeaks.addActionListener(this);
@@ -224,6 +239,7 @@ public class StethoscopeGUI extends JFrame implements ActionListener,
 		cbOriginalRRintervals.addActionListener(this);
 		cbNormalRRintervals.addActionListener(this);
 		rbBeatsPerMinute.addActionListener(this);
+		rbLfHfTrend.addActionListener(this);
 
 		createGraphMenu();
 
@@ -247,6 +263,7 @@ public class StethoscopeGUI extends JFrame implements ActionListener,
 		mGraph.add(cbNormalRRintervals);
 		mGraph.addSeparator();
 		mGraph.add(rbBeatsPerMinute);
+		mGraph.add(rbLfHfTrend);
 	}
 
 	public void handlePletismographyRadioButtons() {
@@ -319,11 +336,14 @@ public class StethoscopeGUI extends JFrame implements ActionListener,
 		fetalGraph.reset();
 		// Draw grid
 			if (rbHeartSound.isSelected()) {
-				graph.setParamCurve(pcg.getHeartSound());
+				graph.setParamCurve(getDrawnHeartSound());
 			}
 			if (rbBeatsPerMinute.isSelected()) {
 				graph.setParamCurve(pcg.getBeatsPerMinute());
 			}
+			if (rbLfHfTrend.isSelected()) {
+				graph.setParamCurve(pcg.getLfHfTrend());
+			}
 			if (rbRRintervals.isSelected()) {
 				graph.setParamCurve(pcg.getTimeBetweenBeats());
 			}
@@ -331,7 +351,7 @@ public class StethoscopeGUI extends JFrame implements ActionListener,
 		// Draw curves
 			if (rbHeartSound.isSelected()) {
 				// System.out.println("cboriginal");
-				graph.addSignal(pcg.getHeartSound());
+				graph.addSignal(getDrawnHeartSound());
 			}
 			if (cbOriginalPeaks.isSelected()) {
 				graph.addSignal(pcg.getBeats());
@@ -339,6 +359,9 @@ public class StethoscopeGUI extends JFrame implements ActionListener,
 			if (rbBeatsPerMinute.isSelected()) {
 				graph.addSignal(pcg.getBeatsPerMinute());
 			}
+			if (rbLfHfTrend.isSelected()) {
+				graph.addSignal(pcg.getLfHfTrend());
+			}
 			if (cbOriginalRRintervals.isSelected())
 				graph.addSignal(pcg.getRRintervals());
 			if (cbNormalRRintervals.isSelected())
@@ -352,6 +375,60 @@ public class StethoscopeGUI extends JFrame implements ActionListener,
 		fetalGraph.repaint();
 	}
 
+	/*
+	 * The paged signal of a long recording, if it is opened, else the heart
+	 * sound of the phonocardiography.
+	 */
+	private YSignal<Double> getDrawnHeartSound() {
+		if (pagedHeartSound != null)
+			return pagedHeartSound;
+		return pcg.getHeartSound();
+	}
+
+	/*
+	 * Opens a long recording for displaying only, the analysis needs the
+	 * whole heart sound in the memory.
+	 */
+	private void openPagedHeartSound(File file) {
+		pagedHeartSound = capture.openPagedSignal(file);
+		if (pagedHeartSound == null)
+			return;
+		SignalD heartSound = pcg.getHeartSound();
+		pagedHeartSound.setColor(heartSound.getColor());
+		pagedHeartSound.setGraphType(heartSound.getGraphType());
+		pagedHeartSound.setTitle(heartSound.getTitle());
+		pagedHeartSound.setxAxisTitle(heartSound.getxAxisTitle());
+		pagedHeartSound.setyAxisTitle(heartSound.getyAxisTitle());
+		overviewTimer = new Timer(OVERVIEW_REPAINT_DELAY, new ActionListener() {
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if (pagedHeartSound == null || pagedHeartSound.isOverviewComplete())
+					((Timer) e.getSource()).stop();
+				graph.repaint();
+			}
+		});
+		overviewTimer.start();
+	}
+
+	/*
+	 * Closes the long recording, if it is opened.
+	 */
+	private void closePagedHeartSound() {
+		if (overviewTimer != null) {
+			overviewTimer.stop();
+			overviewTimer = null;
+		}
+		if (pagedHeartSound != null) {
+			try {
+				pagedHeartSound.close();
+			} catch (IOException e) {
+				System.err.println("Can't close the paged recording: " + e);
+			}
+			pagedHeartSound = null;
+		}
+	}
+
 	/*
 	 * Creates a new Plethysmography, puts it into the frame and fills the Graph
 	 * menu with the new items
@@ -360,10 +437,27 @@ public class StethoscopeGUI extends JFrame implements ActionListener,
 		if (fc.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
 			stopMeasurement();
 			f = fc.getSelectedFile();
+			closePagedHeartSound();
+			graph.resetView();
 			pcg = new Phonocardiography();
 			capture.setNegateSignal(true);
 			capture.setSignal(pcg.getHeartSound());
-			capture.readWavIntoSignal(f);
+			if (SessionFile.isSessionFile(f)) {
+				// A session doesn't contain the recording
+				capture.clearRecordingFile();
+				try {
+					pcg.loadSession(f);
+				} catch (IOException e) {
+					showError("Can't open the session: " + e.getMessage());
+				}
+			} else if (!StethCapture.canReadIntoSignal(f)) {
+				openPagedHeartSound(f);
+				JOptionPane.showMessageDialog(this,
+						"The recording is too long to be analysed in the available memory, it is only displayed.",
+						"Warning", JOptionPane.WARNING_MESSAGE);
+			} else {
+				capture.readWavIntoSignal(f);
+			}
 			pcg.setLoaded(true);
 			pcg.runCalculations();
 				analysisPanel.setPlet(pcg);
@@ -384,11 +478,28 @@ public class StethoscopeGUI extends JFrame implements ActionListener,
 		if (fc.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
 			stopMeasurement();
 			f = fc.getSelectedFile();
-			// pcg.savePlethysmography(f);
-			capture.writeTempToWavFile(f);
+			if (SessionFile.isSessionFile(f)) {
+				try {
+					pcg.saveSession(f);
+				} catch (IOException e) {
+					showError("Can't save the session: " + e.getMessage());
+				}
+			} else if (capture.hasRecordingFile()) {
+				try {
+					capture.writeTempToWavFile(f);
+				} catch (IOException e) {
+					showError("Can't save the recording: " + e.getMessage());
+				}
+			} else {
+				showError("The opened session doesn't contain the recording, it can only be saved as a session file.");
+			}
 		}
 	}
 
+	private void showError(String message) {
+		JOptionPane.showMessageDialog(this, message, "Error", JOptionPane.ERROR_MESSAGE);
+	}
+
 	public void fillContentPane() {
 		cp.removeAll();
 		GridBagConstraints cons = new GridBagConstraints();
@@ -428,6 +539,7 @@ public class StethoscopeGUI extends JFrame implements ActionListener,
 	 */
 	public void createCapture() {
 		capture = new StethCapture(pcg.getHeartSound());
+		capture.setOutput(pcg.getInput());
 		capture.setNegateSignal(true);
 	}
 
@@ -440,6 +552,7 @@ public class StethoscopeGUI extends JFrame implements ActionListener,
 	public void createCapture(int sampleRate) {
 		capture = new StethCapture(pcg.getHeartSound(),
 				sampleRate);
+		capture.setOutput(pcg.getInput());
 		capture.setNegateSignal(true);
 	}
 
@@ -447,11 +560,14 @@ public class StethoscopeGUI extends JFrame implements ActionListener,
 	 * Start the measurement.
 	 */
 	public void startMeasurement() {
+		closePagedHeartSound();
+		graph.resetView();
 		pcg.reset();
 		refreshOptions();
 		if (pcg.isLoaded()) {
 			pcg.setLoaded(false);
 			capture.setSignal(pcg.getHeartSound());
+			capture.setOutput(pcg.getInput());
 			capture.setNegateSignal(false);
 			paintGraph();
 		}
@@ -540,7 +656,8 @@ public class StethoscopeGUI extends JFrame implements ActionListener,
 
 		if (e.getSource() == miOpen || e.getSource() == rbHeartSound
 				|| e.getSource() == rbRRintervals
-				|| e.getSource() == rbBeatsPerMinute) {
+				|| e.getSource() == rbBeatsPerMinute
+				|| e.getSource() == rbLfHfTrend) {
 			handlePletismographyRadioButtons();
 		}
 
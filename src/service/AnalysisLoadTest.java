@@ -0,0 +1,152 @@
+package service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends a WAV file to an AnalysisServer from several threads, and measures
+ * the throughput and the latencies of the successful requests.
+ *
+ * <pre>
+ * java service.AnalysisLoadTest url file concurrency requests
+ * java service.AnalysisLoadTest http://127.0.0.1:8080/analyze data/a.wav 16 1000
+ * </pre>
+ *
+ * @author Nagy Tamas
+ *
+ */
+public class AnalysisLoadTest {
+
+	private final URL url;
+	private final byte[] body;
+	private final int concurrency;
+	private final int requests;
+	// In ns, of the successful requests
+	private final long[] latencies;
+	private final AtomicInteger next = new AtomicInteger();
+	private final AtomicInteger succeeded = new AtomicInteger();
+	private final AtomicInteger rejected = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param url
+	 * @param body
+	 *            the uploaded WAV file.
+	 * @param concurrency
+	 *            the number of threads sending requests.
+	 * @param requests
+	 *            the number of requests.
+	 */
+	public AnalysisLoadTest(URL url, byte[] body, int concurrency, int requests) {
+		this.url = url;
+		this.body = body;
+		this.concurrency = concurrency;
+		this.requests = requests;
+		this.latencies = new long[requests];
+	}
+
+	/**
+	 * Sends the requests, and prints the results.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void run() throws InterruptedException {
+		final CountDownLatch finished = new CountDownLatch(concurrency);
+		long start = System.nanoTime();
+		for (int t = 0; t < concurrency; t++) {
+			Thread thread = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					int i;
+					while ((i = next.getAndIncrement()) < requests)
+						send();
+					finished.countDown();
+				}
+			}, "Load-" + t);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		finished.await();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		int n = succeeded.get();
+		long[] sorted = Arrays.copyOf(latencies, n);
+		Arrays.sort(sorted);
+		System.out.printf(Locale.US, "requests: %d ok, %d rejected (503), %d failed in %.2f s%n", n,
+				rejected.get(), failed.get(), seconds);
+		System.out.printf(Locale.US, "throughput: %.1f requests/s%n", n / seconds);
+		if (n > 0) {
+			System.out.printf(Locale.US, "latency ms: p50 %.1f, p90 %.1f, p99 %.1f, max %.1f%n",
+					percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99),
+					sorted[n - 1] / 1e6);
+		}
+	}
+
+	/**
+	 * Sends one request, and records its result.
+	 */
+	private void send() {
+		long start = System.nanoTime();
+		HttpURLConnection connection = null;
+		try {
+			connection = (HttpURLConnection) url.openConnection();
+			connection.setRequestMethod("POST");
+			connection.setDoOutput(true);
+			connection.setFixedLengthStreamingMode(body.length);
+			connection.setRequestProperty("Content-Type", "audio/wav");
+			try (OutputStream out = connection.getOutputStream()) {
+				out.write(body);
+			}
+			int status = connection.getResponseCode();
+			InputStream in = (status < 400) ? connection.getInputStream() : connection.getErrorStream();
+			if (in != null) {
+				try {
+					byte[] buffer = new byte[8192];
+					while (in.read(buffer) >= 0) {
+					}
+				} finally {
+					in.close();
+				}
+			}
+			if (status == 200) {
+				latencies[succeeded.getAndIncrement()] = System.nanoTime() - start;
+			} else if (status == 503) {
+				rejected.incrementAndGet();
+			} else {
+				failed.incrementAndGet();
+			}
+		} catch (IOException e) {
+			// A rejected upload may be cut off before the response is read
+			failed.incrementAndGet();
+		} finally {
+			if (connection != null)
+				connection.disconnect();
+		}
+	}
+
+	private static double percentile(long[] sorted, double p) {
+		int index = (int) Math.ceil(p * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 4) {
+			System.err.println("Usage: java service.AnalysisLoadTest url file concurrency requests");
+			System.exit(2);
+		}
+		byte[] body = Files.readAllBytes(new File(args[1]).toPath());
+		new AnalysisLoadTest(new URL(args[0]), body, Integer.parseInt(args[2]), Integer.parseInt(args[3])).run();
+	}
+
+}
@@ -0,0 +1,344 @@
+package service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import signal.SignalSnapshot;
+import soundcard.StethCapture;
+import calculation.NonSpectralIndicators;
+import calculation.Phonocardiography;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An embedded HTTP server analyzing uploaded WAV recordings.
+ *
+ * <pre>
+ * POST /analyze   body: a PCM WAV file
+ *                 response: the beats, the RR intervals and the indicators as JSON
+ * GET  /health
+ * </pre>
+ *
+ * The upload is decoded while it is received, it is never stored whole. The
+ * analyses run on a fixed number of threads, with a limited number of
+ * requests waiting for them. The requests above the limit are answered with
+ * 503 at once, by the thread accepting the connections. Uploads longer than
+ * MAX_UPLOAD_SIZE bytes or MAX_DURATION seconds are refused with 413, invalid
+ * recordings with 400.
+ *
+ * @author Nagy Tamas
+ *
+ */
+public class AnalysisServer {
+
+	public static final int DEFAULT_PORT = 8080;
+	public static final int DEFAULT_QUEUE_DEPTH = 64;
+	// In s
+	public static final int RETRY_AFTER = 1;
+	// In bytes, about 50 minutes of 16 bit mono at 44.1 kHz
+	public static final long MAX_UPLOAD_SIZE = 256L << 20;
+	// In s
+	public static final double MAX_DURATION = 3600.0;
+
+	private final HttpServer server;
+	private final ThreadPoolExecutor executor;
+	// A permit for every running and waiting analysis
+	private final Semaphore admission;
+
+	/**
+	 * Constructor, listening on the loopback interface.
+	 *
+	 * @param port
+	 * @param threads
+	 *            the number of analyses running at the same time.
+	 * @param queueDepth
+	 *            the max number of analyses waiting for a thread.
+	 * @throws IOException
+	 */
+	public AnalysisServer(int port, int threads, int queueDepth) throws IOException {
+		this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), threads, queueDepth);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param address
+	 * @param threads
+	 *            the number of analyses running at the same time.
+	 * @param queueDepth
+	 *            the max number of analyses waiting for a thread.
+	 * @throws IOException
+	 */
+	public AnalysisServer(InetSocketAddress address, int threads, int queueDepth) throws IOException {
+		executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(queueDepth));
+		admission = new Semaphore(threads + queueDepth);
+		server = HttpServer.create(address, 0);
+		server.createContext("/analyze", new AnalyzeHandler());
+		server.createContext("/health", new HttpHandler() {
+
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				send(exchange, 200, "{\"status\":\"ok\",\"running\":" + executor.getActiveCount() + ",\"waiting\":"
+						+ executor.getQueue().size() + "}");
+			}
+		});
+		// The handlers are called by the thread of the server, the analyses are passed to the executor
+		server.setExecutor(null);
+	}
+
+	/**
+	 * Starts accepting the requests.
+	 */
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Stops the server, waiting at most delay seconds for the running
+	 * requests.
+	 *
+	 * @param delay
+	 */
+	public void stop(int delay) {
+		server.stop(delay);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @return the address the server listens on.
+	 */
+	public InetSocketAddress getAddress() {
+		return server.getAddress();
+	}
+
+	/**
+	 * Admits the request if there is room for it, and passes it to the
+	 * executor.
+	 */
+	private class AnalyzeHandler implements HttpHandler {
+
+		@Override
+		public void handle(final HttpExchange exchange) throws IOException {
+			if (!exchange.getRequestMethod().equals("POST")) {
+				exchange.getResponseHeaders().set("Allow", "POST");
+				send(exchange, 405, error("Use POST with a WAV body."));
+				return;
+			}
+			if (!admission.tryAcquire()) {
+				exchange.getResponseHeaders().set("Retry-After", Integer.toString(RETRY_AFTER));
+				send(exchange, 503, error("Too many requests."));
+				return;
+			}
+			try {
+				executor.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						try {
+							analyze(exchange);
+						} catch (IOException e) {
+							// The client has gone, the exchange is closed by analyze()
+						} finally {
+							admission.release();
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// The server is being stopped
+				admission.release();
+				send(exchange, 503, error("The server is stopping."));
+			}
+		}
+	}
+
+	/**
+	 * Decodes the uploaded recording and analyzes it. The exchange is always
+	 * answered and closed.
+	 */
+	private static void analyze(HttpExchange exchange) throws IOException {
+		try {
+			String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+			if (contentLength != null && Long.parseLong(contentLength.trim()) > MAX_UPLOAD_SIZE) {
+				send(exchange, 413, error("The upload is longer than " + MAX_UPLOAD_SIZE + " bytes."));
+				return;
+			}
+			Phonocardiography pcg = new Phonocardiography();
+			StethCapture capture = new StethCapture(pcg.getHeartSound());
+			capture.setNegateSignal(true);
+			try {
+				capture.readWavStreamIntoSignal(new LimitedInputStream(exchange.getRequestBody(), MAX_UPLOAD_SIZE));
+			} catch (UploadTooLargeException e) {
+				send(exchange, 413, error(e.getMessage()));
+				return;
+			} catch (UnsupportedAudioFileException | RuntimeException e) {
+				// The decoder refuses an invalid format with IllegalArgumentException
+				send(exchange, 400, error(e.getMessage()));
+				return;
+			}
+			if (pcg.getHeartSound().getLength() > MAX_DURATION) {
+				send(exchange, 413, error("The recording is longer than " + MAX_DURATION + " s."));
+				return;
+			}
+			pcg.setLoaded(true);
+			String json;
+			try {
+				pcg.runCalculations();
+				json = toJson(pcg);
+			} catch (RuntimeException e) {
+				System.err.println("The analysis of an upload has failed: " + e);
+				send(exchange, 500, error(e.toString()));
+				return;
+			}
+			send(exchange, 200, json);
+		} catch (NumberFormatException e) {
+			send(exchange, 400, error("Invalid Content-Length."));
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Thrown by LimitedInputStream when the upload is too long.
+	 */
+	private static class UploadTooLargeException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		UploadTooLargeException(long limit) {
+			super("The upload is longer than " + limit + " bytes.");
+		}
+	}
+
+	/**
+	 * Reads at most limit bytes, and throws UploadTooLargeException if there
+	 * are more.
+	 */
+	private static class LimitedInputStream extends FilterInputStream {
+
+		private long remaining;
+		private final long limit;
+
+		LimitedInputStream(InputStream in, long limit) {
+			super(in);
+			this.limit = limit;
+			remaining = limit;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0)
+				count(1);
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0)
+				count(n);
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count(skipped);
+			return skipped;
+		}
+
+		private void count(long n) throws UploadTooLargeException {
+			remaining -= n;
+			if (remaining < 0)
+				throw new UploadTooLargeException(limit);
+		}
+	}
+
+	/**
+	 * @param pcg
+	 * @return the results of the analysis as a JSON object.
+	 */
+	public static String toJson(Phonocardiography pcg) {
+		NonSpectralIndicators indicators = pcg.getNonSpectralIndicators();
+		StringBuilder json = new StringBuilder();
+		json.append("{\"length\":").append(number(pcg.getHeartSound().getLength()));
+		json.append(",\"dt\":").append(number(pcg.getHeartSound().getDt()));
+		json.append(",\"pulse\":").append(number(indicators.getPulse()));
+		json.append(",\"meanRR\":").append(indicators.getMeanRR());
+		json.append(",\"sdRR\":").append(indicators.getsdRR());
+		json.append(",\"rMSSD\":").append(indicators.getrMSSD());
+		json.append(",\"pNN50\":").append(number(indicators.getpNN50()));
+		json.append(",\"beats\":");
+		appendXs(json, pcg.getBeats().snapshot());
+		json.append(",\"rrIntervals\":");
+		appendPoints(json, pcg.getRRintervals().snapshot());
+		json.append(",\"normalRRIntervals\":");
+		appendPoints(json, pcg.getNormalRRintervals().snapshot());
+		return json.append('}').toString();
+	}
+
+	private static void appendXs(StringBuilder json, SignalSnapshot signal) {
+		json.append('[');
+		for (int i = 0; i < signal.size(); i++) {
+			if (i > 0)
+				json.append(',');
+			json.append(number(signal.getX(i)));
+		}
+		json.append(']');
+	}
+
+	private static void appendPoints(StringBuilder json, SignalSnapshot signal) {
+		json.append('[');
+		for (int i = 0; i < signal.size(); i++) {
+			if (i > 0)
+				json.append(',');
+			json.append('[').append(number(signal.getX(i))).append(',').append(number(signal.getY(i))).append(']');
+		}
+		json.append(']');
+	}
+
+	private static String number(double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value))
+			return "null";
+		return Double.toString(value);
+	}
+
+	private static String error(String message) {
+		String escaped = (message == null) ? "" : message.replace("\\", "\\\\").replace("\"", "\\\"");
+		return "{\"error\":\"" + escaped + "\"}";
+	}
+
+	private static void send(HttpExchange exchange, int status, String json) throws IOException {
+		byte[] body = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		int threads = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int queueDepth = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_QUEUE_DEPTH;
+		AnalysisServer server = new AnalysisServer(port, threads, queueDepth);
+		server.start();
+		System.err.println("Listening on " + server.getAddress());
+	}
+
+}
@@ -0,0 +1,205 @@
+package service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import signal.SampleSource;
+import soundcard.StethCapture;
+import soundcard.WavReader;
+
+/**
+ * Runs the analysis of many recordings (replays of files, or ingests fed by
+ * other threads) on a few shared threads. A recording doesn't have threads of
+ * its own like in the GUI (capture, pcg, graph, analysis panel): each session
+ * is a periodic task, so the number of threads doesn't depend on the number
+ * of sessions.
+ *
+ * The CPU heavy calculations and the decoding of the files are bounded by
+ * semaphores. A session that gets no permit skips the step, and catches up at
+ * its next tick, so the threads are never blocked waiting for a permit.
+ *
+ * @author Nagy Tamas
+ *
+ */
+public class AnalysisService {
+
+	// In ms
+	public static final int DEFAULT_TICK_PERIOD = 50;
+	public static final int DEFAULT_DECODE_PERMITS = 4;
+
+	private final ScheduledExecutorService executor;
+	private final Semaphore calculationPermits;
+	private final Semaphore decodePermits;
+	private final int tickPeriod;
+	private final List<AnalysisSession> sessions = new ArrayList<>();
+	private boolean shutdown;
+
+	/**
+	 * Constructor, with a thread and a calculation permit per core.
+	 */
+	public AnalysisService() {
+		this(Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors(),
+				DEFAULT_DECODE_PERMITS, DEFAULT_TICK_PERIOD);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param threads
+	 *            the number of threads running the sessions.
+	 * @param calculationPermits
+	 *            the max number of sessions calculating at the same time.
+	 * @param decodePermits
+	 *            the max number of sessions reading their files at the same
+	 *            time.
+	 * @param tickPeriod
+	 *            the period of the steps of a session in ms.
+	 */
+	public AnalysisService(int threads, int calculationPermits, int decodePermits, int tickPeriod) {
+		final AtomicInteger count = new AtomicInteger();
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(threads, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Analysis-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		// Cancelled sessions don't stay in the queue until their next tick
+		executor.setRemoveOnCancelPolicy(true);
+		this.executor = executor;
+		this.calculationPermits = new Semaphore(calculationPermits);
+		this.decodePermits = new Semaphore(decodePermits);
+		this.tickPeriod = tickPeriod;
+	}
+
+	/**
+	 * Starts the analysis of samples offered by a producer to the input of the
+	 * session.
+	 *
+	 * @param name
+	 * @param dt
+	 *            the sampling time of the samples.
+	 * @return the session.
+	 */
+	public AnalysisSession ingest(String name, double dt) {
+		AnalysisSession session = new AnalysisSession(name, this, null, dt, 1.0);
+		start(session);
+		return session;
+	}
+
+	/**
+	 * Starts the analysis of a replayed source.
+	 *
+	 * @param name
+	 * @param source
+	 *            closed when the session ends.
+	 * @param speed
+	 *            the speed of the replay relative to real time.
+	 * @return the session.
+	 */
+	public AnalysisSession replay(String name, SampleSource source, double speed) {
+		AnalysisSession session = new AnalysisSession(name, this, source, source.getSamplingTime(), speed);
+		start(session);
+		return session;
+	}
+
+	/**
+	 * Starts the analysis of a replayed WAV file, decimated like the
+	 * recordings of the stethoscope.
+	 *
+	 * @param file
+	 * @param speed
+	 *            the speed of the replay relative to real time.
+	 * @return the session.
+	 * @throws IOException
+	 * @throws UnsupportedAudioFileException
+	 */
+	public AnalysisSession replay(File file, double speed) throws IOException, UnsupportedAudioFileException {
+		WavReader reader = new WavReader(file);
+		try {
+			return replay(file.getName(), reader.averagedSource(StethCapture.AVERAGE_N, true), speed);
+		} catch (IllegalStateException e) {
+			reader.close();
+			throw e;
+		}
+	}
+
+	private void start(final AnalysisSession session) {
+		synchronized (sessions) {
+			if (shutdown)
+				throw new IllegalStateException("AnalysisService is shut down.");
+			sessions.add(session);
+			session.setFuture(executor.scheduleWithFixedDelay(new Runnable() {
+
+				@Override
+				public void run() {
+					session.tick();
+				}
+			}, 0, tickPeriod, TimeUnit.MILLISECONDS));
+		}
+	}
+
+	/**
+	 * Called by a session when it is finished.
+	 */
+	void remove(AnalysisSession session) {
+		synchronized (sessions) {
+			sessions.remove(session);
+		}
+	}
+
+	/**
+	 * @return the running sessions.
+	 */
+	public List<AnalysisSession> getSessions() {
+		synchronized (sessions) {
+			return new ArrayList<>(sessions);
+		}
+	}
+
+	/**
+	 * Cancels the running sessions, waiting for their running ticks, and
+	 * stops the threads. No session can be started after it.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void shutdown() throws InterruptedException {
+		List<AnalysisSession> running;
+		synchronized (sessions) {
+			shutdown = true;
+			running = new ArrayList<>(sessions);
+		}
+		for (AnalysisSession session : running)
+			session.cancel();
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+	}
+
+	Semaphore getCalculationPermits() {
+		return calculationPermits;
+	}
+
+	Semaphore getDecodePermits() {
+		return decodePermits;
+	}
+
+	/**
+	 * @return the period of the steps of a session in ms.
+	 */
+	int getTickPeriod() {
+		return tickPeriod;
+	}
+
+}
@@ -0,0 +1,269 @@
+package service;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import signal.DoubleRingBuffer;
+import signal.SampleSource;
+import calculation.Phonocardiography;
+
+/**
+ * The analysis of one recording, run by an AnalysisService. It has no thread
+ * of its own: the service calls tick() periodically on its shared threads.
+ * The samples either come from a replayed SampleSource, or are offered to
+ * getInput() by one producer (an ingest).
+ *
+ * Cancelling the session cancels its periodic task and closes its source. A
+ * tick already running is finished first, so the Phonocardiography is never
+ * left in the middle of a calculation, and after cancel() returns nothing
+ * runs on behalf of the session.
+ *
+ * @author Nagy Tamas
+ *
+ */
+public class AnalysisSession {
+
+	// The max number of samples replayed in a tick
+	public static final int MAX_REPLAY_BLOCK = 1 << 12;
+	// The input holds the samples of this many ticks, so a few skipped ticks
+	// don't make it overrun
+	public static final int INPUT_TICKS = 20;
+	public static final int MIN_INPUT_CAPACITY = 1 << 10;
+
+	private final String name;
+	private final Phonocardiography pcg;
+	private final AnalysisService service;
+	// null, if the samples are offered to the input
+	private final SampleSource source;
+	private final double speed;
+	private long replayed;
+	private long replayStart;
+	private double[] block;
+
+	private volatile ScheduledFuture<?> future;
+	private final CountDownLatch done = new CountDownLatch(1);
+	private volatile boolean cancelled;
+	private volatile boolean finished;
+	private volatile Throwable failure;
+	// Only set after the input was closed by the producer
+	private volatile boolean inputClosed;
+	private volatile long skippedTicks;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param name
+	 * @param service
+	 * @param source
+	 *            the replayed samples, or null for an ingest.
+	 * @param dt
+	 *            the sampling time of the samples.
+	 * @param speed
+	 *            the speed of the replay relative to real time.
+	 */
+	AnalysisSession(String name, AnalysisService service, SampleSource source, double dt, double speed) {
+		this.name = name;
+		this.service = service;
+		this.source = source;
+		this.speed = speed;
+		this.pcg = new Phonocardiography(getInputCapacity(dt, service.getTickPeriod(), speed));
+		pcg.getHeartSound().setDt(dt);
+		if (source != null)
+			block = new double[MAX_REPLAY_BLOCK];
+	}
+
+	/**
+	 * @param dt
+	 *            the sampling time of the samples in s.
+	 * @param tickPeriod
+	 *            in ms.
+	 * @param speed
+	 * @return the number of samples arriving in INPUT_TICKS ticks, at least
+	 *         MIN_INPUT_CAPACITY.
+	 */
+	static int getInputCapacity(double dt, int tickPeriod, double speed) {
+		double samples = INPUT_TICKS * tickPeriod / 1000.0 * speed / dt;
+		return (int) Math.max(MIN_INPUT_CAPACITY, Math.min(DoubleRingBuffer.DEFAULT_CAPACITY, samples));
+	}
+
+	void setFuture(ScheduledFuture<?> future) {
+		this.future = future;
+		// The first tick may have finished the session already
+		if (finished)
+			future.cancel(false);
+	}
+
+	/**
+	 * Runs one step of the session: replays the samples due by now, then
+	 * analyzes the new samples. The steps needing a permit of the service are
+	 * skipped if there is none, the next tick catches up.
+	 */
+	synchronized void tick() {
+		if (cancelled || finished)
+			return;
+		try {
+			boolean sourceFinished = false;
+			if (source != null) {
+				if (!service.getDecodePermits().tryAcquire()) {
+					skippedTicks++;
+				} else {
+					try {
+						sourceFinished = replay();
+					} finally {
+						service.getDecodePermits().release();
+					}
+				}
+			}
+			if (pcg.getInput().size() > 0 || sourceFinished || inputClosed) {
+				if (!service.getCalculationPermits().tryAcquire()) {
+					skippedTicks++;
+					return;
+				}
+				try {
+					pcg.refresh();
+				} finally {
+					service.getCalculationPermits().release();
+				}
+				if ((sourceFinished || inputClosed) && pcg.getInput().size() == 0)
+					finish(null);
+			}
+		} catch (RuntimeException | IOException e) {
+			finish(e);
+		}
+	}
+
+	/**
+	 * Offers the samples of the source due by now to the input.
+	 *
+	 * @return true, if the whole source is replayed.
+	 */
+	private boolean replay() throws IOException {
+		long now = System.nanoTime();
+		if (replayed == 0 && replayStart == 0)
+			replayStart = now;
+		double elapsed = (now - replayStart) / 1e9 * speed;
+		long due = Math.min(source.getSampleCount(), (long) (elapsed / source.getSamplingTime()));
+		DoubleRingBuffer input = pcg.getInput();
+		while (replayed < due) {
+			int free = input.getCapacity() - input.size();
+			int count = (int) Math.min(Math.min(due - replayed, block.length), free);
+			if (count <= 0)
+				break;
+			source.read(replayed, count, block);
+			input.offer(block, 0, count);
+			replayed += count;
+		}
+		return replayed == source.getSampleCount();
+	}
+
+	/**
+	 * Ends the session, the periodic task isn't run again.
+	 */
+	private synchronized void finish(Throwable failure) {
+		if (finished)
+			return;
+		this.failure = failure;
+		finished = true;
+		ScheduledFuture<?> future = this.future;
+		if (future != null)
+			future.cancel(false);
+		closeSource();
+		service.remove(this);
+		done.countDown();
+	}
+
+	private void closeSource() {
+		if (source == null)
+			return;
+		try {
+			source.close();
+		} catch (IOException e) {
+			System.err.println("Session " + name + ": can't close the source: " + e);
+		}
+	}
+
+	/**
+	 * Cancels the session. Waits for the tick running at the moment.
+	 */
+	public void cancel() {
+		cancelled = true;
+		ScheduledFuture<?> future = this.future;
+		if (future != null)
+			future.cancel(false);
+		finish(null);
+	}
+
+	/**
+	 * Tells an ingest session that no more samples will be offered to the
+	 * input. The session finishes after analyzing the remaining samples.
+	 */
+	public void closeInput() {
+		inputClosed = true;
+	}
+
+	/**
+	 * Waits until the session is finished or cancelled.
+	 *
+	 * @param timeout
+	 * @param unit
+	 * @return false, if the time elapsed.
+	 * @throws InterruptedException
+	 */
+	public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+		return done.await(timeout, unit);
+	}
+
+	/**
+	 * @return the input of an ingest session. Only one thread may offer
+	 *         samples to it.
+	 */
+	public DoubleRingBuffer getInput() {
+		return pcg.getInput();
+	}
+
+	/**
+	 * @return the analysis. Its signals can be read under their locks, or
+	 *         through snapshots.
+	 */
+	public Phonocardiography getPhonocardiography() {
+		return pcg;
+	}
+
+	/**
+	 * @return the name of the session.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return true, if the session is finished or cancelled.
+	 */
+	public boolean isDone() {
+		return finished;
+	}
+
+	/**
+	 * @return true, if the session was cancelled.
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @return the exception that ended the session, or null.
+	 */
+	public Throwable getFailure() {
+		return failure;
+	}
+
+	/**
+	 * @return the number of steps skipped for lack of permits.
+	 */
+	public long getSkippedTicks() {
+		return skippedTicks;
+	}
+
+}
@@ -0,0 +1,350 @@
+package service;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Locale;
+
+import signal.PcmDecoder;
+import soundcard.StethCapture;
+
+/**
+ * Receives live PCM streams of many stethoscopes over TCP on one thread, and
+ * analyzes every stream in its own session of an AnalysisService.
+ *
+ * A stream starts with a header, followed by frames (big-endian):
+ *
+ * <pre>
+ * int "PCGI"  int sampleRate  short bitsPerSample  short channels
+ * byte flags (1: signed, 2: big-endian)  byte channel  short reserved  int streamId
+ *
+ * int length  byte[length] PCM data    (repeated, length 0 ends the stream)
+ * </pre>
+ *
+ * The analyzed channel of every stream is decimated to about 1 kHz like the
+ * recordings of StethCapture. The data is read into direct buffers and
+ * decoded from them, without copying it into arrays.
+ *
+ * @author Nagy Tamas
+ *
+ */
+public class IngestServer implements Runnable {
+
+	public static final int MAGIC = ('P' << 24) | ('C' << 16) | ('G' << 8) | 'I';
+	public static final int HEADER_SIZE = 20;
+	public static final int FLAG_SIGNED = 1;
+	public static final int FLAG_BIG_ENDIAN = 2;
+	public static final int DEFAULT_PORT = 9090;
+	public static final int READ_BUFFER_SIZE = 1 << 16;
+	public static final int MAX_FRAME_LENGTH = 1 << 20;
+
+	private final AnalysisService service;
+	private final Selector selector;
+	private final ServerSocketChannel server;
+	private volatile boolean running;
+
+	// Statistics, only written by the thread of the server
+	private volatile int streams;
+	private volatile long receivedBytes;
+	private volatile long decodedSamples;
+	private volatile long droppedSamples;
+	private volatile long threadId = -1;
+
+	/**
+	 * Constructor, binds the address.
+	 *
+	 * @param address
+	 * @param service
+	 *            runs the analysis of the streams.
+	 * @throws IOException
+	 */
+	public IngestServer(InetSocketAddress address, AnalysisService service) throws IOException {
+		this.service = service;
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.configureBlocking(false);
+		server.bind(address);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+	}
+
+	/**
+	 * The state of a connection.
+	 */
+	private static class Stream {
+
+		final SocketChannel channel;
+		final ByteBuffer in = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+		// The PCM data of the frames, without the lengths
+		ByteBuffer pcm;
+		PcmDecoder decoder;
+		// The byte offset of the analyzed channel in a frame
+		int channelOffset;
+		// The number of frames averaged into one sample
+		int n;
+		double[] averages;
+		AnalysisSession session;
+		// The bytes of the current frame not read yet
+		int payloadRemaining;
+
+		Stream(SocketChannel channel) {
+			this.channel = channel;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		threadId = Thread.currentThread().getId();
+		running = true;
+		while (running) {
+			try {
+				selector.select();
+			} catch (IOException e) {
+				// The selector is unusable, the streams are closed below
+				System.err.println("The ingest server has stopped, select failed: " + e);
+				running = false;
+				break;
+			}
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				if (!key.isValid())
+					continue;
+				if (key.isAcceptable()) {
+					accept();
+				} else if (key.isReadable()) {
+					Stream stream = (Stream) key.attachment();
+					try {
+						if (!read(stream))
+							close(key, stream);
+					} catch (IOException | RuntimeException e) {
+						System.err.println("Stream " + stream.channel + " closed: " + e);
+						close(key, stream);
+					}
+				}
+			}
+		}
+		for (SelectionKey key : selector.keys()) {
+			if (key.attachment() instanceof Stream)
+				close(key, (Stream) key.attachment());
+		}
+		try {
+			server.close();
+			selector.close();
+		} catch (IOException e) {
+			System.err.println("Can't close the ingest server: " + e);
+		}
+	}
+
+	private void accept() {
+		try {
+			SocketChannel channel = server.accept();
+			if (channel == null)
+				return;
+			channel.configureBlocking(false);
+			channel.register(selector, SelectionKey.OP_READ, new Stream(channel));
+			streams++;
+		} catch (IOException e) {
+			// Only this connection is lost, the server keeps running
+			System.err.println("Can't accept a stream: " + e);
+		}
+	}
+
+	/**
+	 * Reads the available data of a stream, and decodes the complete groups
+	 * of frames.
+	 *
+	 * @return false, if the stream is finished.
+	 */
+	private boolean read(Stream stream) throws IOException {
+		int count = stream.channel.read(stream.in);
+		if (count < 0)
+			return false;
+		receivedBytes += count;
+		ByteBuffer in = stream.in;
+		in.flip();
+		try {
+			while (true) {
+				if (stream.decoder == null) {
+					if (in.remaining() < HEADER_SIZE)
+						break;
+					readHeader(stream);
+				} else if (stream.payloadRemaining == 0) {
+					if (in.remaining() < 4)
+						break;
+					int length = in.getInt();
+					if (length == 0)
+						return false;
+					if (length < 0 || length > MAX_FRAME_LENGTH)
+						throw new IOException("Invalid frame length: " + length);
+					stream.payloadRemaining = length;
+				} else {
+					int n = Math.min(Math.min(in.remaining(), stream.payloadRemaining), stream.pcm.remaining());
+					if (n == 0)
+						break;
+					ByteBuffer payload = in.duplicate();
+					payload.limit(in.position() + n);
+					stream.pcm.put(payload);
+					in.position(in.position() + n);
+					stream.payloadRemaining -= n;
+					decode(stream);
+				}
+			}
+		} finally {
+			in.compact();
+		}
+		return true;
+	}
+
+	private void readHeader(Stream stream) throws IOException {
+		ByteBuffer in = stream.in;
+		if (in.getInt() != MAGIC)
+			throw new IOException("Not a PCGI stream.");
+		int sampleRate = in.getInt();
+		int bits = in.getShort();
+		int channels = in.getShort();
+		int flags = in.get();
+		int channel = in.get();
+		in.getShort();
+		int streamId = in.getInt();
+		if (sampleRate <= 0 || channels <= 0 || channel < 0 || channel >= channels)
+			throw new IOException("Invalid header.");
+		try {
+			stream.decoder = new PcmDecoder(bits, channels, (flags & FLAG_SIGNED) != 0, (flags & FLAG_BIG_ENDIAN) != 0);
+		} catch (IllegalArgumentException e) {
+			throw new IOException(e.getMessage());
+		}
+		stream.channelOffset = channel * stream.decoder.getBytesPerSample();
+		stream.n = Math.max(1, (int) Math.round(sampleRate * StethCapture.AVERAGE_N
+				/ (double) StethCapture.DEFAULT_SAMLING_RATE));
+		int groupSize = stream.n * stream.decoder.getFrameSize();
+		stream.pcm = ByteBuffer.allocateDirect(Math.max(2, READ_BUFFER_SIZE / groupSize) * groupSize);
+		stream.averages = new double[stream.pcm.capacity() / groupSize];
+		stream.session = service.ingest("stream " + streamId + " " + stream.channel.getRemoteAddress(), stream.n
+				/ (double) sampleRate);
+	}
+
+	/**
+	 * Decodes the complete groups of frames into the input of the session.
+	 */
+	private void decode(Stream stream) {
+		ByteBuffer pcm = stream.pcm;
+		int groupSize = stream.n * stream.decoder.getFrameSize();
+		int groups = pcm.position() / groupSize;
+		if (groups == 0)
+			return;
+		pcm.flip();
+		int count = stream.decoder.decodeAverage(pcm, stream.channelOffset, groups * stream.n, stream.n,
+				stream.averages, 0);
+		// The stethoscope records negated samples, like when opening a file
+		for (int i = 0; i < count; i++)
+			stream.averages[i] = -stream.averages[i];
+		int written = stream.session.getInput().offer(stream.averages, 0, count);
+		decodedSamples += count;
+		droppedSamples += count - written;
+		pcm.position(groups * groupSize);
+		pcm.compact();
+	}
+
+	private void close(SelectionKey key, Stream stream) {
+		key.cancel();
+		try {
+			stream.channel.close();
+		} catch (IOException e) {
+			System.err.println("Can't close stream " + stream.channel + ": " + e);
+		}
+		if (stream.session != null)
+			stream.session.closeInput();
+		streams--;
+	}
+
+	/**
+	 * Stops the server, the sessions finish analyzing their data.
+	 */
+	public void stop() {
+		running = false;
+		selector.wakeup();
+	}
+
+	/**
+	 * @return the address the server listens on.
+	 */
+	public InetSocketAddress getAddress() throws IOException {
+		return (InetSocketAddress) server.getLocalAddress();
+	}
+
+	/**
+	 * @return the number of connected streams.
+	 */
+	public int getStreamCount() {
+		return streams;
+	}
+
+	/**
+	 * @return the number of bytes received.
+	 */
+	public long getReceivedBytes() {
+		return receivedBytes;
+	}
+
+	/**
+	 * @return the number of decimated samples.
+	 */
+	public long getDecodedSamples() {
+		return decodedSamples;
+	}
+
+	/**
+	 * @return the number of samples dropped, because the analysis of their
+	 *         stream fell behind.
+	 */
+	public long getDroppedSamples() {
+		return droppedSamples;
+	}
+
+	/**
+	 * @return the CPU time used by the thread of the server in ns, -1 if it
+	 *         isn't known.
+	 */
+	public long getCpuTime() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threadId < 0 || !threads.isThreadCpuTimeSupported())
+			return -1;
+		return threads.getThreadCpuTime(threadId);
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int port = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		IngestServer server = new IngestServer(new InetSocketAddress(port), new AnalysisService());
+		Thread thread = new Thread(server, "Ingest");
+		thread.start();
+		System.err.println("Listening on " + server.getAddress());
+		long lastBytes = 0;
+		long lastCpu = 0;
+		long lastTime = System.nanoTime();
+		while (thread.isAlive()) {
+			Thread.sleep(5000);
+			long time = System.nanoTime();
+			long bytes = server.getReceivedBytes();
+			long cpu = server.getCpuTime();
+			double seconds = (time - lastTime) / 1e9;
+			System.err.printf(Locale.US, "%d streams, %.2f MB/s, %d samples, %d dropped, ingest thread %.1f%% CPU%n",
+					server.getStreamCount(), (bytes - lastBytes) / seconds / 1e6, server.getDecodedSamples(),
+					server.getDroppedSamples(), (cpu - lastCpu) / (seconds * 1e7));
+			lastBytes = bytes;
+			lastCpu = cpu;
+			lastTime = time;
+		}
+	}
+
+}
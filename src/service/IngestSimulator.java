@@ -0,0 +1,227 @@
+package service;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import soundcard.WavReader;
+
+/**
+ * Simulates many stethoscopes streaming to an IngestServer: replays WAV files
+ * as concurrent streams over loopback connections, in frames of FRAME_DURATION
+ * ms. The PCM data of the files is mapped, and written from the mapped
+ * buffers to the sockets.
+ *
+ * <pre>
+ * java service.IngestSimulator host port streams seconds speed file...
+ * java service.IngestSimulator 127.0.0.1 9090 200 60 1 data/a.wav data/b.wav
+ * </pre>
+ *
+ * A file shorter than the simulated time is replayed again from its start.
+ *
+ * @author Nagy Tamas
+ *
+ */
+public class IngestSimulator {
+
+	// In ms
+	public static final int FRAME_DURATION = 20;
+
+	/**
+	 * The PCM data of a replayed file.
+	 */
+	private static class Recording {
+
+		final MappedByteBuffer data;
+		final AudioFormat format;
+
+		Recording(File file) throws IOException, UnsupportedAudioFileException {
+			try (WavReader reader = new WavReader(file)) {
+				format = reader.getFormat();
+				long length = reader.getFrameLength() * format.getFrameSize();
+				if (length > Integer.MAX_VALUE)
+					throw new IOException("The file is too long to be replayed: " + file);
+				try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+					data = channel.map(FileChannel.MapMode.READ_ONLY, reader.getDataOffset(), length);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A simulated stethoscope, writing a frame at every call of run().
+	 */
+	private class Stream implements Runnable {
+
+		final SocketChannel channel;
+		// A view of the mapped data, the position is the next byte to send
+		final ByteBuffer data;
+		final ByteBuffer length = ByteBuffer.allocateDirect(4);
+		final int frameLength;
+		final long end;
+		private volatile ScheduledFuture<?> future;
+		private volatile boolean closed;
+
+		Stream(SocketChannel channel, Recording recording, int id, double speed, long end) throws IOException {
+			this.channel = channel;
+			this.data = recording.data.duplicate();
+			this.end = end;
+			AudioFormat format = recording.format;
+			int frameSize = format.getFrameSize();
+			frameLength = Math.max(1, (int) Math.round(format.getFrameRate() * FRAME_DURATION / 1000.0 * speed))
+					* frameSize;
+			ByteBuffer header = ByteBuffer.allocateDirect(IngestServer.HEADER_SIZE);
+			header.putInt(IngestServer.MAGIC);
+			header.putInt(Math.round(format.getSampleRate()));
+			header.putShort((short) format.getSampleSizeInBits());
+			header.putShort((short) format.getChannels());
+			int flags = 0;
+			if (format.getEncoding() == AudioFormat.Encoding.PCM_SIGNED)
+				flags |= IngestServer.FLAG_SIGNED;
+			if (format.isBigEndian())
+				flags |= IngestServer.FLAG_BIG_ENDIAN;
+			header.put((byte) flags);
+			header.put((byte) 0);
+			header.putShort((short) 0);
+			header.putInt(id);
+			header.flip();
+			write(header);
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (System.nanoTime() >= end) {
+					finish();
+					return;
+				}
+				if (data.remaining() < frameLength)
+					data.position(0);
+				ByteBuffer frame = data.slice();
+				frame.limit(Math.min(frameLength, frame.remaining()));
+				data.position(data.position() + frame.limit());
+				length.clear();
+				length.putInt(frame.limit());
+				length.flip();
+				write(length);
+				write(frame);
+				sentBytes.addAndGet(frame.limit() + 4);
+			} catch (IOException e) {
+				System.err.println("Stream " + channel + " failed: " + e);
+				failed.incrementAndGet();
+				close();
+			}
+		}
+
+		private void finish() throws IOException {
+			length.clear();
+			length.putInt(0);
+			length.flip();
+			write(length);
+			close();
+		}
+
+		private void write(ByteBuffer buffer) throws IOException {
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+		}
+
+		void setFuture(ScheduledFuture<?> future) {
+			this.future = future;
+			// The first frame may have closed the stream already
+			if (closed)
+				future.cancel(false);
+		}
+
+		private void close() {
+			if (closed)
+				return;
+			closed = true;
+			ScheduledFuture<?> future = this.future;
+			if (future != null)
+				future.cancel(false);
+			try {
+				channel.close();
+			} catch (IOException e) {
+				System.err.println("Can't close stream " + channel + ": " + e);
+			}
+			finished.countDown();
+		}
+	}
+
+	private final AtomicLong sentBytes = new AtomicLong();
+	private final AtomicInteger failed = new AtomicInteger();
+	private CountDownLatch finished;
+
+	/**
+	 * Replays the files as streams, and waits until they are finished.
+	 *
+	 * @param address
+	 *            the address of the IngestServer.
+	 * @param streams
+	 *            the number of streams.
+	 * @param seconds
+	 *            the duration of the simulation.
+	 * @param speed
+	 *            the speed of the replay relative to real time.
+	 * @param files
+	 *            the replayed files, assigned to the streams in turns.
+	 * @throws IOException
+	 * @throws UnsupportedAudioFileException
+	 * @throws InterruptedException
+	 */
+	public void run(InetSocketAddress address, int streams, double seconds, double speed, List<File> files)
+			throws IOException, UnsupportedAudioFileException, InterruptedException {
+		List<Recording> recordings = new ArrayList<>();
+		for (File file : files)
+			recordings.add(new Recording(file));
+		finished = new CountDownLatch(streams);
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(2);
+		executor.setRemoveOnCancelPolicy(true);
+		long start = System.nanoTime();
+		long end = start + (long) (seconds * 1e9);
+		for (int i = 0; i < streams; i++) {
+			SocketChannel channel = SocketChannel.open(address);
+			Stream stream = new Stream(channel, recordings.get(i % recordings.size()), i, speed, end);
+			// The streams are spread over the period of a frame
+			stream.setFuture(executor.scheduleAtFixedRate(stream, i * FRAME_DURATION * 1000L / streams,
+					FRAME_DURATION * 1000L, TimeUnit.MICROSECONDS));
+		}
+		finished.await();
+		executor.shutdown();
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		System.out.printf(Locale.US, "%d streams, %d failed, %.2f MB sent in %.2f s (%.2f MB/s)%n", streams,
+				failed.get(), sentBytes.get() / 1e6, elapsed, sentBytes.get() / elapsed / 1e6);
+	}
+
+	public static void main(String[] args) throws IOException, UnsupportedAudioFileException,
+			InterruptedException {
+		if (args.length < 6) {
+			System.err.println("Usage: java service.IngestSimulator host port streams seconds speed file...");
+			System.exit(2);
+		}
+		List<File> files = new ArrayList<>();
+		for (int i = 5; i < args.length; i++)
+			files.add(new File(args[i]));
+		new IngestSimulator().run(new InetSocketAddress(args[0], Integer.parseInt(args[1])),
+				Integer.parseInt(args[2]), Double.parseDouble(args[3]), Double.parseDouble(args[4]), files);
+	}
+
+}
@@ -20,10 +20,9 @@ public abstract class ArrayListYSignal<N extends Number> extends YSignal<N> impl
 		int maxSize = (int) Math.round(maxLength / dt) + 1;
 		if (values.size() > maxSize) {
 			int u = values.size() - maxSize;
-			for (int i = 0; i < u; i++) {
-				values.remove(0);
-				startTime += dt;
-			}
+			values.subList(0, u).clear();
+			startTime += u * dt;
+			modified();
 		}
 	}
 
@@ -44,6 +43,7 @@ public abstract class ArrayListYSignal<N extends Number> extends YSignal<N> impl
 	 * @return is added.
 	 */
 	public synchronized boolean add(N y) {
+		modified();
 		return values.add(y);
 	}
 
@@ -55,6 +55,7 @@ public abstract class ArrayListYSignal<N extends Number> extends YSignal<N> impl
 	 */
 	public synchronized void add(int index, N y) {
 		values.add(index, y);
+		modified();
 	}
 
 	
@@ -72,6 +73,7 @@ public abstract class ArrayListYSignal<N extends Number> extends YSignal<N> impl
 	@Override
 	public synchronized void set(int index, N y) {
 		values.set(index, y);
+		modified();
 	}
 
 	/**
@@ -80,6 +82,7 @@ public abstract class ArrayListYSignal<N extends Number> extends YSignal<N> impl
 	public synchronized void clear() {
 		values.clear();
 		startTime = 0.0;
+		modified();
 	}
 
 	/* (non-Javadoc)
@@ -100,6 +103,7 @@ public abstract class ArrayListYSignal<N extends Number> extends YSignal<N> impl
 		if (index == 0) {
 			startTime += dt;
 		}
+		modified();
 	}
 
 	/* (non-Javadoc)
@@ -109,6 +113,7 @@ public abstract class ArrayListYSignal<N extends Number> extends YSignal<N> impl
 	public synchronized void removeAll() {
 		startTime = getX(values.size() - 1) + dt;
 		values.removeAll(values);
+		modified();
 	}
 
 	/* (non-Javadoc)
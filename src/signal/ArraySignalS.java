@@ -49,6 +49,7 @@ public class ArraySignalS extends ArrayYSignal<Short> {
 	@Override
 	public void set(int i, Short y) {
 		values[i] = y;
+		modified();
 	}
 
 	/*
@@ -227,6 +228,7 @@ public class ArraySignalS extends ArrayYSignal<Short> {
 			}
 			values[i] = (ByteArray.byteArrayToShort(temp));
 		}
+		modified();
 	}
 
 	/*
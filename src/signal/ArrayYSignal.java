@@ -31,6 +31,7 @@ public abstract class ArrayYSignal<N extends Number> extends YSignal<N> {
 	@Override
 	public void set(int index, N y) {
 		values[index] = y;
+		modified();
 	}
 
 	/* (non-Javadoc)
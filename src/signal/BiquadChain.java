@@ -0,0 +1,181 @@
+package signal;
+
+import java.util.Arrays;
+
+/**
+ * A cascade of second-order IIR sections (biquads), in transposed direct form
+ * II. The state of the sections is kept between the calls of process(), so a
+ * stream can be filtered block by block, the result is the same as filtering
+ * it at once. A block goes through the sections two by two, so the inner
+ * loop only works on the coefficients and the state in local variables.
+ *
+ * The sections are designed by FilterDesign.
+ *
+ * @author Nagy Tamas
+ *
+ */
+public class BiquadChain {
+
+	// The number of coefficients of a section: b0, b1, b2, a1, a2 (a0 = 1)
+	public static final int COEFFICIENTS = 5;
+
+	private final int sections;
+	private final double[] coefficients;
+	// s1, s2 of the sections
+	private final double[] state;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param coefficients
+	 *            b0, b1, b2, a1, a2 of the sections after each other, copied.
+	 */
+	public BiquadChain(double[] coefficients) {
+		if (coefficients.length == 0 || coefficients.length % COEFFICIENTS != 0)
+			throw new IllegalArgumentException("Invalid number of coefficients: " + coefficients.length);
+		this.coefficients = coefficients.clone();
+		sections = coefficients.length / COEFFICIENTS;
+		state = new double[2 * sections];
+	}
+
+	/**
+	 * Filters a block of samples. The output is stored at the same indices as
+	 * the input, in and out may be the same array.
+	 *
+	 * @param in
+	 *            the input samples.
+	 * @param off
+	 *            the index of the first sample.
+	 * @param len
+	 *            the number of samples.
+	 * @param out
+	 *            the filtered samples.
+	 */
+	public void process(double[] in, int off, int len, double[] out) {
+		int end = off + len;
+		double[] source = in;
+		int s = 0;
+		// Two sections in one loop: their recursions are independent, so the
+		// processor can overlap them
+		for (; s + 1 < sections; s += 2) {
+			int c = s * COEFFICIENTS;
+			double b0 = coefficients[c];
+			double b1 = coefficients[c + 1];
+			double b2 = coefficients[c + 2];
+			double a1 = coefficients[c + 3];
+			double a2 = coefficients[c + 4];
+			double d0 = coefficients[c + 5];
+			double d1 = coefficients[c + 6];
+			double d2 = coefficients[c + 7];
+			double c1 = coefficients[c + 8];
+			double c2 = coefficients[c + 9];
+			double s1 = state[2 * s];
+			double s2 = state[2 * s + 1];
+			double t1 = state[2 * s + 2];
+			double t2 = state[2 * s + 3];
+			for (int i = off; i < end; i++) {
+				double x = source[i];
+				double y = b0 * x + s1;
+				s1 = b1 * x - a1 * y + s2;
+				s2 = b2 * x - a2 * y;
+				double z = d0 * y + t1;
+				t1 = d1 * y - c1 * z + t2;
+				t2 = d2 * y - c2 * z;
+				out[i] = z;
+			}
+			state[2 * s] = s1;
+			state[2 * s + 1] = s2;
+			state[2 * s + 2] = t1;
+			state[2 * s + 3] = t2;
+			source = out;
+		}
+		if (s < sections) {
+			int c = s * COEFFICIENTS;
+			double b0 = coefficients[c];
+			double b1 = coefficients[c + 1];
+			double b2 = coefficients[c + 2];
+			double a1 = coefficients[c + 3];
+			double a2 = coefficients[c + 4];
+			double s1 = state[2 * s];
+			double s2 = state[2 * s + 1];
+			for (int i = off; i < end; i++) {
+				double x = source[i];
+				double y = b0 * x + s1;
+				s1 = b1 * x - a1 * y + s2;
+				s2 = b2 * x - a2 * y;
+				out[i] = y;
+			}
+			state[2 * s] = s1;
+			state[2 * s + 1] = s2;
+		}
+	}
+
+	/**
+	 * Filters a sample.
+	 *
+	 * @param x
+	 * @return the filtered sample.
+	 */
+	public double filterNext(double x) {
+		for (int s = 0; s < sections; s++) {
+			int c = s * COEFFICIENTS;
+			double y = coefficients[c] * x + state[2 * s];
+			state[2 * s] = coefficients[c + 1] * x - coefficients[c + 3] * y + state[2 * s + 1];
+			state[2 * s + 1] = coefficients[c + 2] * x - coefficients[c + 4] * y;
+			x = y;
+		}
+		return x;
+	}
+
+	/**
+	 * Clears the state of the sections.
+	 */
+	public void reset() {
+		Arrays.fill(state, 0.0);
+	}
+
+	/**
+	 * @param next
+	 *            the filter after this one.
+	 * @return a new chain of the sections of both filters, with cleared state.
+	 */
+	public BiquadChain cascade(BiquadChain next) {
+		double[] both = Arrays.copyOf(coefficients, coefficients.length + next.coefficients.length);
+		System.arraycopy(next.coefficients, 0, both, coefficients.length, next.coefficients.length);
+		return new BiquadChain(both);
+	}
+
+	/**
+	 * @param frequency
+	 *            in Hz.
+	 * @param fs
+	 *            the sampling frequency in Hz.
+	 * @return the gain of the filter at the frequency.
+	 */
+	public double magnitude(double frequency, double fs) {
+		double w = 2.0 * Math.PI * frequency / fs;
+		double cos1 = Math.cos(w);
+		double sin1 = Math.sin(w);
+		double cos2 = Math.cos(2.0 * w);
+		double sin2 = Math.sin(2.0 * w);
+		double gain = 1.0;
+		for (int s = 0; s < sections; s++) {
+			int c = s * COEFFICIENTS;
+			// H(z) at z = exp(i w), z^-1 = cos w - i sin w
+			double nr = coefficients[c] + coefficients[c + 1] * cos1 + coefficients[c + 2] * cos2;
+			double ni = -coefficients[c + 1] * sin1 - coefficients[c + 2] * sin2;
+			double dr = 1.0 + coefficients[c + 3] * cos1 + coefficients[c + 4] * cos2;
+			double di = -coefficients[c + 3] * sin1 - coefficients[c + 4] * sin2;
+			gain *= Math.sqrt((nr * nr + ni * ni) / (dr * dr + di * di));
+		}
+		return gain;
+	}
+
+	/**
+	 * @return the number of sections.
+	 */
+	public int getSections() {
+		return sections;
+	}
+
+}
@@ -0,0 +1,204 @@
+package signal;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free ring buffer of double values between one producer and one
+ * consumer thread. The producer never waits: if the consumer falls behind and
+ * the ring is full, the values that don't fit are dropped and counted.
+ *
+ * The positions are sequence numbers counted from the first value ever
+ * written, value number i is stored at index (i & mask). The write and the
+ * read sequence are kept in separate cache lines, so the two threads don't
+ * invalidate each other's line on every update.
+ *
+ * @author Nagy Tamas
+ *
+ */
+public class DoubleRingBuffer {
+
+	/**
+	 * The default capacity of the ring, must be a power of two.
+	 */
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	// The sequences are 16 longs (128 bytes) apart, with padding before and after them
+	private static final int PADDING = 16;
+	private static final int WRITE = PADDING;
+	private static final int READ = 2 * PADDING;
+
+	private final double[] buffer;
+	private final int mask;
+	private final AtomicLongArray sequences = new AtomicLongArray(3 * PADDING);
+
+	// Only used by the producer
+	private long cachedRead;
+	// Only written by the producer
+	private volatile long overruns;
+	// Set by the producer after its last value
+	private volatile boolean closed;
+
+	// Only used by the consumer
+	private long cachedWrite;
+
+	/**
+	 * Constructor, with the default capacity.
+	 */
+	public DoubleRingBuffer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param capacity
+	 *            the number of values the ring can hold, rounded up to a
+	 *            power of two.
+	 */
+	public DoubleRingBuffer(int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity)
+			size <<= 1;
+		buffer = new double[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * Writes values into the ring. Must be called only from the producer
+	 * thread.
+	 *
+	 * @param src
+	 *            the values.
+	 * @param offset
+	 *            the index of the first value in src.
+	 * @param length
+	 *            the number of values.
+	 * @return the number of values written, the rest is dropped.
+	 */
+	public int offer(double[] src, int offset, int length) {
+		long write = sequences.get(WRITE);
+		if (write + length - cachedRead > buffer.length) {
+			cachedRead = sequences.get(READ);
+		}
+		int n = (int) Math.min(length, buffer.length - (write - cachedRead));
+		if (n > 0) {
+			copy(src, offset, buffer, (int) (write & mask), n, true);
+			sequences.lazySet(WRITE, write + n);
+		}
+		if (n < length)
+			overruns += length - n;
+		return n;
+	}
+
+	/**
+	 * Moves all the available values to the end of a signal. Must be called
+	 * only from the consumer thread.
+	 *
+	 * @param signal
+	 *            the signal.
+	 * @return the number of values moved.
+	 */
+	public int drainTo(SignalD signal) {
+		long read = sequences.get(READ);
+		cachedWrite = sequences.get(WRITE);
+		int n = (int) (cachedWrite - read);
+		if (n == 0)
+			return 0;
+		int slot = (int) (read & mask);
+		int firstPart = Math.min(n, buffer.length - slot);
+		synchronized (signal) {
+			signal.addAll(buffer, slot, firstPart);
+			signal.addAll(buffer, 0, n - firstPart);
+		}
+		sequences.lazySet(READ, read + n);
+		return n;
+	}
+
+	/**
+	 * Reads values from the ring. Must be called only from the consumer
+	 * thread.
+	 *
+	 * @param dst
+	 *            the array where the values are stored.
+	 * @param offset
+	 *            the index of the first value in dst.
+	 * @param length
+	 *            the max number of values to read.
+	 * @return the number of values read.
+	 */
+	public int poll(double[] dst, int offset, int length) {
+		long read = sequences.get(READ);
+		if (cachedWrite - read < length) {
+			cachedWrite = sequences.get(WRITE);
+		}
+		int n = (int) Math.min(length, cachedWrite - read);
+		if (n > 0) {
+			copy(buffer, (int) (read & mask), dst, offset, n, false);
+			sequences.lazySet(READ, read + n);
+		}
+		return n;
+	}
+
+	/**
+	 * Copies n values between the ring and an array, wrapping around the end
+	 * of the ring.
+	 */
+	private void copy(double[] src, int srcPos, double[] dst, int dstPos, int n, boolean intoRing) {
+		int firstPart = Math.min(n, buffer.length - (intoRing ? dstPos : srcPos));
+		System.arraycopy(src, srcPos, dst, dstPos, firstPart);
+		if (intoRing)
+			System.arraycopy(src, srcPos + firstPart, dst, 0, n - firstPart);
+		else
+			System.arraycopy(src, 0, dst, dstPos + firstPart, n - firstPart);
+	}
+
+	/**
+	 * Drops the values not read yet, and opens a closed ring again. Must be
+	 * called only from the consumer thread, or while the producer is stopped.
+	 */
+	public void clear() {
+		sequences.lazySet(READ, sequences.get(WRITE));
+		closed = false;
+	}
+
+	/**
+	 * Tells the consumer that no more values will be written. Must be called
+	 * only from the producer thread, after its last offer.
+	 */
+	public void close() {
+		closed = true;
+	}
+
+	/**
+	 * @return true, if the producer has closed the ring. The values written
+	 *         before closing may still be in the ring.
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * @return the number of values that can be read.
+	 */
+	public int size() {
+		return (int) (sequences.get(WRITE) - sequences.get(READ));
+	}
+
+	/**
+	 * @return the number of values the ring can hold.
+	 */
+	public int getCapacity() {
+		return buffer.length;
+	}
+
+	/**
+	 * @return the number of values dropped by the producer because the ring
+	 *         was full.
+	 */
+	public long getOverruns() {
+		return overruns;
+	}
+
+}
@@ -0,0 +1,194 @@
+package signal;
+
+/**
+ * Designs Butterworth and Chebyshev (type I) IIR filters as cascades of
+ * biquads: the poles of the analog prototype are paired into second-order
+ * sections (a first-order one for an odd order), and every section is
+ * transformed with the bilinear transform, prewarped to the cutoff
+ * frequency. A band-pass filter is a high-pass filter at the low edge
+ * followed by a low-pass filter at the high edge, which fits the wide bands
+ * of the heart sounds.
+ *
+ * @author Nagy Tamas
+ *
+ */
+public class FilterDesign {
+
+	private FilterDesign() {
+	}
+
+	/**
+	 * @param order
+	 * @param fs
+	 *            the sampling frequency in Hz.
+	 * @param fc
+	 *            the -3 dB frequency in Hz.
+	 * @return the filter.
+	 */
+	public static BiquadChain butterworthLowPass(int order, double fs, double fc) {
+		return new BiquadChain(design(order, 0.0, fs, fc, false));
+	}
+
+	/**
+	 * @param order
+	 * @param fs
+	 *            the sampling frequency in Hz.
+	 * @param fc
+	 *            the -3 dB frequency in Hz.
+	 * @return the filter.
+	 */
+	public static BiquadChain butterworthHighPass(int order, double fs, double fc) {
+		return new BiquadChain(design(order, 0.0, fs, fc, true));
+	}
+
+	/**
+	 * @param order
+	 *            the order of both the high-pass and the low-pass part.
+	 * @param fs
+	 *            the sampling frequency in Hz.
+	 * @param low
+	 *            the lower -3 dB frequency in Hz.
+	 * @param high
+	 *            the upper -3 dB frequency in Hz.
+	 * @return the filter.
+	 */
+	public static BiquadChain butterworthBandPass(int order, double fs, double low, double high) {
+		checkBand(low, high);
+		return butterworthHighPass(order, fs, low).cascade(butterworthLowPass(order, fs, high));
+	}
+
+	/**
+	 * @param order
+	 * @param ripple
+	 *            the passband ripple in dB.
+	 * @param fs
+	 *            the sampling frequency in Hz.
+	 * @param fc
+	 *            the edge of the passband in Hz, where the gain is -ripple dB.
+	 * @return the filter.
+	 */
+	public static BiquadChain chebyshevLowPass(int order, double ripple, double fs, double fc) {
+		checkRipple(ripple);
+		return new BiquadChain(design(order, ripple, fs, fc, false));
+	}
+
+	/**
+	 * @param order
+	 * @param ripple
+	 *            the passband ripple in dB.
+	 * @param fs
+	 *            the sampling frequency in Hz.
+	 * @param fc
+	 *            the edge of the passband in Hz, where the gain is -ripple dB.
+	 * @return the filter.
+	 */
+	public static BiquadChain chebyshevHighPass(int order, double ripple, double fs, double fc) {
+		checkRipple(ripple);
+		return new BiquadChain(design(order, ripple, fs, fc, true));
+	}
+
+	/**
+	 * @param order
+	 *            the order of both the high-pass and the low-pass part.
+	 * @param ripple
+	 *            the passband ripple in dB.
+	 * @param fs
+	 *            the sampling frequency in Hz.
+	 * @param low
+	 *            the lower edge of the passband in Hz.
+	 * @param high
+	 *            the upper edge of the passband in Hz.
+	 * @return the filter.
+	 */
+	public static BiquadChain chebyshevBandPass(int order, double ripple, double fs, double low, double high) {
+		checkBand(low, high);
+		return chebyshevHighPass(order, ripple, fs, low).cascade(chebyshevLowPass(order, ripple, fs, high));
+	}
+
+	/**
+	 * @param order
+	 * @param ripple
+	 *            in dB, 0 for Butterworth.
+	 * @param fs
+	 * @param fc
+	 * @param highPass
+	 * @return the coefficients of the sections.
+	 */
+	private static double[] design(int order, double ripple, double fs, double fc, boolean highPass) {
+		if (order < 1)
+			throw new IllegalArgumentException("Invalid order: " + order);
+		if (fc <= 0.0 || fc >= fs / 2.0)
+			throw new IllegalArgumentException("The cutoff frequency must be between 0 and fs / 2: " + fc);
+		// The prewarped cutoff, with s = (1 - z^-1) / (1 + z^-1)
+		double w = Math.tan(Math.PI * fc / fs);
+		double sinhMu = 1.0;
+		double coshMu = 1.0;
+		double gain = 1.0;
+		if (ripple > 0.0) {
+			double epsilon = Math.sqrt(Math.pow(10.0, ripple / 10.0) - 1.0);
+			double mu = asinh(1.0 / epsilon) / order;
+			sinhMu = Math.sinh(mu);
+			coshMu = Math.cosh(mu);
+			// The gain of an even order filter starts at the bottom of the ripple
+			if (order % 2 == 0)
+				gain = 1.0 / Math.sqrt(1.0 + epsilon * epsilon);
+		}
+		double[] coefficients = new double[(order + 1) / 2 * BiquadChain.COEFFICIENTS];
+		int c = 0;
+		for (int k = 0; k < order / 2; k++) {
+			// The poles of the prototype are -sigma +- i omega
+			double theta = Math.PI * (2 * k + 1) / (2 * order);
+			double sigma = sinhMu * Math.sin(theta);
+			double omega = coshMu * Math.cos(theta);
+			double magnitude2 = sigma * sigma + omega * omega;
+			// H(s) = n(s) / (s^2 + d s + e)
+			double d;
+			double e;
+			if (highPass) {
+				d = 2.0 * sigma * w / magnitude2;
+				e = w * w / magnitude2;
+			} else {
+				d = 2.0 * sigma * w;
+				e = w * w * magnitude2;
+			}
+			double a0 = 1.0 + d + e;
+			double b = (highPass ? 1.0 : e) / a0;
+			coefficients[c] = b;
+			coefficients[c + 1] = highPass ? -2.0 * b : 2.0 * b;
+			coefficients[c + 2] = b;
+			coefficients[c + 3] = 2.0 * (e - 1.0) / a0;
+			coefficients[c + 4] = (1.0 - d + e) / a0;
+			c += BiquadChain.COEFFICIENTS;
+		}
+		if (order % 2 == 1) {
+			// The real pole, H(s) = n(s) / (s + p)
+			double p = highPass ? w / sinhMu : w * sinhMu;
+			double a0 = 1.0 + p;
+			double b = (highPass ? 1.0 : p) / a0;
+			coefficients[c] = b;
+			coefficients[c + 1] = highPass ? -b : b;
+			coefficients[c + 2] = 0.0;
+			coefficients[c + 3] = (p - 1.0) / a0;
+			coefficients[c + 4] = 0.0;
+		}
+		coefficients[0] *= gain;
+		coefficients[1] *= gain;
+		coefficients[2] *= gain;
+		return coefficients;
+	}
+
+	private static double asinh(double x) {
+		return Math.log(x + Math.sqrt(x * x + 1.0));
+	}
+
+	private static void checkRipple(double ripple) {
+		if (ripple <= 0.0)
+			throw new IllegalArgumentException("The ripple must be positive: " + ripple);
+	}
+
+	private static void checkBand(double low, double high) {
+		if (low >= high)
+			throw new IllegalArgumentException("Invalid band: " + low + " - " + high);
+	}
+
+}
@@ -0,0 +1,491 @@
+package signal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates a synthetic phonocardiogram for benchmarks and soak tests, block
+ * by block into primitive arrays.
+ *
+ * Every beat is an S1 and an S2 sound (Gaussian windowed sine bursts), the S2
+ * delay grows with the square root of the RR interval. The RR intervals come
+ * from a model of the heart rate variability: a low frequency (Mayer wave) and
+ * a high frequency (respiratory) oscillation, and a first-order
+ * autoregressive noise, with equal shares in the variance. Optionally
+ * premature (ectopic) beats with compensatory pauses, a systolic murmur, white
+ * noise and a fetal heart sound (with its own RR process) are added.
+ *
+ * The sounds are sampled into templates once, a block is the noise and the
+ * sum of the templates overlapping it, so generating is about as fast as
+ * writing the array. The noise is read from a table of Gaussian values, from
+ * a random position in every NOISE_SEGMENT samples. The signal doesn't depend
+ * on the size of the blocks it is generated in: the beats are scheduled
+ * ahead by the half of the S1 template, and the positions of the noise are
+ * derived from the absolute sample index.
+ *
+ * The times of the generated beats (the centers of the S1 sounds) are
+ * recorded as the ground truth of the beat detection.
+ *
+ * @author Nagy Tamas
+ *
+ */
+public class HeartSoundGenerator {
+
+	public static final double DEFAULT_HEART_RATE = 72.0;
+	// The standard deviation of the RR intervals in s
+	public static final double DEFAULT_RR_VARIABILITY = 0.03;
+	public static final double LF_FREQUENCY = 0.1;
+	public static final double HF_FREQUENCY = 0.25;
+	public static final double AR_COEFFICIENT = 0.5;
+
+	public static final double S1_FREQUENCY = 50.0;
+	public static final double S2_FREQUENCY = 70.0;
+	// The standard deviation of the window of a sound in s
+	public static final double SOUND_WIDTH = 0.015;
+	public static final double S1_AMPLITUDE = 12000.0;
+	// The amplitudes relative to S1
+	public static final double S2_RELATIVE_AMPLITUDE = 0.3;
+	public static final double ECTOPIC_RELATIVE_AMPLITUDE = 1.3;
+	// The RR interval before an ectopic beat relative to the normal one
+	public static final double ECTOPIC_PREMATURITY = 0.65;
+	// The S2 delay is S2_DELAY_FACTOR * sqrt(RR)
+	public static final double S2_DELAY_FACTOR = 0.33;
+	// In s
+	public static final double MURMUR_DURATION = 0.15;
+	public static final double DEFAULT_NOISE_AMPLITUDE = 300.0;
+
+	public static final double DEFAULT_FETAL_HEART_RATE = 140.0;
+	public static final double FETAL_S1_FREQUENCY = 80.0;
+	public static final double FETAL_S2_FREQUENCY = 100.0;
+	public static final double FETAL_SOUND_WIDTH = 0.008;
+
+	private static final int NOISE_TABLE_SIZE = 1 << 16;
+	// The number of samples read from the noise table from one position
+	private static final int NOISE_SEGMENT = 1 << 12;
+	// The size of the blocks converted into PCM
+	private static final int PCM_BLOCK = 1 << 12;
+
+	private final double sampleRate;
+	private final Random random;
+	private final double[] noiseTable;
+	// Scrambles the positions of the noise segments
+	private final long noiseSeed;
+	private final double[] s1;
+	private final double[] s2;
+	private final double[] murmur;
+	private final double[] fetalS1;
+	private final double[] fetalS2;
+
+	private double heartRate = DEFAULT_HEART_RATE;
+	private double rrVariability = DEFAULT_RR_VARIABILITY;
+	private double ectopicProbability;
+	private double murmurAmplitude;
+	private double noiseAmplitude = DEFAULT_NOISE_AMPLITUDE;
+	private double fetalHeartRate = DEFAULT_FETAL_HEART_RATE;
+	private double fetalAmplitude;
+
+	private final RRProcess maternal;
+	private final RRProcess fetal;
+	// The sounds started, but not finished yet
+	private final List<Sound> sounds = new ArrayList<>();
+	// The index of the next sample
+	private long position;
+	private double[] pcmBlock;
+
+	private final BeatTrack beats = new BeatTrack();
+	private final BeatTrack fetalBeats = new BeatTrack();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param sampleRate
+	 *            in Hz.
+	 * @param seed
+	 *            the seed of the random numbers, the same seed and settings
+	 *            generate the same signal.
+	 */
+	public HeartSoundGenerator(double sampleRate, long seed) {
+		this.sampleRate = sampleRate;
+		random = new Random(seed);
+		noiseTable = new double[NOISE_TABLE_SIZE];
+		for (int i = 0; i < noiseTable.length; i++)
+			noiseTable[i] = random.nextGaussian();
+		noiseSeed = random.nextLong();
+		s1 = burst(S1_FREQUENCY, SOUND_WIDTH, 1.0);
+		s2 = burst(S2_FREQUENCY, SOUND_WIDTH, S2_RELATIVE_AMPLITUDE);
+		fetalS1 = burst(FETAL_S1_FREQUENCY, FETAL_SOUND_WIDTH, 1.0);
+		fetalS2 = burst(FETAL_S2_FREQUENCY, FETAL_SOUND_WIDTH, S2_RELATIVE_AMPLITUDE);
+		murmur = murmur();
+		maternal = new RRProcess(random.nextLong());
+		fetal = new RRProcess(random.nextLong());
+	}
+
+	/**
+	 * A sound to be added to the signal.
+	 */
+	private static class Sound {
+
+		final long start;
+		final double[] template;
+		final double gain;
+
+		Sound(long start, double[] template, double gain) {
+			this.start = start;
+			this.template = template;
+			this.gain = gain;
+		}
+	}
+
+	/**
+	 * Generates the RR intervals of a heart, with its own random numbers, so
+	 * the two hearts don't depend on the order their beats are scheduled in.
+	 */
+	private class RRProcess {
+
+		final Random random;
+		// The time of the next beat in s
+		double nextBeat = 0.5;
+		double ar;
+		// The RR interval after the next beat if it is ectopic, otherwise 0
+		double compensatoryPause;
+
+		RRProcess(long seed) {
+			random = new Random(seed);
+		}
+
+		/**
+		 * @return the next normal RR interval in s.
+		 */
+		double nextRR(double heartRate) {
+			double meanRR = 60.0 / heartRate;
+			double amplitude = rrVariability * Math.sqrt(2.0 / 3.0);
+			ar = AR_COEFFICIENT * ar + Math.sqrt(1.0 - AR_COEFFICIENT * AR_COEFFICIENT) * random.nextGaussian();
+			double rr = meanRR + amplitude * Math.sin(2.0 * Math.PI * LF_FREQUENCY * nextBeat) + amplitude
+					* Math.sin(2.0 * Math.PI * HF_FREQUENCY * nextBeat) + rrVariability / Math.sqrt(3.0) * ar;
+			return Math.max(rr, 0.3 * meanRR);
+		}
+	}
+
+	/**
+	 * The times of the generated beats.
+	 */
+	private static class BeatTrack {
+
+		double[] times = new double[64];
+		boolean[] ectopic = new boolean[64];
+		int count;
+
+		void add(double time, boolean isEctopic) {
+			if (count == times.length) {
+				times = Arrays.copyOf(times, 2 * count);
+				ectopic = Arrays.copyOf(ectopic, 2 * count);
+			}
+			times[count] = time;
+			ectopic[count] = isEctopic;
+			count++;
+		}
+	}
+
+	/**
+	 * @return a Gaussian windowed sine burst, cut at 4 standard deviations.
+	 */
+	private double[] burst(double frequency, double width, double amplitude) {
+		int half = (int) Math.ceil(4.0 * width * sampleRate);
+		double[] template = new double[2 * half + 1];
+		for (int i = 0; i < template.length; i++) {
+			double t = (i - half) / sampleRate;
+			double x = t / width;
+			template[i] = amplitude * Math.exp(-0.5 * x * x) * Math.cos(2.0 * Math.PI * frequency * t);
+		}
+		return template;
+	}
+
+	/**
+	 * @return a differentiated (high-passed) noise with a diamond shaped
+	 *         envelope, of unit RMS at its peak.
+	 */
+	private double[] murmur() {
+		double[] template = new double[Math.max(2, (int) (MURMUR_DURATION * sampleRate))];
+		double previous = random.nextGaussian();
+		for (int i = 0; i < template.length; i++) {
+			double g = random.nextGaussian();
+			double envelope = 1.0 - Math.abs(2.0 * i / (template.length - 1) - 1.0);
+			template[i] = envelope * (g - previous) / Math.sqrt(2.0);
+			previous = g;
+		}
+		return template;
+	}
+
+	/**
+	 * Generates the next block of the signal.
+	 *
+	 * @param dst
+	 * @param offset
+	 *            the index of the first sample in dst.
+	 * @param length
+	 *            the number of samples.
+	 */
+	public synchronized void generate(double[] dst, int offset, int length) {
+		long end = position + length;
+		scheduleBeats(end);
+		if (noiseAmplitude == 0.0) {
+			Arrays.fill(dst, offset, offset + length, 0.0);
+		} else {
+			int mask = NOISE_TABLE_SIZE - 1;
+			int i = 0;
+			while (i < length) {
+				long segment = (position + i) / NOISE_SEGMENT;
+				int within = (int) (position + i - segment * NOISE_SEGMENT);
+				int n = Math.min(length - i, NOISE_SEGMENT - within);
+				int index = noisePosition(segment) + within;
+				for (int j = 0; j < n; j++)
+					dst[offset + i + j] = noiseAmplitude * noiseTable[(index + j) & mask];
+				i += n;
+			}
+		}
+		for (int k = sounds.size() - 1; k >= 0; k--) {
+			Sound sound = sounds.get(k);
+			long soundEnd = sound.start + sound.template.length;
+			long from = Math.max(sound.start, position);
+			long to = Math.min(soundEnd, end);
+			double[] template = sound.template;
+			double gain = sound.gain;
+			int t = (int) (from - sound.start);
+			int d = offset + (int) (from - position);
+			for (long j = from; j < to; j++)
+				dst[d++] += gain * template[t++];
+			if (soundEnd <= end) {
+				// Removed by moving the last one into its place
+				sounds.set(k, sounds.get(sounds.size() - 1));
+				sounds.remove(sounds.size() - 1);
+			}
+		}
+		position = end;
+	}
+
+	/**
+	 * Generates the next block of the signal as 16 bit mono PCM data, the
+	 * samples are clipped to the range of short.
+	 *
+	 * @param dst
+	 * @param offset
+	 *            the index of the first byte in dst.
+	 * @param frames
+	 *            the number of samples.
+	 * @param bigEndian
+	 */
+	public synchronized void generate(byte[] dst, int offset, int frames, boolean bigEndian) {
+		if (pcmBlock == null)
+			pcmBlock = new double[PCM_BLOCK];
+		int high = bigEndian ? 0 : 1;
+		int low = 1 - high;
+		while (frames > 0) {
+			int n = Math.min(frames, PCM_BLOCK);
+			generate(pcmBlock, 0, n);
+			for (int i = 0; i < n; i++) {
+				double value = pcmBlock[i];
+				int sample = (value >= Short.MAX_VALUE) ? Short.MAX_VALUE : (value <= Short.MIN_VALUE)
+						? Short.MIN_VALUE : (int) Math.round(value);
+				dst[offset + high] = (byte) (sample >> 8);
+				dst[offset + low] = (byte) sample;
+				offset += 2;
+			}
+			frames -= n;
+		}
+	}
+
+	/**
+	 * @return the position of a noise segment in the noise table.
+	 */
+	private int noisePosition(long segment) {
+		long h = (segment + noiseSeed) * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/**
+	 * Starts the sounds of the beats beginning before the end of the block:
+	 * a beat is scheduled when its S1, centered at the beat, starts before
+	 * the end.
+	 */
+	private void scheduleBeats(long end) {
+		while ((long) (maternal.nextBeat * sampleRate) - s1.length / 2 < end) {
+			double time = maternal.nextBeat;
+			double rr = maternal.nextRR(heartRate);
+			// An ectopic beat came early, and is followed by a compensatory pause
+			boolean ectopic = maternal.compensatoryPause > 0.0;
+			double gain = S1_AMPLITUDE;
+			if (ectopic) {
+				gain *= ECTOPIC_RELATIVE_AMPLITUDE;
+				rr = maternal.compensatoryPause;
+				maternal.compensatoryPause = 0.0;
+			} else if (ectopicProbability > 0.0 && maternal.random.nextDouble() < ectopicProbability) {
+				// The next beat is ectopic
+				maternal.compensatoryPause = (2.0 - ECTOPIC_PREMATURITY) * rr;
+				rr *= ECTOPIC_PREMATURITY;
+			}
+			addBeat(time, rr, s1, s2, gain, true);
+			beats.add(time, ectopic);
+			maternal.nextBeat = time + rr;
+		}
+		if (fetalAmplitude == 0.0)
+			return;
+		while ((long) (fetal.nextBeat * sampleRate) - fetalS1.length / 2 < end) {
+			double time = fetal.nextBeat;
+			double rr = fetal.nextRR(fetalHeartRate);
+			addBeat(time, rr, fetalS1, fetalS2, fetalAmplitude, false);
+			fetalBeats.add(time, false);
+			fetal.nextBeat = time + rr;
+		}
+	}
+
+	/**
+	 * Starts the sounds of a beat, the S1 is centered at the time.
+	 */
+	private void addBeat(double time, double rr, double[] first, double[] second, double gain, boolean withMurmur) {
+		long s1Start = Math.round(time * sampleRate) - first.length / 2;
+		long s2Start = Math.round((time + S2_DELAY_FACTOR * Math.sqrt(rr)) * sampleRate) - second.length / 2;
+		sounds.add(new Sound(s1Start, first, gain));
+		sounds.add(new Sound(s2Start, second, gain));
+		if (withMurmur && murmurAmplitude != 0.0)
+			sounds.add(new Sound(s1Start + first.length, murmur, murmurAmplitude));
+	}
+
+	/**
+	 * @return the sample rate in Hz.
+	 */
+	public double getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * @return the number of samples generated.
+	 */
+	public synchronized long getPosition() {
+		return position;
+	}
+
+	/**
+	 * @return the number of beats started.
+	 */
+	public synchronized int getBeatCount() {
+		return beats.count;
+	}
+
+	/**
+	 * @return the times of the beats started (the centers of their S1 sounds)
+	 *         in s.
+	 */
+	public synchronized double[] getBeatTimes() {
+		return Arrays.copyOf(beats.times, beats.count);
+	}
+
+	/**
+	 * @return for every beat started, true if it is ectopic.
+	 */
+	public synchronized boolean[] getEctopicBeats() {
+		return Arrays.copyOf(beats.ectopic, beats.count);
+	}
+
+	/**
+	 * @return the times of the fetal beats started in s.
+	 */
+	public synchronized double[] getFetalBeatTimes() {
+		return Arrays.copyOf(fetalBeats.times, fetalBeats.count);
+	}
+
+	/**
+	 * Forgets the recorded beats, for long runs not needing them.
+	 */
+	public synchronized void clearBeats() {
+		beats.count = 0;
+		fetalBeats.count = 0;
+	}
+
+	public synchronized double getHeartRate() {
+		return heartRate;
+	}
+
+	/**
+	 * @param heartRate
+	 *            the mean heart rate in 1/min.
+	 */
+	public synchronized void setHeartRate(double heartRate) {
+		this.heartRate = heartRate;
+	}
+
+	public synchronized double getRRVariability() {
+		return rrVariability;
+	}
+
+	/**
+	 * @param rrVariability
+	 *            the standard deviation of the normal RR intervals in s.
+	 */
+	public synchronized void setRRVariability(double rrVariability) {
+		this.rrVariability = rrVariability;
+	}
+
+	public synchronized double getEctopicProbability() {
+		return ectopicProbability;
+	}
+
+	/**
+	 * @param ectopicProbability
+	 *            the probability of a beat being ectopic.
+	 */
+	public synchronized void setEctopicProbability(double ectopicProbability) {
+		this.ectopicProbability = ectopicProbability;
+	}
+
+	public synchronized double getMurmurAmplitude() {
+		return murmurAmplitude;
+	}
+
+	/**
+	 * @param murmurAmplitude
+	 *            the amplitude of the systolic murmur, 0 for none.
+	 */
+	public synchronized void setMurmurAmplitude(double murmurAmplitude) {
+		this.murmurAmplitude = murmurAmplitude;
+	}
+
+	public synchronized double getNoiseAmplitude() {
+		return noiseAmplitude;
+	}
+
+	/**
+	 * @param noiseAmplitude
+	 *            the standard deviation of the white noise.
+	 */
+	public synchronized void setNoiseAmplitude(double noiseAmplitude) {
+		this.noiseAmplitude = noiseAmplitude;
+	}
+
+	public synchronized double getFetalHeartRate() {
+		return fetalHeartRate;
+	}
+
+	/**
+	 * @param fetalHeartRate
+	 *            the mean fetal heart rate in 1/min.
+	 */
+	public synchronized void setFetalHeartRate(double fetalHeartRate) {
+		this.fetalHeartRate = fetalHeartRate;
+	}
+
+	public synchronized double getFetalAmplitude() {
+		return fetalAmplitude;
+	}
+
+	/**
+	 * @param fetalAmplitude
+	 *            the amplitude of the fetal S1 sounds, 0 for no fetal heart
+	 *            sound.
+	 */
+	public synchronized void setFetalAmplitude(double fetalAmplitude) {
+		this.fetalAmplitude = fetalAmplitude;
+	}
+
+}
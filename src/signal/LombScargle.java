@@ -0,0 +1,233 @@
+package signal;
+
+import java.util.Arrays;
+
+/**
+ * Fast Lomb-Scargle periodogram of unevenly sampled data (Press and Rybicki):
+ * the values are extirpolated onto a regular grid, and the trigonometric sums
+ * of all the frequencies are calculated by two FFTs, in O(n log n). No
+ * resampling of the data is needed.
+ *
+ * The result is a power spectral density, scaled so that the power of the
+ * frequencies sums up to the variance of the data, at the frequencies k * df
+ * for k = 1, 2, ... up to the max frequency. The work arrays are reused, they
+ * are only reallocated when a longer grid is needed.
+ *
+ * @author Nagy Tamas
+ *
+ */
+public class LombScargle {
+
+	// The number of grid points a value is extirpolated onto
+	public static final int MACC = 4;
+	public static final double DEFAULT_OVERSAMPLING = 4.0;
+	private static final int MIN_GRID = 128;
+	// (MACC - 1)!
+	private static final double MACC_FACTORIAL = 6.0;
+
+	protected final double oversampling;
+	protected final double maxFrequency;
+	private RealFFT fft;
+	protected double[] work1 = new double[0];
+	protected double[] work2 = new double[0];
+	private double[] psd = new double[0];
+	private int frequencies;
+	private double frequencyResolution;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param oversampling
+	 *            the number of frequencies per 1 / (length of the data).
+	 * @param maxFrequency
+	 *            in Hz.
+	 */
+	public LombScargle(double oversampling, double maxFrequency) {
+		this.oversampling = oversampling;
+		this.maxFrequency = maxFrequency;
+	}
+
+	/**
+	 * Calculates the periodogram.
+	 *
+	 * @param x
+	 *            the times in s, in ascending order.
+	 * @param y
+	 *            the values.
+	 * @param offset
+	 *            the index of the first point.
+	 * @param n
+	 *            the number of points.
+	 * @return the number of frequencies, 0 if there are too few points.
+	 */
+	public int calculate(double[] x, double[] y, int offset, int n) {
+		frequencies = 0;
+		if (n < 3)
+			return 0;
+		double xmin = x[offset];
+		double span = x[offset + n - 1] - xmin;
+		if (span <= 0.0)
+			return 0;
+		double mean = 0.0;
+		for (int i = offset; i < offset + n; i++)
+			mean += y[i];
+		mean /= n;
+		int grid = gridSize(span);
+		ensureGrid(grid);
+		Arrays.fill(work1, 0, grid, 0.0);
+		Arrays.fill(work2, 0, grid, 0.0);
+		double fac = grid / (span * oversampling);
+		for (int i = offset; i < offset + n; i++) {
+			double position = ((x[i] - xmin) * fac) % grid;
+			spread(y[i] - mean, work1, grid, position);
+			spread(1.0, work2, grid, (2.0 * position) % grid);
+		}
+		return periodogram(grid, n, span);
+	}
+
+	/**
+	 * @param span
+	 *            the length of the data in s.
+	 * @return the number of grid points, a power of two.
+	 */
+	protected int gridSize(double span) {
+		double needed = 4.0 * MACC * oversampling * maxFrequency * span;
+		if (needed > 1 << 30)
+			throw new IllegalArgumentException("The data is too long for the periodogram: " + span + " s");
+		int grid = MIN_GRID;
+		while (grid < needed)
+			grid <<= 1;
+		return grid;
+	}
+
+	protected void ensureGrid(int grid) {
+		if (work1.length < grid) {
+			work1 = new double[grid];
+			work2 = new double[grid];
+		}
+		if (fft == null || fft.getLength() != grid)
+			fft = new RealFFT(grid);
+	}
+
+	/**
+	 * Adds a value to a periodic grid with Lagrange extirpolation onto MACC
+	 * neighbouring points.
+	 *
+	 * @param y
+	 * @param grid
+	 * @param length
+	 *            the number of grid points.
+	 * @param position
+	 *            the position of the value, 0 &lt;= position &lt; length.
+	 */
+	protected static void spread(double y, double[] grid, int length, double position) {
+		int ip = (int) position;
+		if (position == ip) {
+			grid[ip] += y;
+			return;
+		}
+		int lo = (int) Math.floor(position - 0.5 * MACC + 1.0);
+		int hi = lo + MACC - 1;
+		double fac = position - lo;
+		for (int j = lo + 1; j <= hi; j++)
+			fac *= position - j;
+		double den = MACC_FACTORIAL;
+		grid[wrap(hi, length)] += y * fac / (den * (position - hi));
+		for (int j = hi - 1; j >= lo; j--) {
+			den = (den / (j + 1 - lo)) * (j - hi);
+			grid[wrap(j, length)] += y * fac / (den * (position - j));
+		}
+	}
+
+	private static int wrap(int index, int length) {
+		return (index < 0) ? index + length : (index >= length) ? index - length : index;
+	}
+
+	/**
+	 * Calculates the periodogram from the extirpolated values in work1 (the
+	 * values minus their mean at the positions) and work2 (ones at the
+	 * double positions). Both arrays are transformed in place.
+	 *
+	 * @param grid
+	 *            the number of grid points.
+	 * @param n
+	 *            the number of values.
+	 * @param span
+	 *            the length of the time covered by the grid divided by the
+	 *            oversampling, in s.
+	 * @return the number of frequencies.
+	 */
+	protected int periodogram(int grid, int n, double span) {
+		fft.transform(work1);
+		fft.transform(work2);
+		frequencyResolution = 1.0 / (span * oversampling);
+		int count = Math.min((int) (maxFrequency / frequencyResolution), grid / 2 - 1);
+		if (psd.length < count)
+			psd = new double[count];
+		// The power of a bin is 2 P / (n * oversampling)
+		double scale = 2.0 / (n * oversampling * frequencyResolution);
+		for (int j = 1; j <= count; j++) {
+			double c1 = work1[2 * j];
+			double s1 = work1[2 * j + 1];
+			double c2 = work2[2 * j];
+			double s2 = work2[2 * j + 1];
+			double hypo = Math.sqrt(c2 * c2 + s2 * s2);
+			double cos2wt = (hypo > 0.0) ? 0.5 * c2 / hypo : 0.5;
+			double sin2wt = (hypo > 0.0) ? 0.5 * s2 / hypo : 0.0;
+			double cwt = Math.sqrt(0.5 + cos2wt);
+			double swt = Math.copySign(Math.sqrt(Math.max(0.0, 0.5 - cos2wt)), sin2wt);
+			double den = 0.5 * n + cos2wt * c2 + sin2wt * s2;
+			double cterm = (den > 0.0) ? square(cwt * c1 + swt * s1) / den : 0.0;
+			double sterm = (n - den > 0.0) ? square(cwt * s1 - swt * c1) / (n - den) : 0.0;
+			psd[j - 1] = scale * 0.5 * (cterm + sterm);
+		}
+		frequencies = count;
+		return count;
+	}
+
+	private static double square(double x) {
+		return x * x;
+	}
+
+	/**
+	 * @param low
+	 *            in Hz.
+	 * @param high
+	 *            in Hz.
+	 * @return the power of the frequencies in [low, high) from the last
+	 *         periodogram.
+	 */
+	public double bandPower(double low, double high) {
+		double power = 0.0;
+		for (int j = 1; j <= frequencies; j++) {
+			double f = j * frequencyResolution;
+			if (f >= low && f < high)
+				power += psd[j - 1];
+		}
+		return power * frequencyResolution;
+	}
+
+	/**
+	 * @return the power spectral density of the last periodogram, the element
+	 *         k is at the frequency (k + 1) * getFrequencyResolution().
+	 *         Overwritten by the next periodogram.
+	 */
+	public double[] getPsd() {
+		return psd;
+	}
+
+	/**
+	 * @return the number of frequencies of the last periodogram.
+	 */
+	public int getFrequencies() {
+		return frequencies;
+	}
+
+	/**
+	 * @return the distance of the frequencies in Hz.
+	 */
+	public double getFrequencyResolution() {
+		return frequencyResolution;
+	}
+
+}
@@ -0,0 +1,149 @@
+package signal;
+
+/**
+ * Minimums and maximums of the blocks of 2^k samples of a signal stored in a
+ * ring buffer, for every k. The samples are identified by their absolute
+ * index (counted from the first sample ever added), block b of level k
+ * contains the samples [b * 2^k, (b + 1) * 2^k). Appending a sample updates
+ * one block per level, the min/max of any range is found in O(log n).
+ *
+ * Level 0 is the ring buffer of the signal itself, it is passed to the
+ * queries. The level k is a ring of capacity / 2^k blocks.
+ *
+ * @author Nagy Tamas
+ *
+ */
+public class MinMaxPyramid {
+
+	private final int capacity;
+	// mins[k] and maxs[k] are the blocks of level k, [0] is not used
+	private final double[][] mins;
+	private final double[][] maxs;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param capacity
+	 *            the capacity of the ring buffer of the signal, must be a
+	 *            power of two.
+	 */
+	public MinMaxPyramid(int capacity) {
+		this.capacity = capacity;
+		int levels = Integer.numberOfTrailingZeros(capacity) + 1;
+		mins = new double[levels][];
+		maxs = new double[levels][];
+		for (int k = 1; k < levels; k++) {
+			mins[k] = new double[capacity >> k];
+			maxs[k] = new double[capacity >> k];
+		}
+	}
+
+	/**
+	 * @return the capacity of the ring buffer of the signal.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Adds the sample following the previously added one.
+	 *
+	 * @param index
+	 *            the absolute index of the sample.
+	 * @param y
+	 *            the value of the sample.
+	 */
+	public void add(long index, double y) {
+		for (int k = 1; k < mins.length; k++) {
+			int slot = (int) ((index >> k) & ((capacity >> k) - 1));
+			if ((index & ((1L << k) - 1)) == 0) {
+				mins[k][slot] = y;
+				maxs[k][slot] = y;
+			} else {
+				boolean changed = false;
+				if (y < mins[k][slot]) {
+					mins[k][slot] = y;
+					changed = true;
+				}
+				if (y > maxs[k][slot]) {
+					maxs[k][slot] = y;
+					changed = true;
+				}
+				// The blocks above already contain a smaller and a greater sample
+				if (!changed)
+					return;
+			}
+		}
+	}
+
+	/**
+	 * Calculates the blocks again from the samples.
+	 *
+	 * @param ring
+	 *            the ring buffer of the signal, its length is the capacity.
+	 * @param first
+	 *            the absolute index of the first sample.
+	 * @param end
+	 *            the absolute index after the last sample.
+	 */
+	public void rebuild(double[] ring, long first, long end) {
+		int mask = ring.length - 1;
+		for (long i = first; i < end; i++) {
+			add(i, ring[(int) (i & mask)]);
+		}
+	}
+
+	/**
+	 * Finds the minimum and the maximum of a range of samples. Only reads the
+	 * blocks inside the range, so the blocks before the first sample of the
+	 * signal are never used.
+	 *
+	 * @param ring
+	 *            the ring buffer of the signal.
+	 * @param from
+	 *            the absolute index of the first sample of the range.
+	 * @param to
+	 *            the absolute index after the last sample of the range.
+	 * @param minMax
+	 *            the minimum is stored at index 0, the maximum at index 1,
+	 *            infinite values if the range is empty.
+	 */
+	public void minMax(double[] ring, long from, long to, double[] minMax) {
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		int mask = ring.length - 1;
+		// The range is narrowed from both ends, using the largest aligned blocks
+		long l = from;
+		long r = to;
+		for (int k = 0; l < r; k++) {
+			if (k >= mins.length) {
+				// Can't happen while the range fits in the ring
+				throw new IllegalArgumentException("Range is longer than the capacity: " + (to - from));
+			}
+			int levelMask = (capacity >> k) - 1;
+			if ((l & 1) != 0) {
+				double lo = (k == 0) ? ring[(int) (l & mask)] : mins[k][(int) (l & levelMask)];
+				double hi = (k == 0) ? lo : maxs[k][(int) (l & levelMask)];
+				if (lo < min)
+					min = lo;
+				if (hi > max)
+					max = hi;
+				l++;
+			}
+			if ((r & 1) != 0) {
+				r--;
+				double lo = (k == 0) ? ring[(int) (r & mask)] : mins[k][(int) (r & levelMask)];
+				double hi = (k == 0) ? lo : maxs[k][(int) (r & levelMask)];
+				if (lo < min)
+					min = lo;
+				if (hi > max)
+					max = hi;
+			}
+			l >>= 1;
+			r >>= 1;
+		}
+		minMax[0] = min;
+		minMax[1] = max;
+	}
+
+}
@@ -0,0 +1,135 @@
+package signal;
+
+/**
+ * Maximum of a sliding window of samples. Implemented with a monotonic
+ * deque: it keeps only the samples which can still be the maximum, so
+ * adding a sample and evicting the old ones is O(1) amortized.
+ * 
+ * @author Nagy Tamas
+ *
+ */
+public class MovingMaximum {
+
+	/**
+	 * The initial capacity of the deque, must be a power of two.
+	 */
+	private static final int DEFAULT_CAPACITY = 64;
+
+	/**
+	 * The indices of the candidate samples, in increasing order.
+	 */
+	private long[] indices;
+
+	/**
+	 * The values of the candidate samples, in decreasing order.
+	 */
+	private double[] values;
+
+	/**
+	 * The position of the first candidate in the arrays.
+	 */
+	private int head;
+
+	/**
+	 * The number of candidates.
+	 */
+	private int size;
+
+	/**
+	 * The index of the last added sample.
+	 */
+	private long lastIndex = Long.MIN_VALUE;
+
+	/**
+	 * Default constructor.
+	 */
+	public MovingMaximum() {
+		indices = new long[DEFAULT_CAPACITY];
+		values = new double[DEFAULT_CAPACITY];
+	}
+
+	/**
+	 * Adds a new sample to the window.
+	 * 
+	 * @param index the index of the sample, has to be greater than the index
+	 *            of the previous sample.
+	 * @param y the value of the sample.
+	 */
+	public void add(long index, double y) {
+		int mask = indices.length - 1;
+		while (size > 0 && values[(head + size - 1) & mask] <= y) {
+			size--;
+		}
+		if (size == indices.length) {
+			grow();
+			mask = indices.length - 1;
+		}
+		indices[(head + size) & mask] = index;
+		values[(head + size) & mask] = y;
+		size++;
+		lastIndex = index;
+	}
+
+	/**
+	 * Removes the samples with index less than the given index from the
+	 * window.
+	 * 
+	 * @param index the index of the first sample of the window.
+	 */
+	public void evictBefore(long index) {
+		int mask = indices.length - 1;
+		while (size > 0 && indices[head] < index) {
+			head = (head + 1) & mask;
+			size--;
+		}
+	}
+
+	/**
+	 * @return the maximum of the window, or negative infinity if the window is
+	 *         empty.
+	 */
+	public double max() {
+		if (size == 0)
+			return Double.NEGATIVE_INFINITY;
+		return values[head];
+	}
+
+	/**
+	 * @return true, if there is no sample in the window.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return the index of the last added sample.
+	 */
+	public long getLastIndex() {
+		return lastIndex;
+	}
+
+	/**
+	 * Clears the window.
+	 */
+	public void clear() {
+		head = 0;
+		size = 0;
+		lastIndex = Long.MIN_VALUE;
+	}
+
+	/**
+	 * Doubles the capacity of the deque.
+	 */
+	private void grow() {
+		int mask = indices.length - 1;
+		long[] newIndices = new long[indices.length << 1];
+		double[] newValues = new double[values.length << 1];
+		for (int i = 0; i < size; i++) {
+			newIndices[i] = indices[(head + i) & mask];
+			newValues[i] = values[(head + i) & mask];
+		}
+		indices = newIndices;
+		values = newValues;
+		head = 0;
+	}
+}
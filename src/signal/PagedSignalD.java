@@ -0,0 +1,487 @@
+package signal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A read-only evenly sampled signal, too long to be kept in the memory. The
+ * samples are read from a SampleSource in pages of PAGE_SIZE samples, when
+ * they are needed, and the least recently used pages are dropped. The min and
+ * max of every block of OVERVIEW_BLOCK samples (the overview) is calculated
+ * by a background thread, so a long part of the signal can be drawn without
+ * reading it.
+ *
+ * Until the overview is complete, max(), min() and mean() only take the
+ * samples read by the background thread into account, and the columns of
+ * snapshot(double, double, int) that aren't covered by the overview are left
+ * out.
+ *
+ * @author Nagy Tamas
+ *
+ */
+public class PagedSignalD extends YSignal<Double> implements Closeable {
+
+	/**
+	 * The number of samples of a page, a multiple of OVERVIEW_BLOCK.
+	 */
+	public static final int PAGE_SIZE = 1 << 16;
+
+	/**
+	 * The number of samples of a block of the overview.
+	 */
+	public static final int OVERVIEW_BLOCK = 1 << 8;
+
+	/**
+	 * The default max number of pages kept in the memory.
+	 */
+	public static final int DEFAULT_MAX_PAGES = 64;
+
+	private final SampleSource source;
+	private final int size;
+	private final int maxPages;
+	// Decoded pages by page index, in the order of access
+	private final LinkedHashMap<Integer, double[]> pages;
+
+	// Written by the overview thread, published by overviewBlocks
+	private final double[] overviewMins;
+	private final double[] overviewMaxs;
+	private double overviewSum;
+	// The number of blocks of the overview calculated so far
+	private volatile int overviewBlocks;
+	private volatile double overviewMin = Double.POSITIVE_INFINITY;
+	private volatile double overviewMax = Double.NEGATIVE_INFINITY;
+	private volatile float overviewMean;
+
+	private final Thread overviewThread;
+	private volatile boolean closed;
+	// The first failed read, logged once
+	private volatile IOException readFailure;
+
+	/**
+	 * Constructor, with the default number of pages. The first page is read
+	 * at once, the rest of the overview in the background.
+	 *
+	 * @param source
+	 *            the samples, closed by close().
+	 * @throws IOException
+	 */
+	public PagedSignalD(SampleSource source) throws IOException {
+		this(source, DEFAULT_MAX_PAGES);
+	}
+
+	/**
+	 * Constructor. The first page is read at once, the rest of the overview
+	 * in the background.
+	 *
+	 * @param source
+	 *            the samples, closed by close().
+	 * @param maxPages
+	 *            the max number of pages kept in the memory.
+	 * @throws IOException
+	 */
+	public PagedSignalD(SampleSource source, int maxPages) throws IOException {
+		this.source = source;
+		this.size = (int) Math.min(source.getSampleCount(), Integer.MAX_VALUE);
+		this.maxPages = Math.max(maxPages, 2);
+		this.dt = source.getSamplingTime();
+		this.startTime = 0.0;
+		pages = new LinkedHashMap<Integer, double[]>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = -6532218549036117236L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, double[]> eldest) {
+				return size() > PagedSignalD.this.maxPages;
+			}
+		};
+		int blocks = (int) ((size + (long) OVERVIEW_BLOCK - 1) / OVERVIEW_BLOCK);
+		overviewMins = new double[blocks];
+		overviewMaxs = new double[blocks];
+		// The extent of the first page is known for the first paint
+		if (size > 0)
+			addToOverview(0, getPage(0));
+		overviewThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				calculateOverview();
+			}
+		}, "Overview");
+		overviewThread.setDaemon(true);
+		overviewThread.setPriority(Thread.MIN_PRIORITY);
+		overviewThread.start();
+	}
+
+	/**
+	 * Reads the pages after the first one, and adds them to the overview. The
+	 * pages aren't cached, not to drop the pages being drawn.
+	 */
+	private void calculateOverview() {
+		int pageCount = getPageCount();
+		try {
+			for (int page = 1; page < pageCount && !closed; page++) {
+				double[] samples = new double[getPageLength(page)];
+				source.read((long) page * PAGE_SIZE, samples.length, samples);
+				addToOverview(page, samples);
+			}
+		} catch (IOException e) {
+			if (!closed)
+				readFailed("the overview", e);
+		}
+	}
+
+	/**
+	 * Logs the first failed read, the later ones are likely to have the same
+	 * cause.
+	 */
+	private void readFailed(String what, IOException e) {
+		if (readFailure == null)
+			System.err.println("Can't read " + what + " of the paged signal: " + e);
+		readFailure = e;
+	}
+
+	/**
+	 * @return the last failed read, or null. The samples that couldn't be
+	 *         read are 0, and the overview stops at the failure.
+	 */
+	public IOException getReadFailure() {
+		return readFailure;
+	}
+
+	/**
+	 * Calculates the blocks of a page. The pages are added in order.
+	 */
+	private void addToOverview(int page, double[] samples) {
+		int block = page * (PAGE_SIZE / OVERVIEW_BLOCK);
+		double min = overviewMin;
+		double max = overviewMax;
+		for (int i = 0; i < samples.length; i += OVERVIEW_BLOCK, block++) {
+			int e = Math.min(i + OVERVIEW_BLOCK, samples.length);
+			double blockMin = Double.POSITIVE_INFINITY;
+			double blockMax = Double.NEGATIVE_INFINITY;
+			for (int j = i; j < e; j++) {
+				double y = samples[j];
+				if (y < blockMin)
+					blockMin = y;
+				if (y > blockMax)
+					blockMax = y;
+				overviewSum += y;
+			}
+			overviewMins[block] = blockMin;
+			overviewMaxs[block] = blockMax;
+			if (blockMin < min)
+				min = blockMin;
+			if (blockMax > max)
+				max = blockMax;
+		}
+		int read = (int) Math.min(size, (page + 1L) * PAGE_SIZE);
+		synchronized (this) {
+			overviewMin = min;
+			overviewMax = max;
+			overviewMean = (float) (overviewSum / read);
+			overviewBlocks = block;
+			modified();
+		}
+	}
+
+	/**
+	 * @return true, if the overview covers the whole signal.
+	 */
+	public boolean isOverviewComplete() {
+		return overviewBlocks == overviewMins.length;
+	}
+
+	private int getPageCount() {
+		return (size + PAGE_SIZE - 1) / PAGE_SIZE;
+	}
+
+	private int getPageLength(int page) {
+		return Math.min(PAGE_SIZE, size - page * PAGE_SIZE);
+	}
+
+	/**
+	 * @param page
+	 *            the index of the page.
+	 * @return the samples of the page, read if it isn't in the memory.
+	 */
+	private synchronized double[] getPage(int page) {
+		double[] samples = pages.get(page);
+		if (samples == null) {
+			samples = new double[getPageLength(page)];
+			try {
+				source.read((long) page * PAGE_SIZE, samples.length, samples);
+				pages.put(page, samples);
+			} catch (IOException e) {
+				// Not cached, so it is read again next time
+				readFailed("page " + page, e);
+			}
+		}
+		return samples;
+	}
+
+	/**
+	 * Copies a range of samples.
+	 */
+	private synchronized void read(long from, long to, double[] dst) {
+		int i = 0;
+		while (from < to) {
+			int page = (int) (from / PAGE_SIZE);
+			int offset = (int) (from % PAGE_SIZE);
+			int count = (int) Math.min(to - from, PAGE_SIZE - offset);
+			System.arraycopy(getPage(page), offset, dst, i, count);
+			i += count;
+			from += count;
+		}
+	}
+
+	/**
+	 * Finds the min and max of a range of samples, by reading them.
+	 */
+	private synchronized void minMax(long from, long to, double[] minMax) {
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		while (from < to) {
+			int page = (int) (from / PAGE_SIZE);
+			int offset = (int) (from % PAGE_SIZE);
+			int count = (int) Math.min(to - from, PAGE_SIZE - offset);
+			double[] samples = getPage(page);
+			for (int j = offset; j < offset + count; j++) {
+				if (samples[j] < min)
+					min = samples[j];
+				if (samples[j] > max)
+					max = samples[j];
+			}
+			from += count;
+		}
+		minMax[0] = min;
+		minMax[1] = max;
+	}
+
+	/* (non-Javadoc)
+	 * @see signal.YSignal#get(int)
+	 */
+	@Override
+	public Double get(int index) {
+		return getDouble(index);
+	}
+
+	/* (non-Javadoc)
+	 * @see signal.YSignal#getDouble(int)
+	 */
+	@Override
+	public synchronized double getDouble(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		return getPage(index / PAGE_SIZE)[index % PAGE_SIZE];
+	}
+
+	/* (non-Javadoc)
+	 * @see signal.YSignal#getLast()
+	 */
+	@Override
+	public Double getLast() {
+		return get(size - 1);
+	}
+
+	/* (non-Javadoc)
+	 * @see signal.YSignal#getFirst()
+	 */
+	@Override
+	public Double getFirst() {
+		return get(0);
+	}
+
+	/* (non-Javadoc)
+	 * @see signal.YSignal#getLength()
+	 */
+	@Override
+	public synchronized double getLength() {
+		return (size - 1) * dt;
+	}
+
+	/* (non-Javadoc)
+	 * @see signal.Signal#isEmpty()
+	 */
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see signal.Signal#size()
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/* (non-Javadoc)
+	 * @see signal.Signal#mean()
+	 */
+	@Override
+	public float mean() {
+		return overviewMean;
+	}
+
+	/* (non-Javadoc)
+	 * @see signal.Signal#max()
+	 */
+	@Override
+	public Double max() {
+		return overviewMax;
+	}
+
+	/* (non-Javadoc)
+	 * @see signal.Signal#min()
+	 */
+	@Override
+	public Double min() {
+		return overviewMin;
+	}
+
+	/**
+	 * Makes a snapshot of the overview, the min and max of every two blocks
+	 * of OVERVIEW_BLOCK samples, without reading the pages. The whole signal
+	 * may not fit into the memory.
+	 *
+	 * @see signal.YSignal#snapshot()
+	 */
+	@Override
+	public synchronized SignalSnapshot snapshot() {
+		// Columns of two blocks at least, so they are taken from the overview
+		return snapshot(getFirstX(), getLastX(), size / (2 * OVERVIEW_BLOCK));
+	}
+
+	/* (non-Javadoc)
+	 * @see signal.Signal#snapshotExtent()
+	 */
+	@Override
+	public synchronized SignalSnapshot snapshotExtent() {
+		return new SignalSnapshot(null, new double[0], 0, startTime, dt, size, getFirstX(), getLastX(),
+				overviewMin, overviewMax, getVersion());
+	}
+
+	/**
+	 * Copies the samples between fromX and toX, or if there are more than two
+	 * samples per column, the min and max of the samples of each column. Long
+	 * columns are taken from the overview, only the pages of short ones are
+	 * read.
+	 *
+	 * @see signal.Signal#snapshot(double, double, int)
+	 */
+	@Override
+	public synchronized SignalSnapshot snapshot(double fromX, double toX, int columns) {
+		double firstX = getFirstX();
+		double lastX = getLastX();
+		if (size == 0)
+			return snapshotExtent();
+		// The sample before fromX and the sample after toX are kept, so the curve reaches the edges
+		long i0 = (long) Math.max(0.0, Math.min(size, Math.floor((fromX - startTime) / dt)));
+		long i1 = (long) Math.max(0.0, Math.min(size, Math.ceil((toX - startTime) / dt) + 1));
+		long count = i1 - i0;
+		if (columns <= 0 || count <= 2L * columns) {
+			double[] ys = new double[(int) count];
+			read(i0, i1, ys);
+			return new SignalSnapshot(null, ys, ys.length, startTime + i0 * dt, dt, size, firstX, lastX,
+					overviewMin, overviewMax, getVersion());
+		}
+		// A vertical line from the min to the max of each column
+		double[] xs = new double[2 * columns];
+		double[] ys = new double[2 * columns];
+		double[] columnMinMax = new double[2];
+		int blocks = overviewBlocks;
+		int points = 0;
+		for (int c = 0; c < columns; c++) {
+			long a = i0 + count * c / columns;
+			long e = i0 + count * (c + 1) / columns;
+			if (e - a >= 2 * OVERVIEW_BLOCK) {
+				// The blocks at the edges may stick out of the column by less than a block
+				int firstBlock = (int) (a / OVERVIEW_BLOCK);
+				int lastBlock = (int) ((e - 1) / OVERVIEW_BLOCK);
+				if (lastBlock >= blocks)
+					continue;
+				double min = Double.POSITIVE_INFINITY;
+				double max = Double.NEGATIVE_INFINITY;
+				for (int b = firstBlock; b <= lastBlock; b++) {
+					if (overviewMins[b] < min)
+						min = overviewMins[b];
+					if (overviewMaxs[b] > max)
+						max = overviewMaxs[b];
+				}
+				columnMinMax[0] = min;
+				columnMinMax[1] = max;
+			} else {
+				minMax(a, e, columnMinMax);
+			}
+			xs[points] = startTime + a * dt;
+			xs[points + 1] = xs[points];
+			ys[points] = columnMinMax[0];
+			ys[points + 1] = columnMinMax[1];
+			points += 2;
+		}
+		return new SignalSnapshot(xs, ys, points, 0.0, 0.0, size, firstX, lastX, overviewMin, overviewMax,
+				getVersion());
+	}
+
+	private double getFirstX() {
+		return (size == 0) ? Double.NaN : startTime;
+	}
+
+	private double getLastX() {
+		return (size == 0) ? Double.NaN : startTime + (size - 1) * dt;
+	}
+
+	/* (non-Javadoc)
+	 * @see signal.YSignal#concatByteArrayToSignal(float, byte[], int)
+	 */
+	@Override
+	public void concatByteArrayToSignal(float dt, byte[] bytes, int numBytesPerInt) {
+		throw new UnsupportedOperationException("PagedSignalD is read-only.");
+	}
+
+	/* (non-Javadoc)
+	 * @see signal.YSignal#set(int, java.lang.Number)
+	 */
+	@Override
+	public void set(int index, Double y) {
+		throw new UnsupportedOperationException("PagedSignalD is read-only.");
+	}
+
+	/* (non-Javadoc)
+	 * @see signal.YSignal#minus(java.lang.Number)
+	 */
+	@Override
+	public void minus(Double i) {
+		throw new UnsupportedOperationException("PagedSignalD is read-only.");
+	}
+
+	/* (non-Javadoc)
+	 * @see signal.YSignal#plus(java.lang.Number)
+	 */
+	@Override
+	public void plus(Double i) {
+		throw new UnsupportedOperationException("PagedSignalD is read-only.");
+	}
+
+	/**
+	 * Stops the overview thread, drops the pages and closes the source.
+	 *
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		try {
+			overviewThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			pages.clear();
+		}
+		source.close();
+	}
+
+}
@@ -0,0 +1,235 @@
+package signal;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Decodes linear PCM audio data (8, 16, 24 or 32 bit, signed or unsigned, big
+ * or little endian) into primitive arrays. Only the first channel of each
+ * frame is decoded. The decoder reads the samples with absolute gets, so it
+ * doesn't allocate anything per call and doesn't change the position or the
+ * byte order of the source buffer.
+ * 
+ * @author Nagy Tamas
+ *
+ */
+public class PcmDecoder {
+
+	/**
+	 * The number of bytes of one sample.
+	 */
+	private final int bytesPerSample;
+
+	/**
+	 * The number of bytes of one frame (one sample of every channel).
+	 */
+	private final int frameSize;
+
+	/**
+	 * Signed or unsigned samples.
+	 */
+	private final boolean signed;
+
+	/**
+	 * The byte order of the samples.
+	 */
+	private final ByteOrder order;
+
+	/**
+	 * Shift used for sign extension.
+	 */
+	private final int shift;
+
+	/**
+	 * The last byte array decoded, and the buffer wrapping it.
+	 */
+	private byte[] wrappedArray;
+	private ByteBuffer wrapper;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param sampleSizeInBits 8, 16, 24 or 32.
+	 * @param channels the number of channels.
+	 * @param signed signed or unsigned samples.
+	 * @param bigEndian the byte order of the samples.
+	 */
+	public PcmDecoder(int sampleSizeInBits, int channels, boolean signed, boolean bigEndian) {
+		if (sampleSizeInBits != 8 && sampleSizeInBits != 16 && sampleSizeInBits != 24 && sampleSizeInBits != 32)
+			throw new IllegalArgumentException("Unsupported sample size: " + sampleSizeInBits);
+		this.bytesPerSample = sampleSizeInBits / ByteArray.BITS_PER_BYTE;
+		this.frameSize = bytesPerSample * channels;
+		this.signed = signed;
+		this.order = bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+		this.shift = 32 - sampleSizeInBits;
+	}
+
+	/**
+	 * Reads one sample.
+	 * 
+	 * @param src the PCM data.
+	 * @param position the byte position of the sample.
+	 * @param swap the byte order of the buffer differs from the byte order of
+	 *            the samples.
+	 * @return the sample.
+	 */
+	private int read(ByteBuffer src, int position, boolean swap) {
+		int v;
+		switch (bytesPerSample) {
+		case 1:
+			v = src.get(position);
+			break;
+		case 2:
+			short s = src.getShort(position);
+			v = swap ? Short.reverseBytes(s) : s;
+			break;
+		case 3:
+			if (order == ByteOrder.BIG_ENDIAN)
+				v = (src.get(position) << 16) | ((src.get(position + 1) & 0xFF) << 8) | (src.get(position + 2) & 0xFF);
+			else
+				v = (src.get(position + 2) << 16) | ((src.get(position + 1) & 0xFF) << 8) | (src.get(position) & 0xFF);
+			break;
+		default:
+			int i = src.getInt(position);
+			v = swap ? Integer.reverseBytes(i) : i;
+			break;
+		}
+		if (!signed)
+			v = ((v ^ (1 << (31 - shift))) << shift) >> shift;
+		return v;
+	}
+
+	/**
+	 * @param src the PCM data.
+	 * @return a buffer wrapping the array, reused if the same array is decoded again.
+	 */
+	private ByteBuffer wrap(byte[] src) {
+		if (src != wrappedArray) {
+			wrapper = ByteBuffer.wrap(src).order(order);
+			wrappedArray = src;
+		}
+		return wrapper;
+	}
+
+	/**
+	 * Reads one sample.
+	 * 
+	 * @param src the PCM data.
+	 * @param position the byte position of the frame.
+	 * @return the first sample of the frame.
+	 */
+	public int sample(ByteBuffer src, int position) {
+		return read(src, position, src.order() != order);
+	}
+
+	/**
+	 * Decodes frames into a double array.
+	 * 
+	 * @param src the PCM data.
+	 * @param offset the byte position of the first frame.
+	 * @param frames the number of frames to decode.
+	 * @param dst the destination array.
+	 * @param dstOffset the index of the first decoded sample in dst.
+	 * @return the number of decoded samples.
+	 */
+	public int decode(ByteBuffer src, int offset, int frames, double[] dst, int dstOffset) {
+		boolean swap = src.order() != order;
+		for (int i = 0; i < frames; i++) {
+			dst[dstOffset + i] = read(src, offset + i * frameSize, swap);
+		}
+		return frames;
+	}
+
+	/**
+	 * Decodes frames into a double array.
+	 * 
+	 * @see #decode(ByteBuffer, int, int, double[], int)
+	 */
+	public int decode(byte[] src, int offset, int frames, double[] dst, int dstOffset) {
+		return decode(wrap(src), offset, frames, dst, dstOffset);
+	}
+
+	/**
+	 * Decodes frames into a float array.
+	 * 
+	 * @param src the PCM data.
+	 * @param offset the byte position of the first frame.
+	 * @param frames the number of frames to decode.
+	 * @param dst the destination array.
+	 * @param dstOffset the index of the first decoded sample in dst.
+	 * @return the number of decoded samples.
+	 */
+	public int decode(ByteBuffer src, int offset, int frames, float[] dst, int dstOffset) {
+		boolean swap = src.order() != order;
+		for (int i = 0; i < frames; i++) {
+			dst[dstOffset + i] = read(src, offset + i * frameSize, swap);
+		}
+		return frames;
+	}
+
+	/**
+	 * Decodes frames into a float array.
+	 * 
+	 * @see #decode(ByteBuffer, int, int, float[], int)
+	 */
+	public int decode(byte[] src, int offset, int frames, float[] dst, int dstOffset) {
+		return decode(wrap(src), offset, frames, dst, dstOffset);
+	}
+
+	/**
+	 * Decodes frames and averages every n of them into one sample.
+	 * 
+	 * @param src the PCM data.
+	 * @param offset the byte position of the first frame.
+	 * @param frames the number of frames to decode, an incomplete group of n
+	 *            frames at the end is ignored.
+	 * @param n the number of frames averaged into one sample.
+	 * @param dst the destination array.
+	 * @param dstOffset the index of the first averaged sample in dst.
+	 * @return the number of averaged samples.
+	 */
+	public int decodeAverage(ByteBuffer src, int offset, int frames, int n, double[] dst, int dstOffset) {
+		boolean swap = src.order() != order;
+		int count = frames / n;
+		int position = offset;
+		for (int i = 0; i < count; i++) {
+			long sum = 0;
+			for (int j = 0; j < n; j++) {
+				sum += read(src, position, swap);
+				position += frameSize;
+			}
+			dst[dstOffset + i] = ((double) sum) / n;
+		}
+		return count;
+	}
+
+	/**
+	 * Decodes frames and averages every n of them into one sample.
+	 * 
+	 * @see #decodeAverage(ByteBuffer, int, int, int, double[], int)
+	 */
+	public int decodeAverage(byte[] src, int offset, int frames, int n, double[] dst, int dstOffset) {
+		return decodeAverage(wrap(src), offset, frames, n, dst, dstOffset);
+	}
+
+	/**
+	 * @return the number of bytes of one frame.
+	 */
+	public int getFrameSize() {
+		return frameSize;
+	}
+
+	/**
+	 * @return the number of bytes of one sample.
+	 */
+	public int getBytesPerSample() {
+		return bytesPerSample;
+	}
+
+	/**
+	 * @return the byte order of the samples.
+	 */
+	public ByteOrder getOrder() {
+		return order;
+	}
+}
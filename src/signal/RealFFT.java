@@ -0,0 +1,147 @@
+package signal;
+
+/**
+ * In-place radix-2 FFT of real data. The n real values are transformed as
+ * n/2 complex values, and the result is split into the spectrum of the real
+ * data. The twiddle factors and the bit reversal permutation are calculated
+ * once, in the constructor, a transform allocates nothing.
+ *
+ * The result is packed into the input array: data[0] is the DC component,
+ * data[1] is the real component at n/2, and data[2k], data[2k+1] are the real
+ * and the imaginary part of the component k, for 0 &lt; k &lt; n/2.
+ *
+ * @author Nagy Tamas
+ *
+ */
+public class RealFFT {
+
+	private final int n;
+	// The number of complex values
+	private final int half;
+	// exp(-2 pi i m / half) for m < half / 2
+	private final double[] cos;
+	private final double[] sin;
+	// exp(-2 pi i k / n) for k <= half / 2, used by the split
+	private final double[] splitCos;
+	private final double[] splitSin;
+	private final int[] bitReverse;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param n
+	 *            the number of real values, a power of two, at least 4.
+	 */
+	public RealFFT(int n) {
+		if (n < 4 || Integer.bitCount(n) != 1)
+			throw new IllegalArgumentException("The length must be a power of two, at least 4: " + n);
+		this.n = n;
+		half = n / 2;
+		cos = new double[half / 2];
+		sin = new double[half / 2];
+		for (int m = 0; m < half / 2; m++) {
+			cos[m] = Math.cos(2.0 * Math.PI * m / half);
+			sin[m] = -Math.sin(2.0 * Math.PI * m / half);
+		}
+		splitCos = new double[half / 2 + 1];
+		splitSin = new double[half / 2 + 1];
+		for (int k = 0; k <= half / 2; k++) {
+			splitCos[k] = Math.cos(2.0 * Math.PI * k / n);
+			splitSin[k] = -Math.sin(2.0 * Math.PI * k / n);
+		}
+		bitReverse = new int[half];
+		int bits = Integer.numberOfTrailingZeros(half);
+		for (int i = 0; i < half; i++)
+			bitReverse[i] = (bits == 0) ? 0 : Integer.reverse(i) >>> (32 - bits);
+	}
+
+	/**
+	 * Transforms the data in place.
+	 *
+	 * @param data
+	 *            n real values, replaced by the packed spectrum.
+	 */
+	public void transform(double[] data) {
+		complexTransform(data);
+		double r0 = data[0];
+		double i0 = data[1];
+		data[0] = r0 + i0;
+		data[1] = r0 - i0;
+		for (int k = 1; k <= half / 2; k++) {
+			int j = half - k;
+			double ar = data[2 * k];
+			double ai = data[2 * k + 1];
+			double br = data[2 * j];
+			double bi = data[2 * j + 1];
+			// The spectra of the even and the odd values
+			double er = 0.5 * (ar + br);
+			double ei = 0.5 * (ai - bi);
+			double or = 0.5 * (ai + bi);
+			double oi = -0.5 * (ar - br);
+			double tr = splitCos[k] * or - splitSin[k] * oi;
+			double ti = splitCos[k] * oi + splitSin[k] * or;
+			data[2 * k] = er + tr;
+			data[2 * k + 1] = ei + ti;
+			data[2 * j] = er - tr;
+			data[2 * j + 1] = ti - ei;
+		}
+	}
+
+	/**
+	 * Iterative radix-2 FFT of the interleaved complex values.
+	 */
+	private void complexTransform(double[] data) {
+		for (int i = 0; i < half; i++) {
+			int j = bitReverse[i];
+			if (j > i) {
+				double tr = data[2 * i];
+				double ti = data[2 * i + 1];
+				data[2 * i] = data[2 * j];
+				data[2 * i + 1] = data[2 * j + 1];
+				data[2 * j] = tr;
+				data[2 * j + 1] = ti;
+			}
+		}
+		for (int size = 2; size <= half; size <<= 1) {
+			int step = half / size;
+			int span = size / 2;
+			for (int start = 0; start < half; start += size) {
+				for (int k = 0; k < span; k++) {
+					double wr = cos[k * step];
+					double wi = sin[k * step];
+					int a = 2 * (start + k);
+					int b = 2 * (start + k + span);
+					double xr = data[b] * wr - data[b + 1] * wi;
+					double xi = data[b] * wi + data[b + 1] * wr;
+					data[b] = data[a] - xr;
+					data[b + 1] = data[a + 1] - xi;
+					data[a] += xr;
+					data[a + 1] += xi;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param data
+	 *            a packed spectrum.
+	 * @param k
+	 *            the index of the component, 0 &lt;= k &lt;= n/2.
+	 * @return the squared magnitude of the component.
+	 */
+	public double power(double[] data, int k) {
+		if (k == 0)
+			return data[0] * data[0];
+		if (k == half)
+			return data[1] * data[1];
+		return data[2 * k] * data[2 * k] + data[2 * k + 1] * data[2 * k + 1];
+	}
+
+	/**
+	 * @return the number of real values transformed.
+	 */
+	public int getLength() {
+		return n;
+	}
+
+}
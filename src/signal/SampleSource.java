@@ -0,0 +1,38 @@
+package signal;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Evenly sampled samples stored outside the memory (for example in a file),
+ * read piece by piece.
+ *
+ * @author Nagy Tamas
+ *
+ */
+public interface SampleSource extends Closeable {
+
+	/**
+	 * @return the number of samples.
+	 */
+	long getSampleCount();
+
+	/**
+	 * @return the sampling time.
+	 */
+	double getSamplingTime();
+
+	/**
+	 * Reads a range of samples. May be called by several threads.
+	 *
+	 * @param first
+	 *            the index of the first sample.
+	 * @param count
+	 *            the number of samples.
+	 * @param dst
+	 *            the samples are stored from index 0.
+	 * @throws IOException
+	 */
+	void read(long first, int count, double[] dst) throws IOException;
+
+}
@@ -34,6 +34,19 @@ public abstract class Signal<N extends Number> {
 	 */
 	protected String yAxisTitle = null;
 
+	/**
+	 * Incremented on every modification of the samples. Used to find out if
+	 * a calculation depending on the signal has to run again.
+	 */
+	private volatile long version = 0;
+
+	/**
+	 * Odd while the stored samples are being rewritten, incremented before and
+	 * after every modification that isn't an append. Used by the snapshots to
+	 * find out without locking if they have read a consistent state.
+	 */
+	private volatile long rewrites = 0;
+
 	/**
 	 * @return the color.
 	 */
@@ -105,6 +118,78 @@ public abstract class Signal<N extends Number> {
 		this.yAxisTitle = yAxisTitle;
 	}
 
+	/**
+	 * @return the number of modifications of the samples so far.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Has to be called by the subclasses after modifying the samples, while
+	 * holding the lock of the signal.
+	 */
+	protected void modified() {
+		version++;
+	}
+
+	/**
+	 * Has to be called by the subclasses, while holding the lock of the
+	 * signal, before modifying samples already visible to the snapshots.
+	 */
+	protected void beginRewrite() {
+		rewrites++;
+	}
+
+	/**
+	 * Has to be called after the modification started by beginRewrite().
+	 */
+	protected void endRewrite() {
+		rewrites++;
+		modified();
+	}
+
+	/**
+	 * @return the number of beginRewrite() and endRewrite() calls so far.
+	 */
+	protected long getRewrites() {
+		return rewrites;
+	}
+
+	/**
+	 * Copies the signal into an immutable snapshot. The snapshot can be read
+	 * by any thread, without locking the signal.
+	 * 
+	 * @return the snapshot.
+	 */
+	public abstract SignalSnapshot snapshot();
+
+	/**
+	 * Makes a snapshot for drawing the part of the signal between fromX and
+	 * toX into a given number of columns. The subclasses storing long signals
+	 * may leave out the other samples, and reduce the samples of a column to
+	 * their min and max. By default the whole signal is copied.
+	 * 
+	 * @param fromX the start of the drawn part.
+	 * @param toX the end of the drawn part.
+	 * @param columns the number of columns (pixels) of the drawn part.
+	 * @return the snapshot.
+	 */
+	public SignalSnapshot snapshot(double fromX, double toX, int columns) {
+		return snapshot();
+	}
+
+	/**
+	 * Makes a snapshot of the extent of the signal (size, first and last x,
+	 * min and max). The subclasses storing long signals may leave out the
+	 * samples. By default the whole signal is copied.
+	 * 
+	 * @return the snapshot.
+	 */
+	public SignalSnapshot snapshotExtent() {
+		return snapshot();
+	}
+
 	/**
 	 * @return the mean of the signal.
 	 */
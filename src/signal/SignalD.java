@@ -1,23 +1,63 @@
 package signal;
 
 import java.awt.Color;
-import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
- * Represents a list signal with double values.
- * 
+ * Represents an evenly sampled signal with double values. The samples are
+ * stored in a primitive ring buffer, so appending a sample and removing the
+ * oldest samples are O(1) operations and no object is created per sample.
+ *
  * @author Nagy Tamas
  *
  */
-public class SignalD extends ArrayListYSignal<Double> {
+public class SignalD extends YSignal<Double> implements ListSignal, Iterable<Double> {
+
+	/**
+	 * The initial capacity of the ring buffer, must be a power of two.
+	 */
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	/**
+	 * The samples. Sample number i (counted from the first sample ever added)
+	 * is stored at index (i & mask).
+	 */
+	private volatile double[] buffer;
+
+	/**
+	 * buffer.length - 1.
+	 */
+	private int mask;
+
+	/**
+	 * Absolute index of the first stored sample.
+	 */
+	private volatile long first;
+
+	/**
+	 * Absolute index after the last stored sample.
+	 */
+	private volatile long end;
+
+	/**
+	 * The min/max of the blocks of the samples, for finding the min/max of a
+	 * range in O(log n).
+	 */
+	private volatile MinMaxPyramid pyramid;
+
+	/**
+	 * The max number of lock-free attempts of snapshot(), before it takes the
+	 * lock of the signal.
+	 */
+	private static final int SNAPSHOT_ATTEMPTS = 8;
 
 	/**
 	 * Constructor, with color.
 	 * @param color
 	 */
 	public SignalD(Color color) {
-		startTime = 0.0f;
-		values = new ArrayList<>();
+		this();
 		this.color = color;
 	}
 
@@ -26,7 +66,9 @@ public class SignalD extends ArrayListYSignal<Double> {
 	 */
 	public SignalD() {
 		startTime = 0.0f;
-		values = new ArrayList<>();
+		buffer = new double[DEFAULT_CAPACITY];
+		mask = DEFAULT_CAPACITY - 1;
+		pyramid = new MinMaxPyramid(DEFAULT_CAPACITY);
 	}
 
 	/**
@@ -35,9 +77,8 @@ public class SignalD extends ArrayListYSignal<Double> {
 	 * @param color
 	 */
 	public SignalD(double dt, Color color) {
-		startTime = 0.0f;
+		this();
 		this.dt = dt;
-		values = new ArrayList<>();
 		this.color = color;
 	}
 
@@ -46,88 +87,431 @@ public class SignalD extends ArrayListYSignal<Double> {
 	 * @param dt
 	 */
 	public SignalD(double dt) {
-		startTime = 0.0f;
+		this();
 		this.dt = dt;
-		values = new ArrayList<>();
+	}
+
+	/**
+	 * Doubles the capacity of the ring buffer.
+	 */
+	private void grow() {
+		double[] newBuffer = new double[buffer.length << 1];
+		int newMask = newBuffer.length - 1;
+		for (long i = first; i < end; i++) {
+			newBuffer[(int) (i & newMask)] = buffer[(int) (i & mask)];
+		}
+		MinMaxPyramid newPyramid = new MinMaxPyramid(newBuffer.length);
+		newPyramid.rebuild(newBuffer, first, end);
+		beginRewrite();
+		buffer = newBuffer;
+		mask = newMask;
+		pyramid = newPyramid;
+		endRewrite();
+	}
+
+	/**
+	 * Calculates the min/max pyramid again, after rewriting samples.
+	 */
+	private void rebuildPyramid() {
+		pyramid.rebuild(buffer, first, end);
+	}
+
+	/**
+	 * Throws an exception if the index is out of the signal.
+	 *
+	 * @param index
+	 */
+	private void checkIndex(int index) {
+		if (index < 0 || index >= end - first) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (end - first));
+		}
+	}
+
+	/**
+	 * Adds a new value to the end of the signal.
+	 *
+	 * @param y the new value.
+	 * @return is added.
+	 */
+	public synchronized boolean add(double y) {
+		if (end - first == buffer.length) {
+			grow();
+		}
+		buffer[(int) (end & mask)] = y;
+		pyramid.add(end, y);
+		end++;
+		modified();
+		return true;
+	}
+
+	/**
+	 * Adds new values to the end of the signal.
+	 *
+	 * @param ys the new values.
+	 * @param offset the index of the first new value in ys.
+	 * @param length the number of new values.
+	 */
+	public synchronized void addAll(double[] ys, int offset, int length) {
+		if (length <= 0)
+			return;
+		while (end - first + length > buffer.length) {
+			grow();
+		}
+		int slot = (int) (end & mask);
+		int firstPart = Math.min(length, buffer.length - slot);
+		System.arraycopy(ys, offset, buffer, slot, firstPart);
+		System.arraycopy(ys, offset + firstPart, buffer, 0, length - firstPart);
+		for (int i = 0; i < length; i++) {
+			pyramid.add(end + i, ys[offset + i]);
+		}
+		end += length;
+		modified();
+	}
+
+	/**
+	 * Adds a new value at a given index.
+	 *
+	 * @param index
+	 * @param y the new value.
+	 */
+	public synchronized void add(int index, double y) {
+		if (index < 0 || index > end - first) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (end - first));
+		}
+		if (end - first == buffer.length) {
+			grow();
+		}
+		beginRewrite();
+		for (long i = end; i > first + index; i--) {
+			buffer[(int) (i & mask)] = buffer[(int) ((i - 1) & mask)];
+		}
+		buffer[(int) ((first + index) & mask)] = y;
+		end++;
+		rebuildPyramid();
+		endRewrite();
 	}
 
 	/* (non-Javadoc)
-	 * @see plethysmography.signal.ArrayListYSignal#modulate(plethysmography.signal.SignalF)
+	 * @see signal.YSignal#get(int)
 	 */
 	@Override
-	public synchronized void modulate(SignalF modulator) {
-		for (int i = 0; i < values.size(); i++) {
-			set(i, (values.get(i) * modulator.get(i % modulator.size())));
+	public synchronized Double get(int index) {
+		return getDouble(index);
+	}
+
+	/* (non-Javadoc)
+	 * @see signal.YSignal#getDouble(int)
+	 */
+	@Override
+	public synchronized double getDouble(int index) {
+		checkIndex(index);
+		return buffer[(int) ((first + index) & mask)];
+	}
+
+	/* (non-Javadoc)
+	 * @see signal.YSignal#set(int, java.lang.Number)
+	 */
+	@Override
+	public synchronized void set(int index, Double y) {
+		checkIndex(index);
+		beginRewrite();
+		buffer[(int) ((first + index) & mask)] = y;
+		rebuildPyramid();
+		endRewrite();
+	}
+
+	/* (non-Javadoc)
+	 * @see signal.YSignal#getLast()
+	 */
+	@Override
+	public synchronized Double getLast() {
+		return getDouble((int) (end - first) - 1);
+	}
+
+	/* (non-Javadoc)
+	 * @see signal.YSignal#getFirst()
+	 */
+	@Override
+	public synchronized Double getFirst() {
+		return getDouble(0);
+	}
+
+	/**
+	 * Removes all elements of the signal.
+	 */
+	public synchronized void clear() {
+		beginRewrite();
+		first = end;
+		startTime = 0.0;
+		endRewrite();
+	}
+
+	/**
+	 * Removes the sample at a given index. Removing the first sample is O(1).
+	 *
+	 * @param index
+	 */
+	public synchronized void remove(int index) {
+		checkIndex(index);
+		if (index == 0) {
+			removeFirst(1);
+			return;
+		}
+		beginRewrite();
+		for (long i = first + index; i < end - 1; i++) {
+			buffer[(int) (i & mask)] = buffer[(int) ((i + 1) & mask)];
+		}
+		end--;
+		rebuildPyramid();
+		endRewrite();
+	}
+
+	/**
+	 * @return the index of the first sample, counted from the first sample ever
+	 *         added to the signal.
+	 */
+	public synchronized long getFirstIndex() {
+		return first;
+	}
+
+	/**
+	 * @return the index after the last sample, counted from the first sample
+	 *         ever added to the signal.
+	 */
+	public synchronized long getEndIndex() {
+		return end;
+	}
+
+	/**
+	 * Removes the oldest samples of the signal in O(1).
+	 *
+	 * @param n the number of samples to remove.
+	 */
+	public synchronized void removeFirst(int n) {
+		if (n > end - first) {
+			n = (int) (end - first);
+		}
+		if (n > 0) {
+			beginRewrite();
+			first += n;
+			startTime += n * dt;
+			endRewrite();
+		}
+	}
+
+	/**
+	 * Removes the oldest samples, so the signal isn't longer than maxLength.
+	 *
+	 * @param maxLength the max length of the signal in seconds.
+	 */
+	public synchronized void manageSize(double maxLength) {
+		int maxSize = (int) Math.round(maxLength / dt) + 1;
+		if (end - first > maxSize) {
+			removeFirst((int) (end - first) - maxSize);
 		}
 	}
 
 	/* (non-Javadoc)
-	 * @see plethysmography.signal.Signal#max()
+	 * @see signal.ListSignal#removeAll()
 	 */
 	@Override
-	public synchronized Double max() {
-		double max = Float.NEGATIVE_INFINITY;
-		for (double y : this) {
-			if (y > max) {
-				max = y;
+	public synchronized void removeAll() {
+		beginRewrite();
+		startTime = getX((int) (end - first) - 1) + dt;
+		first = end;
+		endRewrite();
+	}
+
+	/* (non-Javadoc)
+	 * @see signal.Signal#isEmpty()
+	 */
+	@Override
+	public synchronized boolean isEmpty() {
+		return end == first;
+	}
+
+	/* (non-Javadoc)
+	 * @see signal.Signal#size()
+	 */
+	@Override
+	public synchronized int size() {
+		return (int) (end - first);
+	}
+
+	/* (non-Javadoc)
+	 * @see signal.YSignal#getLength()
+	 */
+	@Override
+	public synchronized double getLength() {
+		return (end - first - 1) * dt;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Iterable#iterator()
+	 */
+	@Override
+	public synchronized Iterator<Double> iterator() {
+		return new Iterator<Double>() {
+
+			private long i = first;
+
+			@Override
+			public boolean hasNext() {
+				return i < end;
+			}
+
+			@Override
+			public Double next() {
+				if (i >= end) {
+					throw new NoSuchElementException();
+				}
+				return buffer[(int) (i++ & mask)];
 			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Multiplies the signal with the periodically repeated modulator signal.
+	 *
+	 * @param modulator the modulator signal.
+	 */
+	public synchronized void modulate(SignalF modulator) {
+		int size = (int) (end - first);
+		beginRewrite();
+		for (int i = 0; i < size; i++) {
+			int slot = (int) ((first + i) & mask);
+			buffer[slot] = buffer[slot] * modulator.get(i % modulator.size());
+		}
+		rebuildPyramid();
+		endRewrite();
+	}
+
+	/* (non-Javadoc)
+	 * @see signal.Signal#mean()
+	 */
+	@Override
+	public synchronized float mean() {
+		double mean = 0.0;
+		for (long i = first; i < end; i++) {
+			mean += buffer[(int) (i & mask)];
 		}
-		return max;
+		return (float) (mean / (end - first));
 	}
 
 	/* (non-Javadoc)
-	 * @see plethysmography.signal.Signal#min()
+	 * @see signal.Signal#max()
+	 */
+	@Override
+	public synchronized Double max() {
+		double[] minMax = new double[2];
+		pyramid.minMax(buffer, first, end, minMax);
+		return minMax[1];
+	}
+
+	/* (non-Javadoc)
+	 * @see signal.Signal#min()
 	 */
 	@Override
 	public synchronized Double min() {
-		double min = Float.POSITIVE_INFINITY;
-		for (double y : this) {
-			if (y < min) {
-				min = y;
-			}
+		double[] minMax = new double[2];
+		pyramid.minMax(buffer, first, end, minMax);
+		return minMax[0];
+	}
+
+	/**
+	 * Finds the minimum and the maximum of a range of samples in O(log n).
+	 *
+	 * @param fromIndex the index of the first sample of the range.
+	 * @param toIndex the index after the last sample of the range.
+	 * @param minMax the minimum is stored at index 0, the maximum at index 1.
+	 */
+	public synchronized void minMax(int fromIndex, int toIndex, double[] minMax) {
+		if (fromIndex < 0 || toIndex > end - first || fromIndex > toIndex) {
+			throw new IndexOutOfBoundsException("Range: " + fromIndex + "-" + toIndex + ", Size: " + (end - first));
 		}
-		return min;
+		pyramid.minMax(buffer, first + fromIndex, first + toIndex, minMax);
 	}
 
 	/* (non-Javadoc)
-	 * @see plethysmography.signal.YSignal#minus(java.lang.Number)
+	 * @see signal.YSignal#minus(java.lang.Number)
 	 */
 	@Override
 	public synchronized void minus(Double i) {
-		for (int j = 0; j < values.size(); j++) {
-			set(j, get(j) - i);
+		double d = i;
+		beginRewrite();
+		for (long j = first; j < end; j++) {
+			buffer[(int) (j & mask)] -= d;
 		}
+		rebuildPyramid();
+		endRewrite();
 	}
 
 	/* (non-Javadoc)
-	 * @see plethysmography.signal.YSignal#plus(java.lang.Number)
+	 * @see signal.YSignal#plus(java.lang.Number)
 	 */
 	@Override
 	public synchronized void plus(Double i) {
-		for (int j = 0; j < values.size(); j++) {
-			set(j, get(j) + i);
+		double d = i;
+		beginRewrite();
+		for (long j = first; j < end; j++) {
+			buffer[(int) (j & mask)] += d;
 		}
+		rebuildPyramid();
+		endRewrite();
 	}
 
-	/* (non-Javadoc)
-	 * @see plethysmography.signal.ArrayListYSignal#toArray()
+	/**
+	 * @return the signal in an array.
 	 */
-	@Override
 	public synchronized Double[] toArray() {
-		Double[] arr = new Double[values.size()];
-		for (int i = 0; i < values.size(); i++) {
-			arr[i] = values.get(i);
+		Double[] arr = new Double[(int) (end - first)];
+		for (int i = 0; i < arr.length; i++) {
+			arr[i] = buffer[(int) ((first + i) & mask)];
+		}
+		return arr;
+	}
+
+	/**
+	 * Copies samples into an array.
+	 *
+	 * @param index the index of the first copied sample.
+	 * @param dst
+	 * @param offset the index of the first sample in dst.
+	 * @param length the number of samples.
+	 */
+	public synchronized void copyTo(int index, double[] dst, int offset, int length) {
+		if (index < 0 || length < 0 || index + length > end - first) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Length: " + length + ", Size: " + (end - first));
+		}
+		int slot = (int) ((first + index) & mask);
+		int firstPart = Math.min(length, buffer.length - slot);
+		System.arraycopy(buffer, slot, dst, offset, firstPart);
+		System.arraycopy(buffer, 0, dst, offset + firstPart, length - firstPart);
+	}
+
+	/**
+	 * @return the signal in a primitive array.
+	 */
+	public synchronized double[] toDoubleArray() {
+		double[] arr = new double[(int) (end - first)];
+		for (int i = 0; i < arr.length; i++) {
+			arr[i] = buffer[(int) ((first + i) & mask)];
 		}
 		return arr;
 	}
 
 	/* (non-Javadoc)
-	 * @see plethysmography.signal.YSignal#concatByteArrayToSignal(float, byte[], int)
+	 * @see signal.YSignal#concatByteArrayToSignal(float, byte[], int)
 	 */
 	@Override
 	public synchronized void concatByteArrayToSignal(float dt, byte[] bytes,
 			int numBytesPerInt) {
-		this.dt = dt;
+		setDt(dt);
 		byte[] temp = new byte[numBytesPerInt];
 		for (int i = 0; i < bytes.length / numBytesPerInt; i++) {
 			for (int j = 0; j < numBytesPerInt; j++)
@@ -136,22 +520,149 @@ public class SignalD extends ArrayListYSignal<Double> {
 		}
 	}
 
+	/**
+	 * Copies the samples without locking the signal. Appending samples doesn't
+	 * disturb the copy, any other modification during the copy makes it start
+	 * again. Only if the signal keeps being rewritten, the lock is taken.
+	 *
+	 * @see signal.Signal#snapshot()
+	 */
+	@Override
+	public SignalSnapshot snapshot() {
+		return snapshot(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, 0, true);
+	}
+
+	/**
+	 * Copies the samples between fromX and toX, or if there are more than two
+	 * samples per column, the min and max of the samples of each column. The
+	 * cost depends on the number of columns, not on the length of the signal.
+	 *
+	 * @see signal.Signal#snapshot(double, double, int)
+	 */
+	@Override
+	public SignalSnapshot snapshot(double fromX, double toX, int columns) {
+		return snapshot(fromX, toX, columns, true);
+	}
+
+	/* (non-Javadoc)
+	 * @see signal.Signal#snapshotExtent()
+	 */
+	@Override
+	public SignalSnapshot snapshotExtent() {
+		return snapshot(0.0, 0.0, 0, false);
+	}
+
+	/**
+	 * Makes a snapshot without locking if possible, see snapshot().
+	 */
+	private SignalSnapshot snapshot(double fromX, double toX, int columns, boolean withPoints) {
+		for (int attempt = 0; attempt < SNAPSHOT_ATTEMPTS; attempt++) {
+			long rewrites = getRewrites();
+			if ((rewrites & 1) != 0) {
+				Thread.yield();
+				continue;
+			}
+			long version = getVersion();
+			long from = first;
+			long to = end;
+			double[] b = buffer;
+			MinMaxPyramid p = pyramid;
+			double t0 = startTime;
+			double sampling = dt;
+			if (to - from > b.length || p.getCapacity() != b.length)
+				continue;
+			SignalSnapshot snapshot = snapshot(b, p, from, to, t0, sampling, version, fromX, toX, columns,
+					withPoints);
+			if (getRewrites() == rewrites)
+				return snapshot;
+		}
+		synchronized (this) {
+			return snapshot(buffer, pyramid, first, end, startTime, dt, getVersion(), fromX, toX, columns,
+					withPoints);
+		}
+	}
+
+	/**
+	 * Makes a snapshot from the given state of the signal.
+	 */
+	private static SignalSnapshot snapshot(double[] ring, MinMaxPyramid pyramid, long from, long to,
+			double t0, double sampling, long version, double fromX, double toX, int columns, boolean withPoints) {
+		int n = (int) (to - from);
+		double[] minMax = new double[2];
+		pyramid.minMax(ring, from, to, minMax);
+		double firstX = (n == 0) ? Double.NaN : t0;
+		double lastX = (n == 0) ? Double.NaN : t0 + (n - 1) * sampling;
+		if (!withPoints || n == 0)
+			return new SignalSnapshot(null, new double[0], 0, t0, sampling, n, firstX, lastX, minMax[0],
+					minMax[1], version);
+		// The sample before fromX and the sample after toX are kept, so the curve reaches the edges
+		long i0 = from;
+		long i1 = to;
+		if (sampling > 0.0) {
+			i0 = from + (long) Math.max(0.0, Math.min(n, Math.floor((fromX - t0) / sampling)));
+			i1 = from + (long) Math.max(0.0, Math.min(n, Math.ceil((toX - t0) / sampling) + 1));
+		}
+		long count = i1 - i0;
+		if (columns <= 0 || count <= 2L * columns) {
+			double[] ys = copy(ring, i0, i1);
+			return new SignalSnapshot(null, ys, ys.length, t0 + (i0 - from) * sampling, sampling, n, firstX,
+					lastX, minMax[0], minMax[1], version);
+		}
+		// A vertical line from the min to the max of each column
+		double[] xs = new double[2 * columns];
+		double[] ys = new double[2 * columns];
+		double[] columnMinMax = new double[2];
+		for (int c = 0; c < columns; c++) {
+			long a = i0 + count * c / columns;
+			long e = i0 + count * (c + 1) / columns;
+			pyramid.minMax(ring, a, e, columnMinMax);
+			xs[2 * c] = t0 + (a - from) * sampling;
+			xs[2 * c + 1] = xs[2 * c];
+			ys[2 * c] = columnMinMax[0];
+			ys[2 * c + 1] = columnMinMax[1];
+		}
+		return new SignalSnapshot(xs, ys, xs.length, 0.0, 0.0, n, firstX, lastX, minMax[0], minMax[1],
+				version);
+	}
+
+	/**
+	 * Copies the samples between two absolute indices out of a ring buffer.
+	 */
+	private static double[] copy(double[] ring, long from, long to) {
+		double[] ys = new double[(int) (to - from)];
+		int slot = (int) (from & (ring.length - 1));
+		int firstPart = Math.min(ys.length, ring.length - slot);
+		System.arraycopy(ring, slot, ys, 0, firstPart);
+		System.arraycopy(ring, 0, ys, firstPart, ys.length - firstPart);
+		return ys;
+	}
+
 	/**
 	 * Calculates the numeric difference of the signal into the param signal.
-	 * 
+	 *
 	 * @param derivative the signal where the derivative will be stored.
 	 */
 	public synchronized void derivative(SignalD derivative) {
-		// if (derivative == null) -> do sg
 		synchronized (derivative) {
 			derivative.clear();
 			derivative.setDt(dt);
 			derivative.setStartTime(startTime + (dt / 2.0));
-			for (int i = 0; i < values.size() - 1; i++) {
-				derivative.add((values.get(i + 1) - values.get(i)) / dt);
+			for (long i = first; i < end - 1; i++) {
+				derivative.add((buffer[(int) ((i + 1) & mask)] - buffer[(int) (i & mask)]) / dt);
 			}
 		}
 	}
-	
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString() {
+		StringBuilder s = new StringBuilder();
+		for (long i = first; i < end; i++) {
+			s.append(buffer[(int) (i & mask)]).append(' ');
+		}
+		return s.toString();
+	}
 
 }
@@ -0,0 +1,273 @@
+package signal;
+
+/**
+ * An immutable copy of the samples of a signal at a given moment. It is made
+ * by Signal.snapshot(), and can be read by any thread without locking.
+ *
+ * The samples of an evenly sampled signal are stored as (startTime, dt, ys),
+ * the samples of a SignalXY as (xs, ys). A snapshot made for drawing may only
+ * contain a part of the signal, or the min/max pairs of the columns of the
+ * graph. The extent (the number of samples, the first and last x, the min and
+ * max) is always the extent of the whole signal.
+ *
+ * @author Nagy Tamas
+ *
+ */
+public final class SignalSnapshot {
+
+	/**
+	 * A snapshot without samples.
+	 */
+	public static final SignalSnapshot EMPTY = new SignalSnapshot(new double[0], 0, 0.0, 0.0, 0);
+
+	// null, if the signal is evenly sampled
+	private final double[] xs;
+	private final double[] ys;
+	private final int size;
+	private final double startTime;
+	private final double dt;
+	// The extent of the whole signal
+	private final int signalSize;
+	private final double firstX;
+	private final double lastX;
+	private final double min;
+	private final double max;
+	private final long version;
+
+	/**
+	 * Constructor of the snapshot of an evenly sampled signal. The arrays are
+	 * not copied, they must not be modified later.
+	 *
+	 * @param ys the samples.
+	 * @param size the number of samples.
+	 * @param startTime the time of the first sample.
+	 * @param dt the sampling time.
+	 * @param version the version of the signal.
+	 */
+	SignalSnapshot(double[] ys, int size, double startTime, double dt, long version) {
+		this(null, ys, size, startTime, dt, version);
+	}
+
+	/**
+	 * Constructor of the snapshot of a SignalXY. The arrays are not copied,
+	 * they must not be modified later.
+	 *
+	 * @param xs the x values of the samples.
+	 * @param ys the y values of the samples.
+	 * @param size the number of samples.
+	 * @param version the version of the signal.
+	 */
+	SignalSnapshot(double[] xs, double[] ys, int size, long version) {
+		this(xs, ys, size, 0.0, 0.0, version);
+	}
+
+	private SignalSnapshot(double[] xs, double[] ys, int size, double startTime, double dt, long version) {
+		this.xs = xs;
+		this.ys = ys;
+		this.size = size;
+		this.startTime = startTime;
+		this.dt = dt;
+		this.version = version;
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < size; i++) {
+			if (ys[i] < min)
+				min = ys[i];
+			if (ys[i] > max)
+				max = ys[i];
+		}
+		this.min = min;
+		this.max = max;
+		this.signalSize = size;
+		this.firstX = (size == 0) ? Double.NaN : getX(0);
+		this.lastX = (size == 0) ? Double.NaN : getX(size - 1);
+	}
+
+	/**
+	 * Constructor of a snapshot containing only a part of the signal, or
+	 * points made from the samples. The arrays are not copied, they must not
+	 * be modified later.
+	 *
+	 * @param xs the x values of the points, null if evenly sampled.
+	 * @param ys the y values of the points.
+	 * @param size the number of points.
+	 * @param startTime the time of the first point, if evenly sampled.
+	 * @param dt the sampling time, if evenly sampled.
+	 * @param signalSize the number of samples of the signal.
+	 * @param firstX the x value of the first sample of the signal.
+	 * @param lastX the x value of the last sample of the signal.
+	 * @param min the minimum of the signal.
+	 * @param max the maximum of the signal.
+	 * @param version the version of the signal.
+	 */
+	SignalSnapshot(double[] xs, double[] ys, int size, double startTime, double dt, int signalSize,
+			double firstX, double lastX, double min, double max, long version) {
+		this.xs = xs;
+		this.ys = ys;
+		this.size = size;
+		this.startTime = startTime;
+		this.dt = dt;
+		this.signalSize = signalSize;
+		this.firstX = firstX;
+		this.lastX = lastX;
+		this.min = min;
+		this.max = max;
+		this.version = version;
+	}
+
+	/**
+	 * @return the number of points in the snapshot.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of samples of the signal.
+	 */
+	public int getSignalSize() {
+		return signalSize;
+	}
+
+	/**
+	 * @return true, if the signal had no samples.
+	 */
+	public boolean isEmpty() {
+		return signalSize == 0;
+	}
+
+	/**
+	 * @return true, if the snapshot was made from an evenly sampled signal.
+	 */
+	public boolean isEvenlySampled() {
+		return xs == null;
+	}
+
+	/**
+	 * @param index
+	 * @return the x value of the point at the given index.
+	 */
+	public double getX(int index) {
+		checkIndex(index);
+		return (xs == null) ? startTime + index * dt : xs[index];
+	}
+
+	/**
+	 * @param index
+	 * @return the y value of the point at the given index.
+	 */
+	public double getY(int index) {
+		checkIndex(index);
+		return ys[index];
+	}
+
+	/**
+	 * @return the time of the first point, if evenly sampled.
+	 */
+	public double getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return the sampling time, if evenly sampled.
+	 */
+	public double getDt() {
+		return dt;
+	}
+
+	/**
+	 * @return the x value of the first sample of the signal.
+	 */
+	public double getFirstX() {
+		return firstX;
+	}
+
+	/**
+	 * @return the x value of the last sample of the signal.
+	 */
+	public double getLastX() {
+		return lastX;
+	}
+
+	/**
+	 * @return the minimum of the signal, positive infinity if empty.
+	 */
+	public double getMin() {
+		return min;
+	}
+
+	/**
+	 * @return the maximum of the signal, negative infinity if empty.
+	 */
+	public double getMax() {
+		return max;
+	}
+
+	/**
+	 * @return the version of the signal the snapshot was made of.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @param x
+	 * @return the index of the last point with x value not greater than x, or
+	 *         -1 if there is no such point.
+	 */
+	public int floorIndex(double x) {
+		if (xs == null) {
+			double i = Math.floor((x - startTime) / dt);
+			if (i < 0)
+				return -1;
+			return (int) Math.min(i, size - 1);
+		}
+		int lo = 0;
+		int hi = size - 1;
+		int result = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (xs[mid] <= x) {
+				result = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param x
+	 * @return the index of the first point with x value not less than x, or
+	 *         size() if there is no such point.
+	 */
+	public int ceilingIndex(double x) {
+		if (xs == null) {
+			double i = Math.ceil((x - startTime) / dt);
+			if (i > size)
+				return size;
+			return (int) Math.max(i, 0);
+		}
+		int lo = 0;
+		int hi = size - 1;
+		int result = size;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (xs[mid] >= x) {
+				result = mid;
+				hi = mid - 1;
+			} else {
+				lo = mid + 1;
+			}
+		}
+		return result;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+	}
+
+}
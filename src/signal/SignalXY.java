@@ -1,32 +1,60 @@
 package signal;
 
 import java.awt.Color;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.NoSuchElementException;
 
 import exception.SignalIsEmptyException;
 
 /**
- * Represents an unevenly sampled signal.
- * 
+ * Represents an unevenly sampled signal. The coordinates are stored in two
+ * primitive arrays (struct of arrays), the x coordinates are expected to be
+ * in ascending order, so points can be looked up by binary search.
+ *
  * @author Nagy Tamas
- * 
+ *
  */
 public class SignalXY extends Signal<Double> implements Iterable<SignalPoint>, ListSignal {
 
 	/**
-	 * The points of the signal.
+	 * The initial capacity of the coordinate arrays.
 	 */
-	private LinkedList<SignalPoint> points;
+	public static final int DEFAULT_CAPACITY = 64;
+
+	/**
+	 * The x coordinates of the points.
+	 */
+	private volatile double[] xs;
+
+	/**
+	 * The y coordinates of the points.
+	 */
+	private volatile double[] ys;
+
+	/**
+	 * The array index of the first point.
+	 */
+	private volatile int head;
+
+	/**
+	 * The number of points.
+	 */
+	private volatile int size;
+
+	/**
+	 * The max number of lock-free attempts of snapshot(), before it takes the
+	 * lock of the signal.
+	 */
+	private static final int SNAPSHOT_ATTEMPTS = 8;
 
 	/**
 	 * Constructor with color.
-	 * 
+	 *
 	 * @param color
 	 */
 	public SignalXY(Color color) {
-		points = new LinkedList<>();
+		this();
 		this.color = color;
 	}
 
@@ -34,116 +62,269 @@ public class SignalXY extends Signal<Double> implements Iterable<SignalPoint>, L
 	 * Default constructor.
 	 */
 	public SignalXY() {
-		points = new LinkedList<>();
+		xs = new double[DEFAULT_CAPACITY];
+		ys = new double[DEFAULT_CAPACITY];
+	}
+
+	/**
+	 * Makes room for one more point at the end of the arrays.
+	 */
+	private void ensureRoomAtEnd() {
+		if (head + size < xs.length)
+			return;
+		beginRewrite();
+		if (head > xs.length / 2) {
+			System.arraycopy(xs, head, xs, 0, size);
+			System.arraycopy(ys, head, ys, 0, size);
+		} else {
+			double[] newXs = new double[xs.length << 1];
+			double[] newYs = new double[ys.length << 1];
+			System.arraycopy(xs, head, newXs, 0, size);
+			System.arraycopy(ys, head, newYs, 0, size);
+			xs = newXs;
+			ys = newYs;
+		}
+		head = 0;
+		endRewrite();
+	}
+
+	/**
+	 * Throws an exception if the index is out of the signal.
+	 *
+	 * @param index
+	 */
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
 	}
 
 	/**
 	 * Adds a point to the end of the signal.
-	 * 
+	 *
 	 * @param point
 	 * @return
 	 */
 	public boolean add(SignalPoint point) {
-		return points.add(point);
+		return add(point.getX(), point.getY());
 	}
 
 	/**
 	 * Adds a point to the end of the signal.
-	 * 
+	 *
 	 * @param x
 	 * @param y
 	 * @return
 	 */
-	public boolean add(double x, double y) {
-		return points.add(new SignalPoint(x, y));
+	public synchronized boolean add(double x, double y) {
+		ensureRoomAtEnd();
+		xs[head + size] = x;
+		ys[head + size] = y;
+		size++;
+		modified();
+		return true;
+	}
+
+	/**
+	 * @param index the index of the point.
+	 * @return the x coordinate of the point.
+	 */
+	public synchronized double getX(int index) {
+		checkIndex(index);
+		return xs[head + index];
+	}
+
+	/**
+	 * @param index the index of the point.
+	 * @return the y coordinate of the point.
+	 */
+	public synchronized double getY(int index) {
+		checkIndex(index);
+		return ys[head + index];
+	}
+
+	/**
+	 * @param index the index of the point.
+	 * @return the point at the given index.
+	 */
+	public synchronized SignalPoint get(int index) {
+		checkIndex(index);
+		return new SignalPoint(xs[head + index], ys[head + index]);
+	}
+
+	/**
+	 * @param index the index of the point.
+	 * @param y the new y coordinate of the point.
+	 */
+	public synchronized void setY(int index, double y) {
+		checkIndex(index);
+		beginRewrite();
+		ys[head + index] = y;
+		endRewrite();
+	}
+
+	/**
+	 * Binary search.
+	 *
+	 * @param x
+	 * @return the index of the last point with x coordinate less than or equal
+	 *         to x, or -1 if there is no such point.
+	 */
+	public synchronized int floorIndex(double x) {
+		return floorIndex(xs, head, size, x);
+	}
+
+	private static int floorIndex(double[] xs, int head, int size, double x) {
+		int lo = 0;
+		int hi = size - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (xs[head + mid] <= x)
+				lo = mid + 1;
+			else
+				hi = mid - 1;
+		}
+		return hi;
+	}
+
+	/**
+	 * Binary search.
+	 *
+	 * @param x
+	 * @return the index of the first point with x coordinate greater than or
+	 *         equal to x, or size() if there is no such point.
+	 */
+	public synchronized int ceilingIndex(double x) {
+		return ceilingIndex(xs, head, size, x);
+	}
+
+	private static int ceilingIndex(double[] xs, int head, int size, double x) {
+		int lo = 0;
+		int hi = size - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (xs[head + mid] < x)
+				lo = mid + 1;
+			else
+				hi = mid - 1;
+		}
+		return lo;
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see java.lang.Iterable#iterator()
 	 */
 	@Override
 	public Iterator<SignalPoint> iterator() {
-		return points.iterator();
+		return iterator(0, size);
+	}
+
+	/**
+	 * @param fromIndex the index of the first point, inclusive.
+	 * @param toIndex the index of the last point, exclusive.
+	 * @return iterator over the points of the given index range.
+	 */
+	public Iterator<SignalPoint> iterator(final int fromIndex, final int toIndex) {
+		return new Iterator<SignalPoint>() {
+
+			private int i = fromIndex;
+
+			@Override
+			public boolean hasNext() {
+				return i < toIndex && i < size;
+			}
+
+			@Override
+			public SignalPoint next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				return get(i++);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * A view of the points with x coordinates between from and to, found by
+	 * binary search.
+	 *
+	 * @param from the first x coordinate, inclusive.
+	 * @param to the last x coordinate, inclusive.
+	 * @return the points in the range.
+	 */
+	public Iterable<SignalPoint> range(double from, double to) {
+		final int fromIndex = ceilingIndex(from);
+		final int toIndex = floorIndex(to) + 1;
+		return new Iterable<SignalPoint>() {
+			@Override
+			public Iterator<SignalPoint> iterator() {
+				return SignalXY.this.iterator(fromIndex, toIndex);
+			}
+		};
 	}
 
 	/**
 	 * @return the first point of the signal.
 	 */
-	public SignalPoint getFirst() {
-		return points.getFirst();
+	public synchronized SignalPoint getFirst() {
+		if (size == 0)
+			throw new NoSuchElementException();
+		return get(0);
 	}
 
 	/**
 	 * @return the last point of the signal.
 	 */
-	public SignalPoint getLast() {
-		return points.getLast();
+	public synchronized SignalPoint getLast() {
+		if (size == 0)
+			throw new NoSuchElementException();
+		return get(size - 1);
 	}
 
 	/**
-	 * 
+	 *
 	 * Calculates the "derivative" of the original curve.
-	 * 
+	 *
 	 * @return
 	 */
 	public synchronized SignalXY derivative() {
 		SignalXY derivative = new SignalXY();
-		double x1, x2 = 0, y1, y2 = 0;
-		SignalPoint point;
-		Iterator<SignalPoint> it = this.iterator();
-		if (it.hasNext()) {
-			point = it.next();
-			x2 = point.getX();
-			y2 = point.getY();
-		}
-		while (it.hasNext()) {
-			x1 = x2;
-			y1 = y2;
-			point = it.next();
-			x2 = point.getX();
-			y2 = point.getY();
-			derivative.add(new SignalPoint((x1 + x2) / 2.0f, (y2 - y1) / (x2 - x1)));
-		}
+		derivative(derivative);
 		return derivative;
 	}
 
 	/**
 	 * Calculates the "derivative" of the original curve container and stores it
 	 * in the derivative container.
-	 * 
+	 *
 	 * @param derivative
 	 */
 	public synchronized void derivative(SignalXY derivative) {
-		synchronized (this) {
+		if (derivative != null) {
 			synchronized (derivative) {
-				if (derivative != null) {
-					derivative.removeAll();
-					double x1, x2 = 0, y1, y2 = 0;
-					SignalPoint point;
-					Iterator<SignalPoint> it = this.iterator();
-					if (it.hasNext()) {
-						point = it.next();
-						x2 = point.getX();
-						y2 = point.getY();
-					}
-					while (it.hasNext()) {
-						x1 = x2;
-						y1 = y2;
-						point = it.next();
-						x2 = point.getX();
-						y2 = point.getY();
-						derivative.add(new SignalPoint((x1 + x2) / 2.0f, (y2 - y1) / (x2 - x1)));
-					}
+				derivative.removeAll();
+				for (int i = head; i < head + size - 1; i++) {
+					derivative.add((xs[i] + xs[i + 1]) / 2.0f, (ys[i + 1] - ys[i]) / (xs[i + 1] - xs[i]));
 				}
 			}
 		}
 	}
 
+	/**
+	 * Linear interpolation between two points.
+	 */
+	private static double interpolate(double x, double x1, double y1, double x2, double y2) {
+		return y1 + ((x - x1) * (y2 - y1)) / (x2 - x1);
+	}
+
 	/**
 	 * Numeric integral of the signal.
-	 * 
+	 *
 	 * @param beg
 	 * @param end
 	 * @return
@@ -153,40 +334,32 @@ public class SignalXY extends Signal<Double> implements Iterable<SignalPoint>, L
 			if (isEmpty()) {
 				throw (new SignalIsEmptyException());
 			}
-			if (this.getLast().getX() <= beg || this.getFirst().getX() >= end) {
+			if (xs[head + size - 1] <= beg || xs[head] >= end) {
 				return 0.0f;
 			}
-			float area = 0.0f;
-			SignalPoint point1 = new SignalPoint(0.0f, 0.0f), point2 = new SignalPoint(0.0f, 0.0f);
-			Iterator<SignalPoint> it = this.iterator();
-			point2 = it.next();
-			while (it.hasNext()) {
-				point1 = point2;
-				point2 = it.next();
-				if (point2.getX() > beg) {
-					break;
+			double area = 0.0;
+			double x1, y1, x2, y2;
+			int i = floorIndex(beg);
+			if (i < 0)
+				i = 0;
+			for (; i < size - 1 && xs[head + i] < end; i++) {
+				x1 = xs[head + i];
+				y1 = ys[head + i];
+				x2 = xs[head + i + 1];
+				y2 = ys[head + i + 1];
+				if (x2 <= beg)
+					continue;
+				if (x1 < beg) {
+					y1 = interpolate(beg, x1, y1, x2, y2);
+					x1 = beg;
 				}
-			}
-
-			if (point1.getX() < beg) {
-				point1 = new SignalPoint(beg, SignalPoint.linearInterpolateInX(beg, point1, point2));
-			}
-
-			area += (point2.getX() - point1.getX()) * ((point1.getY() + point2.getY()) / 2);
-			while (it.hasNext()) {
-				point1 = point2;
-				point2 = it.next();
-				if (point2.getX() > end) {
-					break;
+				if (x2 > end) {
+					y2 = interpolate(end, x1, y1, x2, y2);
+					x2 = end;
 				}
-				area += (point2.getX() - point1.getX()) * ((point1.getY() + point2.getY()) / 2);
-			}
-
-			if (point1.getX() < beg) {
-				point2 = new SignalPoint(beg, SignalPoint.linearInterpolateInX(beg, point1, point2));
+				area += (x2 - x1) * ((y1 + y2) / 2);
 			}
-			area += (point2.getX() - point1.getX()) * ((point1.getY() + point2.getY()) / 2);
-			return area;
+			return (float) area;
 		} catch (SignalIsEmptyException e) {
 			return 0.0f;
 		}
@@ -201,24 +374,7 @@ public class SignalXY extends Signal<Double> implements Iterable<SignalPoint>, L
 	 */
 	public SignalD sample(double samplingTime, int numberOfSamples) {
 		SignalD sampled = new SignalD();
-		int i = 1;
-		sampled.setDt(samplingTime);
-		double time = this.getFirst().getX();
-		sampled.setStartTime(time);
-		Iterator<SignalPoint> oIt = this.iterator();
-		SignalPoint point1;
-		SignalPoint point2;
-		point2 = this.getFirst();
-		while (oIt.hasNext() && i <= numberOfSamples) {
-			point1 = point2;
-			point2 = oIt.next();
-			while (time >= point1.getX() && time < point2.getX() && i <= numberOfSamples) {
-				sampled.add(SignalPoint.linearInterpolateInX(time, point1, point2));
-				time += samplingTime;
-				i++;
-			}
-		}
-
+		sample(sampled, samplingTime, numberOfSamples);
 		return sampled;
 	}
 
@@ -237,18 +393,12 @@ public class SignalXY extends Signal<Double> implements Iterable<SignalPoint>, L
 					}
 					sampled.removeAll();
 					int i = 1;
-					double time = this.getFirst().getX();
+					double time = xs[head];
 					sampled.setStartTime(time);
 					sampled.setDt(samplingTime);
-					Iterator<SignalPoint> oIt = this.iterator();
-					SignalPoint point1;
-					SignalPoint point2;
-					point2 = this.getFirst();
-					while (oIt.hasNext() && i <= numberOfSamples) {
-						point1 = point2;
-						point2 = oIt.next();
-						while (time >= point1.getX() && time < point2.getX() && i <= numberOfSamples) {
-							sampled.add(SignalPoint.linearInterpolateInX(time, point1, point2));
+					for (int j = head; j < head + size - 1 && i <= numberOfSamples; j++) {
+						while (time >= xs[j] && time < xs[j + 1] && i <= numberOfSamples) {
+							sampled.add(interpolate(time, xs[j], ys[j], xs[j + 1], ys[j + 1]));
 							time += samplingTime;
 							i++;
 						}
@@ -261,42 +411,76 @@ public class SignalXY extends Signal<Double> implements Iterable<SignalPoint>, L
 
 	}
 
+	/**
+	 * Re-samples the signal from a time, using linear interpolation, for
+	 * incremental re-sampling: stores the samples at time, time +
+	 * samplingTime, ... before the last point.
+	 * @param time the time of the first sample.
+	 * @param samplingTime
+	 * @param samples
+	 * @return the number of samples, at most samples.length.
+	 */
+	public synchronized int sample(double time, double samplingTime, double[] samples) {
+		int j = floorIndex(time);
+		if (j < 0)
+			return 0;
+		int i = 0;
+		double t = time;
+		for (; j < size - 1 && i < samples.length; j++) {
+			while (t < xs[head + j + 1] && i < samples.length) {
+				samples[i] = interpolate(t, xs[head + j], ys[head + j], xs[head + j + 1], ys[head + j + 1]);
+				i++;
+				t = time + i * samplingTime;
+			}
+		}
+		return i;
+	}
+
+	/**
+	 * Calculates the Lomb-Scargle periodogram of the points, directly on the
+	 * coordinate arrays.
+	 * 
+	 * @param periodogram
+	 * @return the number of frequencies.
+	 */
+	public synchronized int periodogram(LombScargle periodogram) {
+		return periodogram.calculate(xs, ys, head, size);
+	}
+
 	/**
 	 * @return the length of the signal is seconds.
 	 */
 	public synchronized double length() {
-		if (points.isEmpty())
+		if (size == 0)
 			return 0.0f;
 		else
-			return points.getLast().getX() - points.getFirst().getX();
+			return xs[head + size - 1] - xs[head];
 	}
 
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see plethysmography.signal.Signal#mean()
 	 */
 	public synchronized float mean() {
-		int i = 0;
-		float mean = 0.0f;
-		for (SignalPoint cp : this) {
-			mean += cp.getY();
-			i++;
+		double mean = 0.0;
+		for (int i = head; i < head + size; i++) {
+			mean += ys[i];
 		}
-		return mean / ((float) i);
+		return (float) (mean / size);
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see plethysmography.signal.Signal#max()
 	 */
 	public synchronized Double max() {
 		double max = Float.NEGATIVE_INFINITY;
-		for (SignalPoint cp : this) {
-			if (cp.getY() > max) {
-				max = cp.getY();
+		for (int i = head; i < head + size; i++) {
+			if (ys[i] > max) {
+				max = ys[i];
 			}
 		}
 		return max;
@@ -304,14 +488,14 @@ public class SignalXY extends Signal<Double> implements Iterable<SignalPoint>, L
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see plethysmography.signal.Signal#min()
 	 */
 	public synchronized Double min() {
 		double min = Float.POSITIVE_INFINITY;
-		for (SignalPoint cp : this) {
-			if (cp.getY() < min) {
-				min = cp.getY();
+		for (int i = head; i < head + size; i++) {
+			if (ys[i] < min) {
+				min = ys[i];
 			}
 		}
 		return min;
@@ -322,9 +506,11 @@ public class SignalXY extends Signal<Double> implements Iterable<SignalPoint>, L
 	 * @param d
 	 */
 	public synchronized void minus(float d) {
-		for (SignalPoint cp : this) {
-			cp.setY(cp.getY() - d);
+		beginRewrite();
+		for (int i = head; i < head + size; i++) {
+			ys[i] -= d;
 		}
+		endRewrite();
 	}
 
 	/**
@@ -332,25 +518,29 @@ public class SignalXY extends Signal<Double> implements Iterable<SignalPoint>, L
 	 * @param d
 	 */
 	public synchronized void plus(float d) {
-		for (SignalPoint cp : this) {
-			cp.setY(cp.getY() + d);
+		beginRewrite();
+		for (int i = head; i < head + size; i++) {
+			ys[i] += d;
 		}
+		endRewrite();
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see java.lang.Object#clone()
 	 */
-	public SignalXY clone() {
+	public synchronized SignalXY clone() {
 		SignalXY clone = new SignalXY();
 		clone.color = color;
 		clone.title = title;
 		clone.xAxisTitle = xAxisTitle;
 		clone.yAxisTitle = yAxisTitle;
-		for (SignalPoint point : this) {
-			clone.add(point);
-		}
+		clone.xs = new double[Math.max(size, DEFAULT_CAPACITY)];
+		clone.ys = new double[Math.max(size, DEFAULT_CAPACITY)];
+		System.arraycopy(xs, head, clone.xs, 0, size);
+		System.arraycopy(ys, head, clone.ys, 0, size);
+		clone.size = size;
 		return clone;
 
 	}
@@ -359,68 +549,188 @@ public class SignalXY extends Signal<Double> implements Iterable<SignalPoint>, L
 	 * Adds a new point to the beginning of the signal.
 	 * @param p
 	 */
-	public void addFirst(SignalPoint p) {
-		points.addFirst(p);
+	public synchronized void addFirst(SignalPoint p) {
+		beginRewrite();
+		if (head == 0) {
+			int room = Math.max(size, DEFAULT_CAPACITY);
+			double[] newXs = new double[room + xs.length];
+			double[] newYs = new double[room + ys.length];
+			System.arraycopy(xs, head, newXs, room, size);
+			System.arraycopy(ys, head, newYs, room, size);
+			xs = newXs;
+			ys = newYs;
+			head = room;
+		}
+		head--;
+		xs[head] = p.getX();
+		ys[head] = p.getY();
+		size++;
+		endRewrite();
 	}
 
 	/**
      * Removes the first point of the signal.
      */
 	public synchronized void removeFirst() {
-		points.removeFirst();
+		if (size == 0)
+			throw new NoSuchElementException();
+		beginRewrite();
+		head++;
+		size--;
+		endRewrite();
 	}
 
 	/**
      * Removes the last point of the signal.
      */
 	public synchronized void removeLast() {
-		points.removeLast();
+		if (size == 0)
+			throw new NoSuchElementException();
+		beginRewrite();
+		size--;
+		endRewrite();
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see plethysmography.signal.ListSignal#removeAll()
 	 */
 	public synchronized void removeAll() {
-		points.removeAll(points);
+		beginRewrite();
+		head = 0;
+		size = 0;
+		endRewrite();
 	}
 
 	/**
      * Reverse the signal.
      */
-	public void reverse() {
-		Collections.reverse(points);
+	public synchronized void reverse() {
+		double temp;
+		beginRewrite();
+		for (int i = head, j = head + size - 1; i < j; i++, j--) {
+			temp = xs[i];
+			xs[i] = xs[j];
+			xs[j] = temp;
+			temp = ys[i];
+			ys[i] = ys[j];
+			ys[j] = temp;
+		}
+		endRewrite();
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see plethysmography.signal.Signal#isEmpty()
 	 */
-	public boolean isEmpty() {
-		return points.isEmpty();
+	public synchronized boolean isEmpty() {
+		return size == 0;
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see plethysmography.signal.Signal#size()
 	 */
-	public int size() {
-		return points.size();
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Copies the points without locking the signal. Appending points doesn't
+	 * disturb the copy, any other modification during the copy makes it start
+	 * again. Only if the signal keeps being rewritten, the lock is taken.
+	 *
+	 * @see signal.Signal#snapshot()
+	 */
+	@Override
+	public SignalSnapshot snapshot() {
+		return snapshot(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, true);
+	}
+
+	/**
+	 * Copies the points between fromX and toX, and the point before and after
+	 * them, so the curve reaches the edges. The other points are only read
+	 * for the min and max of the signal.
+	 *
+	 * @see signal.Signal#snapshot(double, double, int)
+	 */
+	@Override
+	public SignalSnapshot snapshot(double fromX, double toX, int columns) {
+		return snapshot(fromX, toX, true);
+	}
+
+	/* (non-Javadoc)
+	 * @see signal.Signal#snapshotExtent()
+	 */
+	@Override
+	public SignalSnapshot snapshotExtent() {
+		return snapshot(0.0, 0.0, false);
+	}
+
+	/**
+	 * Makes a snapshot without locking if possible, see snapshot().
+	 */
+	private SignalSnapshot snapshot(double fromX, double toX, boolean withPoints) {
+		for (int attempt = 0; attempt < SNAPSHOT_ATTEMPTS; attempt++) {
+			long rewrites = getRewrites();
+			if ((rewrites & 1) != 0) {
+				Thread.yield();
+				continue;
+			}
+			long version = getVersion();
+			int h = head;
+			int n = size;
+			double[] x = xs;
+			double[] y = ys;
+			if (h + n > x.length || h + n > y.length)
+				continue;
+			SignalSnapshot snapshot = snapshot(x, y, h, n, version, fromX, toX, withPoints);
+			if (getRewrites() == rewrites)
+				return snapshot;
+		}
+		synchronized (this) {
+			return snapshot(xs, ys, head, size, getVersion(), fromX, toX, withPoints);
+		}
+	}
+
+	/**
+	 * Makes a snapshot from the given state of the signal.
+	 */
+	private static SignalSnapshot snapshot(double[] x, double[] y, int h, int n, long version, double fromX,
+			double toX, boolean withPoints) {
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		for (int i = h; i < h + n; i++) {
+			if (y[i] < min)
+				min = y[i];
+			if (y[i] > max)
+				max = y[i];
+		}
+		double firstX = (n == 0) ? Double.NaN : x[h];
+		double lastX = (n == 0) ? Double.NaN : x[h + n - 1];
+		int from = 0;
+		int to = 0;
+		if (withPoints && n > 0) {
+			from = Math.max(0, floorIndex(x, h, n, fromX));
+			to = Math.max(from, Math.min(n, ceilingIndex(x, h, n, toX) + 1));
+		}
+		return new SignalSnapshot(Arrays.copyOfRange(x, h + from, h + to), Arrays.copyOfRange(y, h + from, h + to),
+				to - from, 0.0, 0.0, n, firstX, lastX, min, max, version);
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * 
+	 *
 	 * @see java.lang.Object#toString()
 	 */
 	public synchronized String toString() {
-		String s = "";
-		for (SignalPoint cp : this) {
-			s += (cp + " ");
+		StringBuilder s = new StringBuilder();
+		for (int i = head; i < head + size; i++) {
+			s.append('(').append(xs[i]).append(", ").append(ys[i]).append(") ");
 		}
-		return s;
+		return s.toString();
 	}
 }
@@ -0,0 +1,207 @@
+package signal;
+
+import java.util.Arrays;
+
+/**
+ * Sliding DFT of the last N samples of an evenly sampled series, only for a
+ * range of bins: a new sample updates every bin in O(1), so an update costs
+ * O(bins) instead of a whole FFT. The bins are those of a rectangular window
+ * of N samples; the power is calculated with the periodic Hann window,
+ * applied in the frequency domain to the neighbouring bins.
+ *
+ * The recursive updates accumulate rounding errors, so the bins are
+ * calculated again from the samples of the window (re-anchored) after every
+ * REANCHOR_INTERVAL samples.
+ *
+ * @author Nagy Tamas
+ *
+ */
+public class SlidingDFT {
+
+	public static final int REANCHOR_INTERVAL = 4096;
+
+	private final int length;
+	// The first and last bin, with a bin on both sides for the Hann window
+	private final int lowBin;
+	private final int highBin;
+	// The rotation of the bins by a sample
+	private final double[] cos;
+	private final double[] sin;
+	private final double[] re;
+	private final double[] im;
+	// The last length samples, the oldest at position
+	private final double[] samples;
+	private int position;
+	private int count;
+	private int sinceReanchor;
+	private final double dt;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param length
+	 *            the number of samples in the window.
+	 * @param dt
+	 *            the sampling time in s.
+	 * @param lowBin
+	 *            the first bin whose power is needed, at least 1. The mean
+	 *            isn't removed, it leaks into bin 1 through the window.
+	 * @param highBin
+	 *            the last bin whose power is needed, less than length / 2.
+	 */
+	public SlidingDFT(int length, double dt, int lowBin, int highBin) {
+		if (lowBin < 1 || highBin < lowBin || highBin >= length / 2)
+			throw new IllegalArgumentException("Invalid bins: " + lowBin + " - " + highBin + " of " + length);
+		this.length = length;
+		this.dt = dt;
+		this.lowBin = lowBin - 1;
+		this.highBin = highBin + 1;
+		int bins = this.highBin - this.lowBin + 1;
+		cos = new double[bins];
+		sin = new double[bins];
+		for (int b = 0; b < bins; b++) {
+			double phase = 2.0 * Math.PI * (this.lowBin + b) / length;
+			cos[b] = Math.cos(phase);
+			sin[b] = Math.sin(phase);
+		}
+		re = new double[bins];
+		im = new double[bins];
+		samples = new double[length];
+	}
+
+	/**
+	 * Creates a sliding DFT for a frequency band.
+	 *
+	 * @param length
+	 *            the number of samples in the window.
+	 * @param dt
+	 *            the sampling time in s.
+	 * @param low
+	 *            the lowest frequency of interest in Hz.
+	 * @param high
+	 *            the highest frequency of interest in Hz.
+	 * @return the sliding DFT with the bins covering [low, high), from bin 2.
+	 */
+	public static SlidingDFT forBand(int length, double dt, double low, double high) {
+		double df = 1.0 / (length * dt);
+		int lowBin = Math.max(2, (int) Math.ceil(low / df));
+		int highBin = Math.min(length / 2 - 1, (int) Math.ceil(high / df) - 1);
+		return new SlidingDFT(length, dt, lowBin, Math.max(lowBin, highBin));
+	}
+
+	/**
+	 * Adds a sample, and removes the oldest one if the window is full.
+	 *
+	 * @param x
+	 */
+	public void add(double x) {
+		double delta = x - samples[position];
+		samples[position] = x;
+		if (++position == length)
+			position = 0;
+		if (count < length)
+			count++;
+		if (++sinceReanchor >= REANCHOR_INTERVAL) {
+			reanchor();
+			return;
+		}
+		// X(k) = (X(k) + x - x(n - N)) * exp(2 pi i k / N)
+		for (int b = 0; b < re.length; b++) {
+			double r = re[b] + delta;
+			double i = im[b];
+			re[b] = r * cos[b] - i * sin[b];
+			im[b] = r * sin[b] + i * cos[b];
+		}
+	}
+
+	/**
+	 * Calculates the bins again from the samples of the window, with the
+	 * oldest sample at time 0.
+	 */
+	public void reanchor() {
+		Arrays.fill(re, 0.0);
+		Arrays.fill(im, 0.0);
+		for (int b = 0; b < re.length; b++) {
+			int k = lowBin + b;
+			double r = 0.0;
+			double i = 0.0;
+			int j = position;
+			for (int n = 0; n < length; n++) {
+				double phase = -2.0 * Math.PI * ((long) k * n % length) / length;
+				r += samples[j] * Math.cos(phase);
+				i += samples[j] * Math.sin(phase);
+				if (++j == length)
+					j = 0;
+			}
+			re[b] = r;
+			im[b] = i;
+		}
+		sinceReanchor = 0;
+	}
+
+	/**
+	 * @param k
+	 *            a bin between the low and the high bin.
+	 * @return the one-sided power spectral density of the bin, Hann windowed.
+	 */
+	public double psd(int k) {
+		int b = k - lowBin;
+		// The Hann window: X(k) / 2 - (X(k - 1) + X(k + 1)) / 4
+		double r = 0.5 * re[b] - 0.25 * (re[b - 1] + re[b + 1]);
+		double i = 0.5 * im[b] - 0.25 * (im[b - 1] + im[b + 1]);
+		// The sum of the squares of the periodic Hann window is 3 N / 8
+		return 2.0 * (r * r + i * i) * dt / (0.375 * length);
+	}
+
+	/**
+	 * @param low
+	 *            in Hz.
+	 * @param high
+	 *            in Hz.
+	 * @return the power of the bins in [low, high) of the window.
+	 */
+	public double bandPower(double low, double high) {
+		double df = getFrequencyResolution();
+		double power = 0.0;
+		for (int k = lowBin + 1; k < highBin; k++) {
+			double f = k * df;
+			if (f >= low && f < high)
+				power += psd(k);
+		}
+		return power * df;
+	}
+
+	/**
+	 * Removes all the samples.
+	 */
+	public void clear() {
+		Arrays.fill(samples, 0.0);
+		Arrays.fill(re, 0.0);
+		Arrays.fill(im, 0.0);
+		position = 0;
+		count = 0;
+		sinceReanchor = 0;
+	}
+
+	/**
+	 * @return true if the window is full of samples.
+	 */
+	public boolean isFull() {
+		return count == length;
+	}
+
+	/**
+	 * @return the number of samples in the window.
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * @return the distance of the bins in Hz.
+	 */
+	public double getFrequencyResolution() {
+		return 1.0 / (length * dt);
+	}
+
+}
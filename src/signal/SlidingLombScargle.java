@@ -0,0 +1,165 @@
+package signal;
+
+import java.util.Arrays;
+
+/**
+ * Fast Lomb-Scargle periodogram of the points in a sliding time window,
+ * updated incrementally. The extirpolation is linear in the values, so a new
+ * point is added to the accumulated grids, and a point leaving the window is
+ * subtracted from them; an update only subtracts the mean and runs the two
+ * FFTs. The grid covers the window with a fixed time origin: shifting the
+ * time doesn't change the periodogram.
+ *
+ * The accumulated grids and sums are rebuilt from the points of the window
+ * after every REBUILD_INTERVAL changes, so the rounding errors of the
+ * additions and subtractions don't pile up.
+ *
+ * @author Nagy Tamas
+ *
+ */
+public class SlidingLombScargle extends LombScargle {
+
+	public static final int REBUILD_INTERVAL = 1024;
+
+	private final double window;
+	private final int grid;
+	// Grid points per s
+	private final double fac;
+	// The extirpolated values, ones at the positions and ones at the double positions
+	private final double[] values;
+	private final double[] ones;
+	private final double[] doubleOnes;
+
+	// The points in the window, from head
+	private double[] xs = new double[64];
+	private double[] ys = new double[64];
+	private int head;
+	private int size;
+	private double origin = Double.NaN;
+	private double sum;
+	private int changes;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param window
+	 *            the length of the window in s.
+	 * @param oversampling
+	 *            the number of frequencies per 1 / window.
+	 * @param maxFrequency
+	 *            in Hz.
+	 */
+	public SlidingLombScargle(double window, double oversampling, double maxFrequency) {
+		super(oversampling, maxFrequency);
+		this.window = window;
+		grid = gridSize(window);
+		fac = grid / (window * oversampling);
+		values = new double[grid];
+		ones = new double[grid];
+		doubleOnes = new double[grid];
+		ensureGrid(grid);
+	}
+
+	/**
+	 * Adds a point, and removes the points that have left the window.
+	 *
+	 * @param x
+	 *            the time in s, not less than the time of the previous point.
+	 * @param y
+	 */
+	public void add(double x, double y) {
+		if (Double.isNaN(origin))
+			origin = x;
+		if (head + size == xs.length) {
+			if (head > 0) {
+				System.arraycopy(xs, head, xs, 0, size);
+				System.arraycopy(ys, head, ys, 0, size);
+			} else {
+				xs = Arrays.copyOf(xs, 2 * xs.length);
+				ys = Arrays.copyOf(ys, 2 * ys.length);
+			}
+			head = 0;
+		}
+		xs[head + size] = x;
+		ys[head + size] = y;
+		size++;
+		spreadPoint(x, y, 1.0);
+		while (size > 0 && xs[head] < x - window) {
+			spreadPoint(xs[head], ys[head], -1.0);
+			head++;
+			size--;
+		}
+		if (changes >= REBUILD_INTERVAL)
+			rebuild();
+	}
+
+	private void spreadPoint(double x, double y, double sign) {
+		double position = ((x - origin) * fac) % grid;
+		spread(sign * y, values, grid, position);
+		spread(sign, ones, grid, position);
+		spread(sign, doubleOnes, grid, (2.0 * position) % grid);
+		sum += sign * y;
+		changes++;
+	}
+
+	/**
+	 * Extirpolates the points of the window again.
+	 */
+	private void rebuild() {
+		Arrays.fill(values, 0.0);
+		Arrays.fill(ones, 0.0);
+		Arrays.fill(doubleOnes, 0.0);
+		sum = 0.0;
+		for (int i = head; i < head + size; i++)
+			spreadPoint(xs[i], ys[i], 1.0);
+		changes = 0;
+	}
+
+	/**
+	 * Calculates the periodogram of the points in the window.
+	 *
+	 * @return the number of frequencies, 0 if there are too few points.
+	 */
+	public int update() {
+		if (size < 3)
+			return 0;
+		double mean = sum / size;
+		for (int i = 0; i < grid; i++) {
+			work1[i] = values[i] - mean * ones[i];
+			work2[i] = doubleOnes[i];
+		}
+		return periodogram(grid, size, window);
+	}
+
+	/**
+	 * Removes all the points.
+	 */
+	public void clear() {
+		head = 0;
+		size = 0;
+		origin = Double.NaN;
+		rebuild();
+	}
+
+	/**
+	 * @return the number of points in the window.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the time of the last point added, NaN if there is none.
+	 */
+	public double getLastX() {
+		return (size > 0) ? xs[head + size - 1] : Double.NaN;
+	}
+
+	/**
+	 * @return the length of the window in s.
+	 */
+	public double getWindow() {
+		return window;
+	}
+
+}
@@ -0,0 +1,138 @@
+package signal;
+
+import java.util.Arrays;
+
+/**
+ * Estimates the power spectral density of an evenly sampled series with
+ * Welch's method: the mean is removed from every Hann windowed segment, the
+ * segments overlap by half, and their periodograms are averaged. The window,
+ * the FFT tables and the work arrays are allocated in the constructor, an
+ * estimate allocates nothing.
+ *
+ * @author Nagy Tamas
+ *
+ */
+public class WelchSpectrum {
+
+	private final int segmentLength;
+	private final RealFFT fft;
+	private final double[] window;
+	// The sum of the squares of the window
+	private final double windowPower;
+	private final double[] segment;
+	private final double[] psd;
+	private double frequencyResolution;
+	private int segments;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param segmentLength
+	 *            the number of samples in a segment, a power of two.
+	 */
+	public WelchSpectrum(int segmentLength) {
+		this.segmentLength = segmentLength;
+		fft = new RealFFT(segmentLength);
+		window = new double[segmentLength];
+		double sum = 0.0;
+		for (int i = 0; i < segmentLength; i++) {
+			// The periodic Hann window
+			window[i] = 0.5 - 0.5 * Math.cos(2.0 * Math.PI * i / segmentLength);
+			sum += window[i] * window[i];
+		}
+		windowPower = sum;
+		segment = new double[segmentLength];
+		psd = new double[segmentLength / 2 + 1];
+	}
+
+	/**
+	 * Estimates the one-sided power spectral density of a series.
+	 *
+	 * @param x
+	 *            the series.
+	 * @param offset
+	 *            the index of the first sample in x.
+	 * @param length
+	 *            the number of samples.
+	 * @param dt
+	 *            the sampling time in s.
+	 * @return the number of averaged segments, 0 if the series is shorter
+	 *         than a segment.
+	 */
+	public int estimate(double[] x, int offset, int length, double dt) {
+		Arrays.fill(psd, 0.0);
+		frequencyResolution = 1.0 / (segmentLength * dt);
+		int hop = segmentLength / 2;
+		segments = (length < segmentLength) ? 0 : (length - segmentLength) / hop + 1;
+		for (int s = 0; s < segments; s++) {
+			int start = offset + s * hop;
+			double mean = 0.0;
+			for (int i = 0; i < segmentLength; i++)
+				mean += x[start + i];
+			mean /= segmentLength;
+			for (int i = 0; i < segmentLength; i++)
+				segment[i] = (x[start + i] - mean) * window[i];
+			fft.transform(segment);
+			for (int k = 0; k < psd.length; k++)
+				psd[k] += fft.power(segment, k);
+		}
+		if (segments == 0)
+			return 0;
+		double scale = dt / (windowPower * segments);
+		for (int k = 0; k < psd.length; k++) {
+			// The negative frequencies are folded onto the positive ones
+			double oneSided = (k == 0 || k == psd.length - 1) ? 1.0 : 2.0;
+			psd[k] *= scale * oneSided;
+		}
+		return segments;
+	}
+
+	/**
+	 * @param low
+	 *            in Hz.
+	 * @param high
+	 *            in Hz.
+	 * @return the power of the frequencies in [low, high) from the last
+	 *         estimate.
+	 */
+	public double bandPower(double low, double high) {
+		double power = 0.0;
+		for (int k = 0; k < psd.length; k++) {
+			double f = k * frequencyResolution;
+			if (f >= low && f < high)
+				power += psd[k];
+		}
+		return power * frequencyResolution;
+	}
+
+	/**
+	 * @return the power spectral density of the last estimate, the bin k is
+	 *         at k * getFrequencyResolution(). Overwritten by the next
+	 *         estimate.
+	 */
+	public double[] getPsd() {
+		return psd;
+	}
+
+	/**
+	 * @return the distance of the bins in Hz.
+	 */
+	public double getFrequencyResolution() {
+		return frequencyResolution;
+	}
+
+	/**
+	 * @return the number of segments averaged in the last estimate.
+	 */
+	public int getSegments() {
+		return segments;
+	}
+
+	/**
+	 * @return the number of samples in a segment.
+	 */
+	public int getSegmentLength() {
+		return segmentLength;
+	}
+
+}
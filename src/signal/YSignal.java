@@ -28,7 +28,9 @@ public abstract class YSignal<N extends Number> extends Signal<N> {
      * @param dt the new samplint time.
      */
     public synchronized void setDt(double dt) {
+	beginRewrite();
 	this.dt = dt;
+	endRewrite();
     }
 
     /**
@@ -55,6 +57,16 @@ public abstract class YSignal<N extends Number> extends Signal<N> {
      */
     public abstract N get(int index);
 
+    /**
+     * Get the given sample of the signal as a primitive double.
+     * 
+     * @param index the index of the sample.
+     * @return the value of the sample at the given index.
+     */
+    public double getDouble(int index) {
+	return get(index).doubleValue();
+    }
+
    
     /**
      * @return the start time.
@@ -67,7 +79,20 @@ public abstract class YSignal<N extends Number> extends Signal<N> {
      * @param startTime the new start time.
      */
     public synchronized void setStartTime(double startTime) {
+	beginRewrite();
 	this.startTime = startTime;
+	endRewrite();
+    }
+
+    /* (non-Javadoc)
+     * @see signal.Signal#snapshot()
+     */
+    @Override
+    public synchronized SignalSnapshot snapshot() {
+	double[] ys = new double[size()];
+	for (int i = 0; i < ys.length; i++)
+	    ys[i] = getDouble(i);
+	return new SignalSnapshot(ys, ys.length, startTime, dt, getVersion());
     }
 
     /**
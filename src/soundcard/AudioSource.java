@@ -0,0 +1,55 @@
+package soundcard;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * A source of PCM data recorded by StethCapture: the sound card, a replayed
+ * WAV file, or a generated signal. The live recording reads the same way from
+ * all of them, so the live path can be run without a sound card, even faster
+ * than real time.
+ *
+ * @author Nagy Tamas
+ *
+ */
+public interface AudioSource extends Closeable {
+
+	/**
+	 * Opens the source.
+	 *
+	 * @throws IOException
+	 *             if the source can't be opened.
+	 */
+	public void open() throws IOException;
+
+	/**
+	 * Starts delivering data.
+	 */
+	public void start();
+
+	/**
+	 * Stops delivering data.
+	 */
+	public void stop();
+
+	/**
+	 * Reads PCM data, blocks until at least one frame is available.
+	 *
+	 * @param buffer
+	 * @param offset
+	 *            the index of the first byte in buffer.
+	 * @param length
+	 *            the max number of bytes, whole frames are read.
+	 * @return the number of bytes read, -1 at the end of the source.
+	 * @throws IOException
+	 */
+	public int read(byte[] buffer, int offset, int length) throws IOException;
+
+	/**
+	 * @return the format of the PCM data, valid after open().
+	 */
+	public AudioFormat getFormat();
+
+}
@@ -0,0 +1,94 @@
+package soundcard;
+
+import javax.sound.sampled.AudioFormat;
+
+import signal.HeartSoundGenerator;
+
+/**
+ * Delivers a synthetic heart sound in the format of the sound card (16 bit
+ * mono PCM).
+ *
+ * @author Nagy Tamas
+ *
+ */
+public class GeneratorAudioSource extends PacedAudioSource {
+
+	private final AudioFormat format;
+	private final HeartSoundGenerator generator;
+	private final long length;
+
+	/**
+	 * Constructor, with a generator of the default sampling rate and settings.
+	 *
+	 * @param heartRate
+	 *            in 1/min.
+	 * @param duration
+	 *            in s, 0 for an endless signal.
+	 * @param speed
+	 *            the speed relative to real time, or UNLIMITED_SPEED.
+	 */
+	public GeneratorAudioSource(double heartRate, double duration, double speed) {
+		this(new HeartSoundGenerator(StethCapture.DEFAULT_SAMLING_RATE, 0), duration, speed);
+		generator.setHeartRate(heartRate);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param generator
+	 *            the samples are read from it as they are delivered.
+	 * @param duration
+	 *            in s, 0 for an endless signal.
+	 * @param speed
+	 *            the speed relative to real time, or UNLIMITED_SPEED.
+	 */
+	public GeneratorAudioSource(HeartSoundGenerator generator, double duration, double speed) {
+		super(speed);
+		this.generator = generator;
+		this.format = new AudioFormat((float) generator.getSampleRate(), 16, 1, true, true);
+		this.length = (duration > 0.0) ? (long) (duration * generator.getSampleRate()) : Long.MAX_VALUE;
+	}
+
+	/* (non-Javadoc)
+	 * @see soundcard.AudioSource#open()
+	 */
+	@Override
+	public void open() {
+	}
+
+	/* (non-Javadoc)
+	 * @see soundcard.PacedAudioSource#readFrames(byte[], int, int)
+	 */
+	@Override
+	protected int readFrames(byte[] buffer, int offset, int frames) {
+		long position = generator.getPosition();
+		if (position >= length)
+			return -1;
+		int n = (int) Math.min(frames, length - position);
+		generator.generate(buffer, offset, n, format.isBigEndian());
+		return n;
+	}
+
+	/* (non-Javadoc)
+	 * @see soundcard.AudioSource#getFormat()
+	 */
+	@Override
+	public AudioFormat getFormat() {
+		return format;
+	}
+
+	/**
+	 * @return the generator, with the times of the generated beats.
+	 */
+	public HeartSoundGenerator getGenerator() {
+		return generator;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() {
+	}
+
+}
@@ -0,0 +1,90 @@
+package soundcard;
+
+import java.io.IOException;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.TargetDataLine;
+
+/**
+ * Records from the sound card.
+ *
+ * @author Nagy Tamas
+ *
+ */
+public class LineAudioSource implements AudioSource {
+
+	private final AudioFormat format;
+	private TargetDataLine targetLine;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param format
+	 *            the format of the requested line.
+	 */
+	public LineAudioSource(AudioFormat format) {
+		this.format = format;
+	}
+
+	/* (non-Javadoc)
+	 * @see soundcard.AudioSource#open()
+	 */
+	@Override
+	public void open() throws IOException {
+		try {
+			DataLine.Info info = new DataLine.Info(TargetDataLine.class, format);
+			targetLine = (TargetDataLine) AudioSystem.getLine(info);
+			targetLine.open();
+		} catch (LineUnavailableException | IllegalArgumentException e) {
+			throw new IOException("The sound card can't be opened: " + e.getMessage(), e);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see soundcard.AudioSource#start()
+	 */
+	@Override
+	public void start() {
+		targetLine.flush();
+		targetLine.start();
+	}
+
+	/* (non-Javadoc)
+	 * @see soundcard.AudioSource#stop()
+	 */
+	@Override
+	public void stop() {
+		targetLine.stop();
+		targetLine.flush();
+	}
+
+	/* (non-Javadoc)
+	 * @see soundcard.AudioSource#read(byte[], int, int)
+	 */
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		int frameSize = targetLine.getFormat().getFrameSize();
+		return targetLine.read(buffer, offset, length - length % frameSize);
+	}
+
+	/* (non-Javadoc)
+	 * @see soundcard.AudioSource#getFormat()
+	 */
+	@Override
+	public AudioFormat getFormat() {
+		return (targetLine != null) ? targetLine.getFormat() : format;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() {
+		if (targetLine != null)
+			targetLine.close();
+	}
+
+}
@@ -0,0 +1,116 @@
+package soundcard;
+
+import java.io.IOException;
+
+/**
+ * A source delivering its data at the pace of a sound card, or faster: at
+ * speed N the data of N seconds is delivered in one second. A read blocks
+ * until the requested frames are due, like a read from the sound card.
+ *
+ * @author Nagy Tamas
+ *
+ */
+public abstract class PacedAudioSource implements AudioSource {
+
+	/**
+	 * The data is delivered as fast as it is read.
+	 */
+	public static final double UNLIMITED_SPEED = 0.0;
+
+	private final double speed;
+	// In ns, the time when frame 0 was due
+	private long startTime;
+	private long delivered;
+	private volatile boolean running;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param speed
+	 *            the speed relative to real time, or UNLIMITED_SPEED.
+	 */
+	protected PacedAudioSource(double speed) {
+		this.speed = speed;
+	}
+
+	/**
+	 * Reads the next frames of the source.
+	 *
+	 * @param buffer
+	 * @param offset
+	 *            the index of the first byte in buffer.
+	 * @param frames
+	 *            the max number of frames.
+	 * @return the number of frames read, -1 at the end of the source.
+	 * @throws IOException
+	 */
+	protected abstract int readFrames(byte[] buffer, int offset, int frames) throws IOException;
+
+	/* (non-Javadoc)
+	 * @see soundcard.AudioSource#start()
+	 */
+	@Override
+	public void start() {
+		// Continues from the frames delivered before stopping
+		startTime = System.nanoTime() - (long) (delivered * 1e9 / getFrameRate());
+		running = true;
+	}
+
+	/* (non-Javadoc)
+	 * @see soundcard.AudioSource#stop()
+	 */
+	@Override
+	public void stop() {
+		running = false;
+	}
+
+	/* (non-Javadoc)
+	 * @see soundcard.AudioSource#read(byte[], int, int)
+	 */
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		int frames = length / getFormat().getFrameSize();
+		if (frames == 0)
+			return 0;
+		if (speed > UNLIMITED_SPEED) {
+			long due = startTime + (long) ((delivered + frames) * 1e9 / getFrameRate());
+			long wait;
+			while (running && (wait = due - System.nanoTime()) > 0) {
+				try {
+					Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+		int n = readFrames(buffer, offset, frames);
+		if (n < 0)
+			return -1;
+		delivered += n;
+		return n * getFormat().getFrameSize();
+	}
+
+	/**
+	 * @return the number of frames delivered in a second.
+	 */
+	private double getFrameRate() {
+		double rate = getFormat().getFrameRate();
+		return (speed > UNLIMITED_SPEED) ? rate * speed : rate;
+	}
+
+	/**
+	 * @return the speed relative to real time.
+	 */
+	public double getSpeed() {
+		return speed;
+	}
+
+	/**
+	 * @return the number of frames delivered.
+	 */
+	public long getDelivered() {
+		return delivered;
+	}
+
+}
@@ -1,25 +1,19 @@
 package soundcard;
 import java.awt.Color;
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.security.InvalidAlgorithmParameterException;
+import java.io.InputStream;
+import java.nio.ByteOrder;
 
-import javax.sound.sampled.AudioFileFormat;
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.DataLine;
-import javax.sound.sampled.LineUnavailableException;
-import javax.sound.sampled.TargetDataLine;
 import javax.sound.sampled.UnsupportedAudioFileException;
 
-import signal.ByteArray;
+import signal.DoubleRingBuffer;
+import signal.PagedSignalD;
+import signal.PcmDecoder;
 import signal.SignalD;
 
 
@@ -29,18 +23,39 @@ public class StethCapture implements Runnable {
 	
 	public static final int DEFAULT_MEAS_WINDOW = 88;
 	public static final int AVERAGE_N = 44;
+	public static final int DEFAULT_BLOCK_DURATION = 20;
+	// The duration of the blocks decoded from a stream in ms
+	public static final int STREAM_BLOCK_DURATION = 1000;
 	public static final double THRESHOLD_MULTIPLIER = 0.45;
-	public static final String tempFileName = "temp.dat";
+	public static final String tempFileName = "temp.wav";
+	// The memory needed by a sample of the heart sound read into the memory
+	// (the ring buffer and the min/max pyramid of the SignalD, grown by
+	// doubling), in bytes
+	public static final int LOADED_SAMPLE_SIZE = 64;
+	// The part of the max heap the heart sound may take
+	public static final double MAX_LOADED_HEAP_RATIO = 0.5;
 	
 	
-	private TargetDataLine targetLine;
+	// The sound card, if no other source is set
+	private AudioSource source;
 	private AudioFormat format;
 	private SignalD signal;
 	private boolean capture;
 	private int maxValue;
 	private double fs;
 	private boolean negateSignal = false;
-	BufferedOutputStream tempOut;
+	private PcmDecoder decoder;
+	private double[] average = new double[1];
+	private double[] averages = new double[0];
+	// The duration of one read from the sound card in ms
+	private int blockDuration = DEFAULT_BLOCK_DURATION;
+	// If it is set, the recorded samples are handed to the analysis through it
+	private DoubleRingBuffer output;
+	WavWriter tempOut;
+	// Set after a failed write, the rest of the recording isn't written
+	private volatile boolean tempFailed;
+	// The WAV file of the last recording, or the file opened last
+	private File recordingFile = new File(tempFileName);
 		
 	public StethCapture() {
 		format = new AudioFormat(DEFAULT_SAMLING_RATE, 16, 1, true, true);	
@@ -57,43 +72,51 @@ public class StethCapture implements Runnable {
 		this.signal = signal;
 	}
 	
-	public void createLine() {
+	/**
+	 * Opens the source (the sound card, if no other source is set) and the
+	 * temp file.
+	 * 
+	 * @return false, if the source can't be opened.
+	 */
+	public boolean createLine() {
 		try {
-			tempOut = new BufferedOutputStream(new FileOutputStream(tempFileName, false));
-			DataLine.Info info = new DataLine.Info(TargetDataLine.class, format);
-			targetLine = (TargetDataLine) AudioSystem.getLine(info);
-			targetLine.open();
+			if (source == null)
+				source = new LineAudioSource(format);
+			source.open();
+			recordingFile = new File(tempFileName);
+			tempOut = new WavWriter(recordingFile, source.getFormat());
+			tempFailed = false;
 			
 			//Thread.sleep(500);
 
-		} catch (LineUnavailableException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			return true;
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			System.err.println("Can't open the audio source or " + tempFileName + ": " + e);
+			return false;
 		}
 	}
 	
 	@Override
 	public void run() {
-		createLine();
-		targetLine.flush();
-		targetLine.start();
+		if (!createLine())
+			return;
+		source.start();
 		capture = true;
 
 		record();
 		
-		targetLine.stop();
-		targetLine.flush();
-		targetLine.close();
+		source.stop();
+		try {
+			source.close();
+		} catch (IOException e) {
+			System.err.println("Can't close the audio source: " + e);
+		}
 		
 		try {
-			tempOut.flush();
 			tempOut.close();
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			// The header may not contain the length of the data
+			System.err.println("Can't close " + tempFileName + ", the recording may be incomplete: " + e);
 		}
 	}
 	
@@ -106,106 +129,264 @@ public class StethCapture implements Runnable {
 		}
 	}*/
 	
+	/**
+	 * Reads the source until the capture is stopped, or the source ends. At
+	 * the end of the source the output is closed, so the analysis finishes
+	 * after the remaining samples.
+	 */
 	public void record() {
-		fs = targetLine.getFormat().getSampleRate();
-		int bufferSize = targetLine.getFormat().getFrameSize() * AVERAGE_N;
+		AudioFormat sourceFormat = source.getFormat();
+		fs = sourceFormat.getSampleRate();
+		createDecoder(sourceFormat);
+		int bufferSize = sourceFormat.getFrameSize() * getBlockFrames(fs, blockDuration);
 		// System.out.println(bufferSize);
 		signal.setDt((1.0 / fs) * AVERAGE_N);
 		byte buffer[] = new byte[bufferSize];
 		int count = 0;
+		int filled = 0;
+		boolean bigEndian = sourceFormat.isBigEndian();
 		while (capture) {
 			synchronized (buffer) {
-				count = targetLine.read(buffer, 0, buffer.length);
+				try {
+					count = source.read(buffer, filled, buffer.length - filled);
+				} catch (IOException e) {
+					// Ends the recording like the end of the source
+					System.err.println("Reading the audio source has failed: " + e);
+					count = -1;
+				}
 				//System.out.println(count);
-				if (count > 0) {
-					writeBufferAverageToSignal(buffer);
-					writeBufferToTemp(buffer, true);
+				if (count < 0) {
+					capture = false;
+					if (output != null)
+						output.close();
+				} else if (count > 0) {
+					writeBufferToTemp(buffer, filled, count, bigEndian);
+					filled = writeBlockAverageToSignal(buffer, filled + count, output);
 				}
 			}
 		}
 	}
 	
+	/**
+	 * @param sampleRate the sample rate in Hz.
+	 * @param duration the duration of the block in ms.
+	 * @return the number of frames in a block, a multiple of AVERAGE_N.
+	 */
+	public static int getBlockFrames(double sampleRate, int duration) {
+		int groups = (int) Math.round(sampleRate * duration / (1000.0 * AVERAGE_N));
+		return Math.max(groups, 1) * AVERAGE_N;
+	}
+	
+	/**
+	 * Averages every AVERAGE_N frames of a block into one sample, and adds the
+	 * samples to the signal, taking the lock of the signal once. The frames
+	 * after the last complete group are moved to the beginning of the buffer.
+	 * 
+	 * @param buffer the PCM data.
+	 * @param length the number of bytes in the buffer.
+	 * @return the number of bytes left at the beginning of the buffer.
+	 */
+	public int writeBlockAverageToSignal(byte[] buffer, int length) {
+		return writeBlockAverageToSignal(buffer, length, null);
+	}
+	
+	/**
+	 * Averages every AVERAGE_N frames of a block into one sample, and writes
+	 * the samples into the ring, or into the signal if the ring is null. The
+	 * ring is never waited for, the samples that don't fit are dropped.
+	 * 
+	 * @param buffer the PCM data.
+	 * @param length the number of bytes in the buffer.
+	 * @param ring the ring read by the analysis, or null.
+	 * @return the number of bytes left at the beginning of the buffer.
+	 */
+	public int writeBlockAverageToSignal(byte[] buffer, int length, DoubleRingBuffer ring) {
+		int frameSize = decoder.getFrameSize();
+		int frames = length / frameSize;
+		if (averages.length < frames / AVERAGE_N)
+			averages = new double[frames / AVERAGE_N];
+		int n = decoder.decodeAverage(buffer, 0, frames, AVERAGE_N, averages, 0);
+		if (negateSignal) {
+			for (int i = 0; i < n; i++)
+				averages[i] = -averages[i];
+		}
+		if (ring != null) {
+			ring.offer(averages, 0, n);
+		} else {
+			synchronized (signal) {
+				signal.addAll(averages, 0, n);
+			}
+		}
+		int consumed = n * AVERAGE_N * frameSize;
+		System.arraycopy(buffer, consumed, buffer, 0, length - consumed);
+		return length - consumed;
+	}
+	
+	/**
+	 * Reads a WAV file into the signal. The data is memory mapped and decoded
+	 * in parallel, it isn't copied into the temp file: saving copies the
+	 * opened file.
+	 * 
+	 * @param wavFile
+	 */
 	public void readWavIntoSignal(File wavFile) {
+		try (WavReader reader = new WavReader(wavFile)) {
+			format = reader.getFormat();
+			createDecoder(format);
+			tempOut = null;
+			recordingFile = wavFile;
+			reader.readAverageInto(signal, AVERAGE_N, negateSignal);
+		} catch (UnsupportedAudioFileException | IOException e) {
+			System.err.println("Can't read " + wavFile + ": " + e);
+		}
+	}
+
+	/**
+	 * Reads a WAV stream (for example an upload) into the signal. The stream
+	 * is decoded block by block while it is read, it is never stored whole.
+	 * 
+	 * @param in the stream, not closed.
+	 * @throws IOException
+	 * @throws UnsupportedAudioFileException if it isn't a PCM WAV stream.
+	 */
+	public void readWavStreamIntoSignal(InputStream in) throws IOException, UnsupportedAudioFileException {
+		AudioInputStream ais = AudioSystem.getAudioInputStream(new BufferedInputStream(in));
+		AudioFormat streamFormat = ais.getFormat();
+		if (!streamFormat.getEncoding().equals(AudioFormat.Encoding.PCM_SIGNED)
+				&& !streamFormat.getEncoding().equals(AudioFormat.Encoding.PCM_UNSIGNED))
+			throw new UnsupportedAudioFileException("Only PCM WAV streams are supported.");
+		format = streamFormat;
+		createDecoder(format);
+		tempOut = null;
+		signal.setDt(AVERAGE_N / (double) format.getSampleRate());
+		byte[] buffer = new byte[format.getFrameSize() * getBlockFrames(format.getSampleRate(), STREAM_BLOCK_DURATION)];
+		int filled = 0;
+		int count;
+		while ((count = ais.read(buffer, filled, buffer.length - filled)) >= 0) {
+			filled = writeBlockAverageToSignal(buffer, filled + count);
+		}
+	}
+
+	/**
+	 * Opens a long WAV file for displaying, without reading it into the
+	 * memory. The samples are read by pages when they are drawn.
+	 * 
+	 * @param wavFile
+	 * @return the signal, or null if the file can't be opened. It has to be
+	 *         closed.
+	 */
+	public PagedSignalD openPagedSignal(File wavFile) {
+		WavReader reader = null;
 		try {
-			AudioInputStream stream = AudioSystem.getAudioInputStream(wavFile);
-			format = stream.getFormat();
-			int buffSize = format.getFrameSize() * AVERAGE_N;
-			long i = 0;
-			int frameSize = format.getFrameSize();
-			long byteLength = stream.getFrameLength() * frameSize;
-			byte[] buffer = new byte[buffSize];
-			int count = 0;
-			signal.setDt((1.0 / format.getFrameRate()) * AVERAGE_N);
-			tempOut = new BufferedOutputStream(new FileOutputStream(tempFileName, false));
-			while (i < byteLength) {
-				
-				count = stream.read(buffer, 0, buffer.length);
-				if (count > 0) {
-					i += count;
-					writeBufferAverageToSignal(buffer, false);
-					writeBufferToTemp(buffer, true);
-				}
-				//System.out.println(byteLength + ", " + i);
+			reader = new WavReader(wavFile);
+			format = reader.getFormat();
+			createDecoder(format);
+			tempOut = null;
+			recordingFile = wavFile;
+			return new PagedSignalD(reader.averagedSource(AVERAGE_N, negateSignal));
+		} catch (UnsupportedAudioFileException | IOException e) {
+			System.err.println("Can't open " + wavFile + ": " + e);
+			try {
+				if (reader != null)
+					reader.close();
+			} catch (IOException e1) {
+				System.err.println("Can't close " + wavFile + ": " + e1);
 			}
-			tempOut.close();
+			return null;
+		}
+	}
+
+	/**
+	 * @param wavFile
+	 * @return the length of the recording in seconds, or -1 if the file
+	 *         can't be read.
+	 */
+	public static double getRecordingLength(File wavFile) {
+		try (WavReader reader = new WavReader(wavFile)) {
+			return reader.getFrameLength() / (double) reader.getFormat().getSampleRate();
 		} catch (UnsupportedAudioFileException | IOException e) {
-			e.printStackTrace();
+			return -1.0;
 		}
 	}
-	
-	public void writeTempToWavFile(File wavFile) {
-		try {
-			BufferedInputStream in = new BufferedInputStream(new FileInputStream(tempFileName));
-			ByteArrayOutputStream b = new ByteArrayOutputStream();
-			BufferedOutputStream out = new BufferedOutputStream(b);
-			byte[] buff = new byte[in.available()];
-			while (in.read(buff, 0, buff.length) > 0)
-				out.write(buff, 0, buff.length);
-			out.flush();
-			byte[] barr = b.toByteArray();
-			b.close();
-			in.close();
-			out.close();
-			
-			AudioInputStream inputStream = new AudioInputStream(new ByteArrayInputStream(barr), format, barr.length / format.getFrameSize());
-			AudioSystem.write(inputStream, AudioFileFormat.Type.WAVE, wavFile);
-			inputStream.close();
-			
-			
-			
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+
+	/**
+	 * Longer recordings can't be analysed, they are paged for displaying
+	 * only. The limit is the number of samples of the heart sound (averaged
+	 * by AVERAGE_N) fitting into MAX_LOADED_HEAP_RATIO of the max heap.
+	 * 
+	 * @param wavFile
+	 * @return false if the heart sound of the recording doesn't fit into the
+	 *         memory, true if it fits or the file can't be read.
+	 */
+	public static boolean canReadIntoSignal(File wavFile) {
+		try (WavReader reader = new WavReader(wavFile)) {
+			double samples = reader.getFrameLength() / (double) AVERAGE_N;
+			return samples * LOADED_SAMPLE_SIZE <= Runtime.getRuntime().maxMemory() * MAX_LOADED_HEAP_RATIO;
+		} catch (UnsupportedAudioFileException | IOException e) {
+			return true;
 		}
 	}
 	
+	/**
+	 * Saves the recording. The temp file (or the opened file) is already a WAV
+	 * file, so it is copied by the file system, without reading it into
+	 * memory.
+	 * 
+	 * @param wavFile
+	 * @throws IOException
+	 */
+	public void writeTempToWavFile(File wavFile) throws IOException {
+		if (recordingFile == null)
+			return;
+		if (recordingFile.getCanonicalFile().equals(wavFile.getCanonicalFile()))
+			return;
+		if (tempOut != null)
+			tempOut.flush();
+		WavWriter.copy(recordingFile, wavFile);
+	}
+	
+	/**
+	 * Forgets the recording, e.g. when a session file without the recording
+	 * was opened, so writeTempToWavFile() doesn't copy an unrelated one.
+	 */
+	public void clearRecordingFile() {
+		recordingFile = null;
+	}
+
+	/**
+	 * @return true, if there is a recording to save as a WAV file.
+	 */
+	public boolean hasRecordingFile() {
+		return recordingFile != null;
+	}
+
 	public void deleteTempFile() {
 		File tmp = new File(tempFileName);
 		tmp.delete();
 	}
 	
 	public void writeBufferToTemp(byte[] buffer, boolean bigEndian) {
+		writeBufferToTemp(buffer, 0, buffer.length, bigEndian);
+	}
+	
+	/**
+	 * Appends PCM data to the temp WAV file. The first failure is logged, the
+	 * recording goes on without the temp file.
+	 * 
+	 * @param buffer the PCM data.
+	 * @param offset the index of the first byte.
+	 * @param length the number of bytes.
+	 * @param bigEndian the byte order of the data.
+	 */
+	public void writeBufferToTemp(byte[] buffer, int offset, int length, boolean bigEndian) {
 		synchronized (buffer) {
+			if (tempFailed)
+				return;
 			try {
-				if (bigEndian) {
-					tempOut.write(buffer);
-				} else {
-					byte[] b2 = new byte[buffer.length];
-					int frameSize = format.getFrameSize();
-					if (buffer.length % frameSize != 0)
-						throw new InvalidAlgorithmParameterException("Buffer contains incomplete frame.");
-					for (int i = 0; i < buffer.length / frameSize; i++) {
-						b2[2 * i] = buffer[(2 * i) + 1];
-						b2[(2 * i) + 1] = buffer[2 * i];						
-					}
-					tempOut.write(b2);	
-				}
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			} catch (InvalidAlgorithmParameterException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+				tempOut.write(buffer, offset, length, bigEndian);
+			} catch (IOException | IllegalArgumentException e) {
+				tempFailed = true;
+				System.err.println("Writing " + tempFileName + " has failed, the recording isn't saved: " + e);
 			}
 		}
 	}
@@ -220,27 +401,38 @@ public class StethCapture implements Runnable {
 	}
 	
 	public void writeBufferAverageToSignal(byte[] buffer, boolean bigEndian) {
-		synchronized (signal) {
-			synchronized (buffer) {
-				if (negateSignal)
-					signal.add(-ByteArray.averageDouble(buffer,format.getFrameSize(), false));
-				else
-					signal.add(ByteArray.averageDouble(buffer, format.getFrameSize(), false));
-			}
-		}
+		if (decoder == null || decoder.getOrder().equals(ByteOrder.BIG_ENDIAN) != bigEndian)
+			decoder = new PcmDecoder(format.getSampleSizeInBits(), format.getChannels(),
+					!format.getEncoding().equals(AudioFormat.Encoding.PCM_UNSIGNED), bigEndian);
+		writeBufferAverageToSignal(buffer);
 	}
 	
 	public void writeBufferAverageToSignal(byte[] buffer) {
+		if (decoder == null)
+			createDecoder(format);
 		synchronized (signal) {
 			synchronized (buffer) {
+				int frames = buffer.length / decoder.getFrameSize();
+				if (decoder.decodeAverage(buffer, 0, frames, frames, average, 0) == 0)
+					return;
 				if (negateSignal)
-					signal.add(-ByteArray.averageDouble(buffer, format.getFrameSize()));
+					signal.add(-average[0]);
 				else
-					signal.add(ByteArray.averageDouble(buffer,format.getFrameSize()));
+					signal.add(average[0]);
 			}
 		}
 	}
 	
+	/**
+	 * Creates the decoder of the PCM data.
+	 * 
+	 * @param format the format of the PCM data.
+	 */
+	private void createDecoder(AudioFormat format) {
+		decoder = new PcmDecoder(format.getSampleSizeInBits(), format.getChannels(),
+				!format.getEncoding().equals(AudioFormat.Encoding.PCM_UNSIGNED), format.isBigEndian());
+	}
+	
 	
 
 	public SignalD getSignal() {
@@ -251,6 +443,26 @@ public class StethCapture implements Runnable {
 		this.signal = signal;
 	}
 
+	public DoubleRingBuffer getOutput() {
+		return output;
+	}
+
+	public void setOutput(DoubleRingBuffer output) {
+		this.output = output;
+	}
+
+	public AudioSource getSource() {
+		return source;
+	}
+
+	/**
+	 * @param source
+	 *            recorded instead of the sound card, opened by run().
+	 */
+	public void setSource(AudioSource source) {
+		this.source = source;
+	}
+
 	public void clearSignal() {
 		synchronized (signal) {
 			signal.clear();
@@ -274,6 +486,14 @@ public class StethCapture implements Runnable {
 	}
 	
 
+	public int getBlockDuration() {
+		return blockDuration;
+	}
+
+	public void setBlockDuration(int blockDuration) {
+		this.blockDuration = blockDuration;
+	}
+
 	public boolean isNegateSignal() {
 		return negateSignal;
 	}
@@ -0,0 +1,91 @@
+package soundcard;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * Replays a PCM WAV file, in real time or N times faster.
+ *
+ * @author Nagy Tamas
+ *
+ */
+public class WavAudioSource extends PacedAudioSource {
+
+	private final File file;
+	private AudioFormat format;
+	private FileChannel channel;
+	private long dataOffset;
+	private long dataLength;
+	// The byte position of the next frame in the data
+	private long position;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param file
+	 * @param speed
+	 *            the speed relative to real time, or UNLIMITED_SPEED.
+	 */
+	public WavAudioSource(File file, double speed) {
+		super(speed);
+		this.file = file;
+	}
+
+	/* (non-Javadoc)
+	 * @see soundcard.AudioSource#open()
+	 */
+	@Override
+	public void open() throws IOException {
+		try (WavReader reader = new WavReader(file)) {
+			format = reader.getFormat();
+			dataOffset = reader.getDataOffset();
+			dataLength = reader.getFrameLength() * format.getFrameSize();
+		} catch (UnsupportedAudioFileException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		position = 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see soundcard.PacedAudioSource#readFrames(byte[], int, int)
+	 */
+	@Override
+	protected int readFrames(byte[] buffer, int offset, int frames) throws IOException {
+		if (position >= dataLength)
+			return -1;
+		int frameSize = format.getFrameSize();
+		int length = (int) Math.min((long) frames * frameSize, dataLength - position);
+		ByteBuffer dst = ByteBuffer.wrap(buffer, offset, length);
+		while (dst.hasRemaining()) {
+			if (channel.read(dst, dataOffset + position + (dst.position() - offset)) < 0)
+				throw new IOException("Unexpected end of file.");
+		}
+		position += length;
+		return length / frameSize;
+	}
+
+	/* (non-Javadoc)
+	 * @see soundcard.AudioSource#getFormat()
+	 */
+	@Override
+	public AudioFormat getFormat() {
+		return format;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		if (channel != null)
+			channel.close();
+	}
+
+}
@@ -0,0 +1,380 @@
+package soundcard;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import signal.PcmDecoder;
+import signal.SampleSource;
+import signal.SignalD;
+
+/**
+ * Reads the PCM data of a RIFF/WAVE file through memory mapping. The data
+ * chunk is decimated (every n frames averaged into one sample) in parallel on
+ * a fork-join pool, in batches, so the decoding keeps up with the disk.
+ *
+ * @author Nagy Tamas
+ *
+ */
+public class WavReader implements Closeable {
+
+	// The number of averaged samples decoded and added to the signal at once
+	public static final int BATCH_SIZE = 1 << 18;
+	// Ranges with less averaged samples are decoded without splitting further
+	public static final int SPLIT_THRESHOLD = 1 << 12;
+
+	private static final int WAVE_FORMAT_PCM = 1;
+	private static final int WAVE_FORMAT_EXTENSIBLE = 0xFFFE;
+
+	private static ForkJoinPool pool;
+
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private AudioFormat format;
+	private long dataOffset = -1;
+	private long dataLength;
+	// The regions mapped by the last readAverage(), and their group size
+	private List<MappedByteBuffer> regions;
+	private int regionGroupSize;
+
+	/**
+	 * Opens the file and reads the chunks before the data.
+	 *
+	 * @param file
+	 * @throws IOException
+	 * @throws UnsupportedAudioFileException
+	 *             if the file isn't a PCM WAV file.
+	 */
+	public WavReader(File file) throws IOException, UnsupportedAudioFileException {
+		raf = new RandomAccessFile(file, "r");
+		channel = raf.getChannel();
+		try {
+			readChunks();
+		} catch (IOException | UnsupportedAudioFileException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Finds the fmt and the data chunk.
+	 */
+	private void readChunks() throws IOException, UnsupportedAudioFileException {
+		ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(header, 0);
+		if (header.getInt(0) != fourCC("RIFF") || header.getInt(8) != fourCC("WAVE"))
+			throw new UnsupportedAudioFileException("Not a RIFF/WAVE file.");
+		long position = 12;
+		long fileSize = channel.size();
+		ByteBuffer chunk = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+		while (position + 8 <= fileSize) {
+			chunk.clear();
+			readFully(chunk, position);
+			int id = chunk.getInt(0);
+			long size = chunk.getInt(4) & 0xFFFFFFFFL;
+			position += 8;
+			if (id == fourCC("fmt ")) {
+				ByteBuffer fmt = ByteBuffer.allocate((int) Math.min(size, 40)).order(ByteOrder.LITTLE_ENDIAN);
+				readFully(fmt, position);
+				readFormat(fmt);
+			} else if (id == fourCC("data")) {
+				dataOffset = position;
+				// Recordings that weren't closed properly have wrong sizes
+				dataLength = Math.min(size, fileSize - position);
+				if (size == 0 || size == 0xFFFFFFFFL)
+					dataLength = fileSize - position;
+				break;
+			}
+			// The chunks are word aligned
+			position += size + (size & 1);
+		}
+		if (format == null || dataOffset < 0)
+			throw new UnsupportedAudioFileException("The fmt or the data chunk is missing.");
+	}
+
+	private void readFormat(ByteBuffer fmt) throws UnsupportedAudioFileException {
+		if (fmt.capacity() < 16)
+			throw new UnsupportedAudioFileException("The fmt chunk is too short.");
+		int tag = fmt.getShort(0) & 0xFFFF;
+		int channels = fmt.getShort(2) & 0xFFFF;
+		float sampleRate = fmt.getInt(4);
+		int blockAlign = fmt.getShort(12) & 0xFFFF;
+		int bits = fmt.getShort(14) & 0xFFFF;
+		if (tag == WAVE_FORMAT_EXTENSIBLE && fmt.capacity() >= 26)
+			tag = fmt.getShort(24) & 0xFFFF;
+		if (tag != WAVE_FORMAT_PCM)
+			throw new UnsupportedAudioFileException("Only PCM WAV files are supported.");
+		if (bits != 8 && bits != 16 && bits != 24 && bits != 32)
+			throw new UnsupportedAudioFileException("Unsupported sample size: " + bits);
+		format = new AudioFormat(bits == 8 ? AudioFormat.Encoding.PCM_UNSIGNED : AudioFormat.Encoding.PCM_SIGNED,
+				sampleRate, bits, channels, blockAlign, sampleRate, false);
+	}
+
+	private static int fourCC(String id) {
+		return (id.charAt(0)) | (id.charAt(1) << 8) | (id.charAt(2) << 16) | (id.charAt(3) << 24);
+	}
+
+	private void readFully(ByteBuffer dst, long position) throws IOException {
+		while (dst.hasRemaining()) {
+			if (channel.read(dst, position + dst.position()) < 0)
+				throw new IOException("Unexpected end of file.");
+		}
+	}
+
+	/**
+	 * @return the format of the PCM data.
+	 */
+	public AudioFormat getFormat() {
+		return format;
+	}
+
+	/**
+	 * @return the number of complete frames in the data chunk.
+	 */
+	public long getFrameLength() {
+		return dataLength / format.getFrameSize();
+	}
+
+	/**
+	 * @return the position of the PCM data in the file.
+	 */
+	public long getDataOffset() {
+		return dataOffset;
+	}
+
+	/**
+	 * @return the length of the PCM data in bytes.
+	 */
+	public long getDataLength() {
+		return dataLength;
+	}
+
+	/**
+	 * Averages every n frames of the data into one sample, and appends the
+	 * samples to the signal. The dt of the signal is set. An incomplete group
+	 * of frames at the end is ignored.
+	 *
+	 * @param signal
+	 * @param n
+	 *            the number of frames averaged into one sample.
+	 * @param negate
+	 *            the samples are negated.
+	 * @return the number of samples added.
+	 * @throws IOException
+	 */
+	public long readAverageInto(SignalD signal, int n, boolean negate) throws IOException {
+		final int groupSize = format.getFrameSize() * n;
+		final PcmDecoder decoder = createDecoder();
+		long groups = dataLength / groupSize;
+		long groupsPerRegion = Integer.MAX_VALUE / groupSize;
+		List<MappedByteBuffer> regions = mapRegions(groupSize);
+		signal.setDt(n / (double) format.getSampleRate());
+		double[] batch = new double[(int) Math.min(BATCH_SIZE, groups)];
+		for (long g = 0; g < groups; g += batch.length) {
+			int count = (int) Math.min(batch.length, groups - g);
+			decode(new DecodeTask(decoder, regions, groupsPerRegion, n, negate, batch, g, 0, count));
+			synchronized (signal) {
+				signal.addAll(batch, 0, count);
+			}
+		}
+		return groups;
+	}
+
+	/**
+	 * Averages every n frames of a part of the data into one sample, like
+	 * readAverageInto(), but into an array. Used for reading a long recording
+	 * piece by piece, the mapping of the file is kept between the calls.
+	 *
+	 * @param firstGroup
+	 *            the index of the first group of n frames.
+	 * @param count
+	 *            the number of groups.
+	 * @param n
+	 *            the number of frames averaged into one sample.
+	 * @param negate
+	 *            the samples are negated.
+	 * @param dst
+	 *            the samples are stored from index 0.
+	 * @throws IOException
+	 */
+	public synchronized void readAverage(long firstGroup, int count, int n, boolean negate, double[] dst)
+			throws IOException {
+		int groupSize = format.getFrameSize() * n;
+		if (firstGroup < 0 || count < 0 || firstGroup + count > getGroupCount(n))
+			throw new IndexOutOfBoundsException("Groups: " + firstGroup + "-" + (firstGroup + count));
+		if (regions == null || regionGroupSize != groupSize) {
+			regions = mapRegions(groupSize);
+			regionGroupSize = groupSize;
+		}
+		decode(new DecodeTask(createDecoder(), regions, Integer.MAX_VALUE / groupSize, n, negate, dst,
+				firstGroup, 0, count));
+	}
+
+	/**
+	 * Makes the averaged samples of the data readable as a SampleSource, for
+	 * a PagedSignalD. Closing the source closes the reader.
+	 *
+	 * @param n
+	 *            the number of frames averaged into one sample.
+	 * @param negate
+	 *            the samples are negated.
+	 * @return the source.
+	 */
+	public SampleSource averagedSource(final int n, final boolean negate) {
+		return new SampleSource() {
+
+			@Override
+			public long getSampleCount() {
+				return getGroupCount(n);
+			}
+
+			@Override
+			public double getSamplingTime() {
+				return n / (double) format.getSampleRate();
+			}
+
+			@Override
+			public void read(long first, int count, double[] dst) throws IOException {
+				readAverage(first, count, n, negate, dst);
+			}
+
+			@Override
+			public void close() throws IOException {
+				WavReader.this.close();
+			}
+		};
+	}
+
+	/**
+	 * @param n
+	 *            the number of frames averaged into one sample.
+	 * @return the number of complete groups of n frames in the data.
+	 */
+	public long getGroupCount(int n) {
+		return dataLength / (format.getFrameSize() * n);
+	}
+
+	private PcmDecoder createDecoder() {
+		return new PcmDecoder(format.getSampleSizeInBits(), format.getChannels(),
+				!format.getEncoding().equals(AudioFormat.Encoding.PCM_UNSIGNED), false);
+	}
+
+	/**
+	 * Maps the complete groups of the data. Every mapped region contains
+	 * complete groups and is at most 2 GB.
+	 */
+	private List<MappedByteBuffer> mapRegions(int groupSize) throws IOException {
+		long groups = dataLength / groupSize;
+		long groupsPerRegion = Integer.MAX_VALUE / groupSize;
+		List<MappedByteBuffer> regions = new ArrayList<>();
+		for (long g = 0; g < groups; g += groupsPerRegion) {
+			long length = Math.min(groupsPerRegion, groups - g) * groupSize;
+			MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + g * groupSize, length);
+			region.order(ByteOrder.LITTLE_ENDIAN);
+			regions.add(region);
+		}
+		return regions;
+	}
+
+	/**
+	 * Decodes a range of groups of frames into a part of the batch array,
+	 * splitting the range in halves while it is long.
+	 */
+	private static class DecodeTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 5290436915718430227L;
+
+		private final PcmDecoder decoder;
+		private final List<MappedByteBuffer> regions;
+		private final long groupsPerRegion;
+		private final int n;
+		private final boolean negate;
+		private final double[] dst;
+		// The index of the first group of the batch in the data
+		private final long firstGroup;
+		private final int from;
+		private final int to;
+
+		DecodeTask(PcmDecoder decoder, List<MappedByteBuffer> regions, long groupsPerRegion, int n,
+				boolean negate, double[] dst, long firstGroup, int from, int to) {
+			this.decoder = decoder;
+			this.regions = regions;
+			this.groupsPerRegion = groupsPerRegion;
+			this.n = n;
+			this.negate = negate;
+			this.dst = dst;
+			this.firstGroup = firstGroup;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > SPLIT_THRESHOLD) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new DecodeTask(decoder, regions, groupsPerRegion, n, negate, dst, firstGroup, from, mid),
+						new DecodeTask(decoder, regions, groupsPerRegion, n, negate, dst, firstGroup, mid, to));
+				return;
+			}
+			int i = from;
+			while (i < to) {
+				// The range may cross the border of two regions
+				long group = firstGroup + i;
+				int region = (int) (group / groupsPerRegion);
+				int groupInRegion = (int) (group % groupsPerRegion);
+				int count = (int) Math.min(to - i, groupsPerRegion - groupInRegion);
+				decoder.decodeAverage(regions.get(region), groupInRegion * n * decoder.getFrameSize(), count * n,
+						n, dst, i);
+				i += count;
+			}
+			if (negate) {
+				for (int j = from; j < to; j++)
+					dst[j] = -dst[j];
+			}
+		}
+	}
+
+	/**
+	 * Runs a decoding task. A reader used by a task of a fork-join pool (for
+	 * example by the batch analysis) decodes on the same pool, so the threads
+	 * waiting for the decoding steal its subtasks instead of blocking.
+	 */
+	private static void decode(DecodeTask task) {
+		if (ForkJoinTask.inForkJoinPool())
+			task.invoke();
+		else
+			getPool().invoke(task);
+	}
+
+	/**
+	 * @return the pool of the decoding threads, shared by the readers.
+	 */
+	private static synchronized ForkJoinPool getPool() {
+		if (pool == null)
+			pool = new ForkJoinPool();
+		return pool;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		regions = null;
+		raf.close();
+	}
+
+}
@@ -0,0 +1,232 @@
+package soundcard;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Writes PCM data into a RIFF/WAVE file while it is being recorded. The header
+ * is written first with empty sizes, the samples are streamed after it, and
+ * the sizes are patched in the header on flush() and close(). Memory use
+ * doesn't depend on the length of the recording.
+ *
+ * @author Nagy Tamas
+ *
+ */
+public class WavWriter implements Closeable {
+
+	public static final int HEADER_SIZE = 44;
+	public static final int BUFFER_SIZE = 1 << 16;
+
+	private static final int RIFF_SIZE_POSITION = 4;
+	private static final int DATA_SIZE_POSITION = 40;
+
+	private final File file;
+	private final AudioFormat format;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	private final ByteBuffer size = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+	private final int frameSize;
+	private final int bytesPerSample;
+	private final boolean signed;
+	private long dataLength;
+	private boolean closed;
+
+	/**
+	 * Creates the file and writes the header.
+	 *
+	 * @param file
+	 *            the file, overwritten if it exists.
+	 * @param format
+	 *            the format of the PCM data that will be written, only the
+	 *            byte order may differ from the WAV format.
+	 * @throws IOException
+	 */
+	public WavWriter(File file, AudioFormat format) throws IOException {
+		this.file = file;
+		this.bytesPerSample = (format.getSampleSizeInBits() + 7) / 8;
+		this.frameSize = bytesPerSample * format.getChannels();
+		this.signed = !format.getEncoding().equals(AudioFormat.Encoding.PCM_UNSIGNED);
+		// WAV stores 8 bit samples unsigned and the others signed, always little-endian
+		this.format = new AudioFormat(bytesPerSample == 1 ? AudioFormat.Encoding.PCM_UNSIGNED
+				: AudioFormat.Encoding.PCM_SIGNED, format.getSampleRate(), format.getSampleSizeInBits(),
+				format.getChannels(), frameSize, format.getSampleRate(), false);
+		raf = new RandomAccessFile(file, "rw");
+		raf.setLength(0);
+		channel = raf.getChannel();
+		buffer = ByteBuffer.allocate(BUFFER_SIZE - BUFFER_SIZE % frameSize).order(ByteOrder.LITTLE_ENDIAN);
+		writeHeader();
+	}
+
+	/**
+	 * Writes the header with empty sizes.
+	 */
+	private void writeHeader() throws IOException {
+		int sampleRate = Math.round(format.getSampleRate());
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.put(new byte[] { 'R', 'I', 'F', 'F' }).putInt(0);
+		header.put(new byte[] { 'W', 'A', 'V', 'E' });
+		header.put(new byte[] { 'f', 'm', 't', ' ' }).putInt(16);
+		header.putShort((short) 1); // PCM
+		header.putShort((short) format.getChannels());
+		header.putInt(sampleRate);
+		header.putInt(sampleRate * frameSize);
+		header.putShort((short) frameSize);
+		header.putShort((short) format.getSampleSizeInBits());
+		header.put(new byte[] { 'd', 'a', 't', 'a' }).putInt(0);
+		header.flip();
+		while (header.hasRemaining())
+			channel.write(header, header.position());
+		channel.position(HEADER_SIZE);
+	}
+
+	/**
+	 * Appends PCM data, converted to the byte order and sign of the WAV format.
+	 *
+	 * @param data
+	 *            the PCM data.
+	 * @param offset
+	 *            the index of the first byte.
+	 * @param length
+	 *            the number of bytes, must contain complete frames.
+	 * @param bigEndian
+	 *            the byte order of the data.
+	 * @throws IOException
+	 */
+	public synchronized void write(byte[] data, int offset, int length, boolean bigEndian) throws IOException {
+		if (closed)
+			throw new IOException("WavWriter is closed.");
+		if (length % frameSize != 0)
+			throw new IllegalArgumentException("Buffer contains incomplete frame.");
+		boolean swap = bigEndian && bytesPerSample > 1;
+		boolean flipSign = (bytesPerSample == 1) == signed;
+		int end = offset + length;
+		for (int i = offset; i < end; i += bytesPerSample) {
+			if (buffer.remaining() < bytesPerSample)
+				writeBuffer();
+			int position = buffer.position();
+			if (swap) {
+				for (int j = 0; j < bytesPerSample; j++)
+					buffer.put(data[i + bytesPerSample - 1 - j]);
+			} else {
+				buffer.put(data, i, bytesPerSample);
+			}
+			if (flipSign) {
+				// The most significant byte is the last one in little-endian
+				int msb = position + bytesPerSample - 1;
+				buffer.put(msb, (byte) (buffer.get(msb) ^ 0x80));
+			}
+		}
+		dataLength += length;
+	}
+
+	/**
+	 * Writes the buffered data to the channel.
+	 */
+	private void writeBuffer() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * Writes the sizes into the header.
+	 */
+	private void patchHeader() throws IOException {
+		long riffSize = 4 + (8 + 16) + 8 + dataLength + (dataLength & 1);
+		writeSize(RIFF_SIZE_POSITION, riffSize);
+		writeSize(DATA_SIZE_POSITION, dataLength);
+	}
+
+	private void writeSize(long position, long value) throws IOException {
+		size.clear();
+		size.putInt((int) Math.min(value, 0xFFFFFFFFL));
+		size.flip();
+		while (size.hasRemaining())
+			channel.write(size, position + size.position());
+	}
+
+	/**
+	 * Writes the buffered data, and patches the sizes, so the file is a valid
+	 * WAV file containing the data written so far.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException {
+		if (closed)
+			return;
+		writeBuffer();
+		patchHeader();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed)
+			return;
+		try {
+			writeBuffer();
+			// The chunks are word aligned
+			if ((dataLength & 1) != 0)
+				channel.write(ByteBuffer.allocate(1));
+			patchHeader();
+		} finally {
+			closed = true;
+			raf.close();
+		}
+	}
+
+	/**
+	 * @return the number of PCM bytes written.
+	 */
+	public synchronized long getDataLength() {
+		return dataLength;
+	}
+
+	/**
+	 * @return the format of the file.
+	 */
+	public AudioFormat getFormat() {
+		return format;
+	}
+
+	/**
+	 * @return the file.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Copies a file with FileChannel.transferTo(), without reading it into
+	 * memory.
+	 *
+	 * @param source
+	 * @param target
+	 *            overwritten if it exists.
+	 * @throws IOException
+	 */
+	public static void copy(File source, File target) throws IOException {
+		try (RandomAccessFile in = new RandomAccessFile(source, "r");
+				RandomAccessFile out = new RandomAccessFile(target, "rw")) {
+			out.setLength(0);
+			FileChannel from = in.getChannel();
+			FileChannel to = out.getChannel();
+			long position = 0;
+			long count = from.size();
+			while (position < count)
+				position += from.transferTo(position, count - position, to);
+		}
+	}
+
+}